@@ -5,6 +5,12 @@ plugins {
 group = "me.msri"
 version = "1.0-SNAPSHOT"
 
+// benchmarks of hot paths, fed by fixtures shaped like recorded docker, and build tool output
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+}
+
 repositories {
     mavenCentral()
     maven {
@@ -15,12 +21,19 @@ repositories {
 
 dependencies {
     implementation("com.github.docker-java:docker-java:3.2.12")
+    implementation("com.github.docker-java:docker-java-transport-httpclient5:3.2.12")
+    // annotations of docker-java's transport types, that javac looks up when they are implemented
+    compileOnly("org.immutables:value:2.8.2:annotations")
     implementation ("org.springframework.boot:spring-boot-starter:2.6.3")
 
     compileOnly("org.projectlombok:lombok:1.18.22")
     annotationProcessor("org.projectlombok:lombok:1.18.22")
     implementation("org.gradle:gradle-tooling-api:7.3-20210825160000+0000")
     implementation("org.slf4j:slf4j-api:1.7.35")
+    implementation("org.apache.commons:commons-compress:1.21")
+    implementation("com.fasterxml.jackson.core:jackson-databind:2.10.3")
+    // tests that use containers of built images bring their own junit
+    compileOnly("org.junit.jupiter:junit-jupiter-api:5.8.2")
 
 
     testCompileOnly("org.projectlombok:lombok:1.18.22")
@@ -28,8 +41,27 @@ dependencies {
     testAnnotationProcessor("org.projectlombok:lombok:1.18.22")
 
     testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.8.2")
+
+    "jmhCompileOnly"("org.projectlombok:lombok:1.18.22")
+    "jmhAnnotationProcessor"("org.projectlombok:lombok:1.18.22")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.35")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.35")
 }
 
 tasks.getByName<Test>("test") {
     useJUnitPlatform()
 }
+
+// allocation rates are reported by gc profiler, results are kept for comparison across runs, e.g.
+// gradle :docker-tools:jmh -Pjmh.includes=ImageCatalog -Pjmh.args="-f 1 -wi 3 -i 5"
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs JMH benchmarks with gc profiler."
+    mainClass.set("org.openjdk.jmh.Main")
+    classpath = jmh.runtimeClasspath
+    val resultFile = layout.buildDirectory.file("reports/jmh/results.json").get().asFile
+    args(providers.gradleProperty("jmh.includes").getOrElse(".*"))
+    args("-prof", "gc", "-rf", "json", "-rff", resultFile.absolutePath)
+    args(providers.gradleProperty("jmh.args").getOrElse("").split(" ").filter { it.isNotBlank() })
+    doFirst { resultFile.parentFile.mkdirs() }
+}
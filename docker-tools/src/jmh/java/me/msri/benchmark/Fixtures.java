@@ -0,0 +1,151 @@
+package me.msri.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import lombok.experimental.UtilityClass;
+import me.msri.docker.LocalImage;
+
+/**
+ * Generates input of benchmarks, shaped like output recorded from docker, and build tools. Data is
+ * generated from a fixed seed, so that every run, and every fork, measures the same input.
+ */
+@UtilityClass
+public class Fixtures {
+
+  private static final long SEED = 42;
+
+  /** Image, whose name contains <code>none</code>, as listed by docker for dangling images. */
+  private static final String DANGLING_REPO_TAG = "<none>:<none>";
+
+  private static final List<String> BUILDPACK_LINES =
+      List.of(
+          " > Pulling builder image 'docker.io/paketobuildpacks/builder:base' %d%%",
+          " > Pulling run image 'docker.io/paketobuildpacks/run:base-cnb' %d%%",
+          "    [creator]     ===> DETECTING",
+          "    [creator]     %d of 24 buildpacks participating",
+          "    [creator]     paketo-buildpacks/ca-certificates   3.0.%d",
+          "    [creator]     ===> RESTORING",
+          "    [creator]     Restoring metadata for \"paketo-buildpacks/bellsoft-liberica:jre\"",
+          "    [creator]     ===> BUILDING",
+          "    [creator]       Adding %d container CA certificates to JVM truststore",
+          "    [creator]       JAVA_TOOL_OPTIONS=-XX:MaxRAM=%d -XX:+ExitOnOutOfMemoryError",
+          "    [creator]     Reusing layer 'paketo-buildpacks/executable-jar:classpath' %d",
+          "    [creator]     Adding layer 'paketo-buildpacks/spring-boot:helper' %d",
+          "    [creator]     ===> EXPORTING",
+          "    [creator]     Adding label 'org.springframework.boot.version' %d");
+
+  private static final List<String> GRADLE_TASKS =
+      List.of("compileJava", "processResources", "classes", "jar", "bootJar", "test");
+
+  /**
+   * Lists images like {@link me.msri.docker.DockerRunner#listImages()} does. Every image has up
+   * to 4 tags, and about 5% of them are dangling.
+   */
+  public static List<LocalImage> localImages(final int count) {
+    final var random = new Random(SEED);
+    final List<LocalImage> images = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final String id = "sha256:" + hex(random, 32);
+      final long size = 100_000_000L + random.nextInt(200_000_000);
+      if (random.nextInt(20) == 0) {
+        images.add(new LocalImage(id, Set.of(DANGLING_REPO_TAG), size));
+        continue;
+      }
+      // a few hundred services, with many versions each, like a long-lived CI agent has
+      final String name = "team-" + random.nextInt(10) + "/service-" + random.nextInt(300);
+      final Set<String> repoTags = new LinkedHashSet<>();
+      final int tagCount = 1 + random.nextInt(4);
+      for (int tag = 0; tag < tagCount; tag++) {
+        repoTags.add(name + ":" + (tag == 0 ? "1.0." + i : "build-" + random.nextInt(100_000)));
+      }
+      images.add(new LocalImage(id, repoTags, size));
+    }
+    return images;
+  }
+
+  /**
+   * Output of <code>bootBuildImage</code>, or <code>spring-boot:build-image</code>, of about
+   * supplied size, ending with the line that names the built image.
+   */
+  public static byte[] buildpackLog(final int sizeBytes, final String builtImage) {
+    final var random = new Random(SEED);
+    final var log = new StringBuilder(sizeBytes + 128);
+    while (log.length() < sizeBytes) {
+      log.append("[INFO] ")
+          .append(
+              BUILDPACK_LINES
+                  .get(random.nextInt(BUILDPACK_LINES.size()))
+                  .formatted(random.nextInt(100)))
+          .append('\n');
+    }
+    log.append("[INFO] Successfully built image '").append(builtImage).append("'\n");
+    return log.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Paths of supplied number of tasks, spread over modules of a multi-project build. */
+  public static List<String> gradleTaskPaths(final int taskCount) {
+    final List<String> taskPaths = new ArrayList<>(taskCount);
+    for (int task = 0; task < taskCount; task++) {
+      taskPaths.add(":module-" + task % 20 + ":" + GRADLE_TASKS.get(task % GRADLE_TASKS.size())
+          + (task / 20));
+    }
+    return taskPaths;
+  }
+
+  /**
+   * Output of a gradle build that runs supplied tasks, i.e. a header of every task followed by its
+   * output, and the summary of the build.
+   */
+  public static byte[] gradleLog(final List<String> taskPaths) {
+    final var random = new Random(SEED);
+    final var log = new StringBuilder();
+    for (final String taskPath : taskPaths) {
+      log.append("> Task ").append(taskPath).append(random.nextInt(3) == 0 ? " UP-TO-DATE" : "")
+          .append('\n');
+      final int lineCount = random.nextInt(40);
+      for (int line = 0; line < lineCount; line++) {
+        log.append("Note: ").append(taskPath).append(" processed ").append(hex(random, 12))
+            .append('\n');
+      }
+    }
+    log.append('\n').append("BUILD SUCCESSFUL in 42s\n")
+        .append(taskPaths.size()).append(" actionable tasks: ").append(taskPaths.size())
+        .append(" executed\n");
+    return log.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Output of a maven build of supplied number of modules, with a log line per plugin execution,
+   * followed by reactor summary of all modules.
+   */
+  public static List<String> mavenLog(final int moduleCount) {
+    final var random = new Random(SEED);
+    final List<String> lines = new ArrayList<>();
+    for (int module = 0; module < moduleCount; module++) {
+      lines.add("[INFO] ----------------------< me.msri:module-" + module + " >----------------");
+      lines.add("[INFO] Building module-" + module + " 0.0.1-SNAPSHOT");
+      for (int line = 0; line < 50; line++) {
+        lines.add("[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ module-"
+            + module + " --- " + hex(random, 8));
+      }
+    }
+    lines.add("[INFO] Reactor Summary for parent 0.0.1-SNAPSHOT:");
+    for (int module = 0; module < moduleCount; module++) {
+      lines.add("[INFO] module-" + module + " 0.0.1-SNAPSHOT ......................... SUCCESS [  "
+          + random.nextInt(60) + "." + random.nextInt(1000) + " s]");
+    }
+    lines.add("[INFO] BUILD SUCCESS");
+    return lines;
+  }
+
+  private static String hex(final Random random, final int byteCount) {
+    final byte[] bytes = new byte[byteCount];
+    random.nextBytes(bytes);
+    return HexFormat.of().formatHex(bytes);
+  }
+}
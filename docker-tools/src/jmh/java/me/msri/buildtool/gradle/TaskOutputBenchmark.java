@@ -0,0 +1,84 @@
+package me.msri.buildtool.gradle;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import me.msri.benchmark.Fixtures;
+import me.msri.console.LineProcessingOutputStream;
+import org.gradle.tooling.events.task.TaskOperationDescriptor;
+import org.gradle.tooling.events.task.TaskStartEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splitting of output of a gradle build into lines, and attributing them to tasks by {@link
+ * TaskOutputCollector}, as {@link GradleRunnerUtil} does while the build is running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskOutputBenchmark {
+
+  /** Size of chunks, that output of gradle arrives in. */
+  private static final int CHUNK_SIZE = 8192;
+
+  private static final int OUTPUT_TAIL_SIZE = 200;
+  private static final int TASK_OUTPUT_TAIL_SIZE = 50;
+
+  @Param({"100", "1000"})
+  private int taskCount;
+
+  private List<String> taskPaths;
+  private List<TaskStartEvent> taskStartEvents;
+  private byte[] log;
+
+  @Setup
+  public void setUp() {
+    taskPaths = Fixtures.gradleTaskPaths(taskCount);
+    taskStartEvents = taskPaths.stream().map(TaskOutputBenchmark::newTaskStartEvent).toList();
+    log = Fixtures.gradleLog(taskPaths);
+  }
+
+  @Benchmark
+  public String collectTaskOutput(final Blackhole blackhole) {
+    final var outputStream = new LineProcessingOutputStream(blackhole::consume, OUTPUT_TAIL_SIZE);
+    final var taskOutput = new TaskOutputCollector(TASK_OUTPUT_TAIL_SIZE);
+    outputStream.addLineListener(taskOutput);
+    taskStartEvents.forEach(taskOutput::statusChanged);
+    for (int offset = 0; offset < log.length; offset += CHUNK_SIZE) {
+      outputStream.write(log, offset, Math.min(CHUNK_SIZE, log.length - offset));
+    }
+    outputStream.close();
+    taskPaths.forEach(taskPath -> blackhole.consume(taskOutput.getOutput(taskPath)));
+    return outputStream.getTail();
+  }
+
+  /** Event of the tooling api, of which only path of the task is read. */
+  private static TaskStartEvent newTaskStartEvent(final String taskPath) {
+    final var descriptor =
+        (TaskOperationDescriptor)
+            Proxy.newProxyInstance(
+                TaskOperationDescriptor.class.getClassLoader(),
+                new Class<?>[] {TaskOperationDescriptor.class},
+                (proxy, method, args) ->
+                    "getTaskPath".equals(method.getName()) ? taskPath : null);
+    return (TaskStartEvent)
+        Proxy.newProxyInstance(
+            TaskStartEvent.class.getClassLoader(),
+            new Class<?>[] {TaskStartEvent.class},
+            (proxy, method, args) -> "getDescriptor".equals(method.getName()) ? descriptor : null);
+  }
+}
@@ -0,0 +1,43 @@
+package me.msri.buildtool.maven;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import me.msri.benchmark.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Matching of every line of a maven build against reactor summary, while the build runs. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MavenReactorSummaryBenchmark {
+
+    @Param({"10", "200"})
+    private int moduleCount;
+
+    private List<String> lines;
+
+    @Setup
+    public void setUp() {
+        lines = Fixtures.mavenLog(moduleCount);
+    }
+
+    @Benchmark
+    public boolean collectReactorSummary() {
+        final var summary = new MavenReactorSummary();
+        lines.forEach(summary);
+        return summary.isPresent();
+    }
+}
@@ -0,0 +1,74 @@
+package me.msri.console;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import me.msri.benchmark.Fixtures;
+import me.msri.buildtool.SpringBootOutputMatchers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Scanning of build pack output for the name of the built image, as <code>createSpringBootImage
+ * </code> of build tool runners does while the build is running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildOutputBenchmark {
+
+  /** Size of chunks, that output of gradle and maven arrives in. */
+  private static final int CHUNK_SIZE = 8192;
+
+  private static final int TAIL_SIZE = 200;
+
+  @Param({"1048576", "8388608"})
+  private int logSizeBytes;
+
+  private byte[] log;
+  private List<String> lines;
+
+  @Setup
+  public void setUp() {
+    log = Fixtures.buildpackLog(logSizeBytes, "docker.io/library/service:0.0.1");
+    lines = new String(log, StandardCharsets.UTF_8).lines().toList();
+  }
+
+  /** Splits chunks of output into lines, keeps a tail of them, and matches every line. */
+  @Benchmark
+  public Map.Entry<String, String> streamBuildpackLog(final Blackhole blackhole) {
+    final var outputStream = new LineProcessingOutputStream(blackhole::consume, TAIL_SIZE);
+    final var builtImage = outputStream.addMatcher(SpringBootOutputMatchers.BUILT_IMAGE_MATCHER);
+    for (int offset = 0; offset < log.length; offset += CHUNK_SIZE) {
+      outputStream.write(log, offset, Math.min(CHUNK_SIZE, log.length - offset));
+    }
+    outputStream.close();
+    return builtImage.join();
+  }
+
+  /** Matches lines that are already split, e.g. by a process reader. */
+  @Benchmark
+  public Map.Entry<String, String> matchBuiltImage() {
+    for (final String line : lines) {
+      final var match = SpringBootOutputMatchers.BUILT_IMAGE_MATCHER.match(line);
+      if (match.isPresent()) {
+        return match.get();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,61 @@
+package me.msri.console;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import me.msri.benchmark.Fixtures;
+import me.msri.console.ConsoleCommandExecutor.CommandExecutionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Draining of output of a process by {@link ProcessExecution}, i.e. reading it line by line,
+ * keeping its tail, and handing every line to consumers, and to the publisher of output. The
+ * process prints a build pack log with <code>cat</code>, so that it costs little besides its
+ * output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessOutputBenchmark {
+
+  @Param({"1048576", "8388608"})
+  private int logSizeBytes;
+
+  private Path logFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    logFile = Files.createTempFile("msri-benchmark-", ".log");
+    Files.write(logFile, Fixtures.buildpackLog(logSizeBytes, "docker.io/library/service:0.0.1"));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(logFile);
+  }
+
+  @Benchmark
+  public CommandExecutionResult drainOutput(final Blackhole blackhole) {
+    return ProcessExecutor.prepare(List.of("cat", logFile.toString()))
+        .onLine(blackhole::consume)
+        .start()
+        .join();
+  }
+}
@@ -0,0 +1,89 @@
+package me.msri.docker;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import me.msri.benchmark.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Indexing of all local images by {@link ImageCatalog}, that is done once per build service, and
+ * lookups of images of services in it, that every build does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageCatalogBenchmark {
+
+  /** Services of a build, whose images are looked up. */
+  private static final int SERVICE_COUNT = 50;
+
+  @Param({"1000", "10000"})
+  private int imageCount;
+
+  private DockerRunner dockerRunner;
+  private ImageCatalog catalog;
+  /** Name, tag, and id of images of services, all of them present in the catalog. */
+  private List<String[]> serviceImages;
+
+  @Setup
+  public void setUp() {
+    final List<LocalImage> images = Fixtures.localImages(imageCount);
+    // docker client connects on its first request, which listing images does not make here
+    dockerRunner =
+        new DockerRunner(DockerClientProvider.newInstance()) {
+          @Override
+          public List<LocalImage> listImages() {
+            return images;
+          }
+        };
+    catalog = new ImageCatalog(dockerRunner).load();
+    serviceImages =
+        images.stream()
+            .map(image -> toServiceImage(image.repoTags().iterator().next(), image.id()))
+            .filter(image -> !image[0].startsWith("<none>"))
+            .limit(SERVICE_COUNT)
+            .toList();
+  }
+
+  @TearDown
+  public void tearDown() {
+    dockerRunner.close();
+  }
+
+  @Benchmark
+  public ImageCatalog load() {
+    return new ImageCatalog(dockerRunner).load();
+  }
+
+  /** Looks up images of services, as a build does to find those that only need new tags. */
+  @Benchmark
+  public void lookUpServiceImages(final Blackhole blackhole) {
+    for (final String[] image : serviceImages) {
+      blackhole.consume(catalog.getImageId(image[0], image[1]));
+      blackhole.consume(catalog.containsImage(image[0], image[2]));
+      blackhole.consume(catalog.getTags(image[0], image[2]));
+    }
+  }
+
+  private static String[] toServiceImage(final String repoTag, final String imageId) {
+    final int separator = repoTag.lastIndexOf(':');
+    return new String[] {
+      repoTag.substring(0, separator), repoTag.substring(separator + 1), imageId
+    };
+  }
+}
@@ -2,43 +2,62 @@ package me.msri.annotation.processor;
 
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toUnmodifiableMap;
 import static java.util.stream.Collectors.toUnmodifiableSet;
 
 import com.sun.source.util.Trees;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import lombok.extern.slf4j.Slf4j;
 import me.msri.annotation.BuildImage;
 import me.msri.annotation.BuildMultipleImages;
-import me.msri.buildtool.BuildToolRunner;
-import me.msri.buildtool.BuildToolRunnerProvider;
-import me.msri.docker.DockerClientProvider;
-import me.msri.docker.DockerRunner;
-import me.msri.docker.DockerfileUtil;
+import me.msri.annotation.processor.ImageBuildScheduler.ImageBuildReport;
+import me.msri.annotation.processor.ImageBuildScheduler.ServiceBuildResult;
+import me.msri.daemon.ImageBuildDaemonClient;
+import me.msri.daemon.ImageBuildDaemonException;
+import me.msri.daemon.ImageBuildDaemonUnavailableException;
 
 @SupportedAnnotationTypes({
   "me.msri.annotation.BuildImage",
   "me.msri.annotation.BuildMultipleImages"
 })
+@SupportedOptions({
+  BuildImageProcessorOptions.PARALLELISM,
+  BuildImageProcessorOptions.SERVICE_TIMEOUT_SECONDS,
+  BuildImageProcessorOptions.IMAGE_CACHE,
+  BuildImageProcessorOptions.WATCH_IMAGE_EVENTS,
+  BuildImageProcessorOptions.LAYERED_JAR_CONTEXT,
+  BuildImageProcessorOptions.DAEMONLESS_JAR_IMAGES,
+  BuildImageProcessorOptions.LAYER_STORE_MAX_SIZE_MB,
+  BuildImageProcessorOptions.DAEMON,
+  BuildImageProcessorOptions.DAEMON_IDLE_TIMEOUT_MINUTES,
+  BuildImageProcessorOptions.IMAGE_GC,
+  BuildImageProcessorOptions.IMAGE_MAX_AGE_DAYS,
+  BuildImageProcessorOptions.IMAGE_STORE_MAX_SIZE_MB,
+  BuildImageProcessorOptions.TRACE_FORMAT,
+  BuildImageProcessorOptions.MAX_CONNECTIONS,
+  BuildImageProcessorOptions.CONNECT_TIMEOUT_SECONDS,
+  BuildImageProcessorOptions.RESPONSE_TIMEOUT_SECONDS,
+  BuildImageProcessorOptions.KEEP_ALIVE_SECONDS
+})
 @Slf4j
 public class BuildImageProcessor extends AbstractProcessor {
 
   private static final String PROJECT_ROOT = System.getProperty("user.dir");
-  private BuildToolRunner buildToolRunner;
-  private DockerRunner dockerRunner;
-  private Map<String, Map<String, Set<String>>> dockerImages;
+  private BuildImageProcessorOptions options;
+  private ImageBuildService imageBuildService;
 
   private Trees trees;
 
@@ -51,10 +70,10 @@ public class BuildImageProcessor extends AbstractProcessor {
   public synchronized void init(ProcessingEnvironment processingEnv) {
     super.init(processingEnv);
     trees = Trees.instance(processingEnv);
-    buildToolRunner = BuildToolRunnerProvider.getBuildToolRunner(PROJECT_ROOT);
-    dockerRunner = new DockerRunner(DockerClientProvider.newInstance());
-    loadDockerImages();
+    // build tool and docker are set up only once an annotation is found, see buildImages
+    options = BuildImageProcessorOptions.from(processingEnv.getOptions());
   }
+
   // 1. It is gradle project or maven
   // 2. List services managed by gradle
   // 3. Is it > SB 2.3+. Is it < SB 2.3. Is it executable jar. Non Exec jar
@@ -64,6 +83,13 @@ public class BuildImageProcessor extends AbstractProcessor {
   // 8. Delete image after test
   @Override
   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      // connections are kept warm across rounds, and released only after the last round
+      if (imageBuildService != null) {
+        imageBuildService.close();
+      }
+      return false;
+    }
     if (annotations.isEmpty()) {
       return false;
     }
@@ -72,35 +98,12 @@ public class BuildImageProcessor extends AbstractProcessor {
     final var imagesWithTagsToBeCreated =
         Stream.concat(getSingleAnnotations(roundEnv), getMultipleAnnotations(roundEnv))
             .flatMap(this::createTagEntryPerService)
-            .filter(
-                imageWithTag -> {
-                  if (buildToolRunner.isValidService(imageWithTag.serviceName())) {
-                    return true;
-                  }
-                  log.error("Service does not exist: {}", imageWithTag.serviceName());
-                  return false;
-                })
             .collect(
                 groupingBy(
                     ImageWithTag::serviceName, mapping(ImageWithTag::tag, toUnmodifiableSet())));
 
     if (!imagesWithTagsToBeCreated.isEmpty()) {
-      final var newImagesWithTag =
-          imagesWithTagsToBeCreated.entrySet().stream()
-              .map(imageAndTags -> createImage(imageAndTags.getKey(), imageAndTags.getValue()))
-              .filter(Optional::isPresent)
-              .map(Optional::get)
-              .collect(Collectors.toUnmodifiableSet());
-
-      // log images that could not be created
-      imagesWithTagsToBeCreated.keySet().stream()
-          .filter(Predicate.not(newImagesWithTag::contains))
-          .forEach(
-              image ->
-                  log.info(
-                      "Could not create image: {}, with tags: {}",
-                      image,
-                      imagesWithTagsToBeCreated.get(image)));
+      buildImages(imagesWithTagsToBeCreated).log();
     }
 
     log.info("Total time to setup images: {}ms", System.currentTimeMillis() - startTime);
@@ -111,59 +114,41 @@ public class BuildImageProcessor extends AbstractProcessor {
     return true;
   }
 
-  private Optional<String> createImage(final String serviceName, final Set<String> tags) {
-    // Try to create spring boot application image using build pack (if boot version supports it)
-    final var springBootOciImage = buildToolRunner.createSpringBootImage(serviceName);
-    if (springBootOciImage.isPresent()) {
-      final String sourceTag = springBootOciImage.get().getValue();
-      final boolean isSourceTaPreExisting = dockerImages.get(serviceName).values().stream()
-          .flatMap(Set::stream).anyMatch(tag -> tag.equals(sourceTag));
-      // Re-load image list to have data for newly created images
-      loadDockerImages();
-      // Creating requested tags
-      tags.forEach(targetTag -> buildImageWithTag(serviceName, sourceTag, targetTag));
-      // Cleaning up source tag that if it was not request or did not exist before
-      if (!isSourceTaPreExisting) {
-        dockerRunner.deleteImageAndTag(serviceName, sourceTag);
+  /**
+   * Submits images to image build daemon, if it is enabled, so that build tool and docker stay warm
+   * across compilations. Otherwise, or if daemon is not reachable, images are built in-process, by
+   * a service that is created on the first round with annotations. A request that reached the
+   * daemon is not built again in-process, if it fails, its services are reported as failed.
+   */
+  private ImageBuildReport buildImages(final Map<String, Set<String>> imagesWithTags) {
+    if (options.daemon()) {
+      try {
+        return ImageBuildDaemonClient.submit(
+            Path.of(PROJECT_ROOT), getDaemonOptions(), imagesWithTags);
+      } catch (ImageBuildDaemonUnavailableException e) {
+        log.warn("Image build daemon is not available, images are built in-process.");
+      } catch (ImageBuildDaemonException e) {
+        final String reason = "Image build daemon failed: " + e.getMessage();
+        return new ImageBuildReport(
+            imagesWithTags.entrySet().stream()
+                .map(
+                    entry -> ServiceBuildResult.failed(entry.getKey(), entry.getValue(), 0, reason))
+                .toList());
       }
-      return Optional.of(serviceName);
     }
 
-    // Try to create spring boot fat jar and then manually create docker image from it
-    final var springBootImageFromJarNameAndTag =
-        buildToolRunner
-            .createSpringBootJar(serviceName)
-            .map(
-                entry ->
-                    DockerfileUtil.createDockerFileFromTemplate(entry.getKey(), entry.getValue()))
-            .map(dockerFile -> dockerRunner.createNewImage(serviceName, tags, dockerFile));
-    if (springBootImageFromJarNameAndTag.isPresent()) {
-      return Optional.of(serviceName);
+    if (imageBuildService == null) {
+      imageBuildService = new ImageBuildService(Path.of(PROJECT_ROOT), options);
     }
-
-    return Optional.empty();
-  }
-
-  private void buildImageWithTag(
-      final String imageName, final String sourceTag, final String targetTag) {
-    final String id = dockerImages.get(imageName).entrySet().stream()
-        .filter(idAndTags -> idAndTags.getValue().contains(sourceTag))
-        .map(Map.Entry::getKey).findFirst().orElseThrow();
-    final String repoTag = imageName + ":" + sourceTag;
-
-    log.info("""
-            Adding new tag for existing image -
-            Name: {}
-            Id: {}
-            Source Tag: {}
-            Target Tag: {}
-            """, imageName, id, sourceTag, targetTag);
-
-    dockerRunner.createTagForImage(id, repoTag, targetTag);
+    return imageBuildService.buildImages(imagesWithTags);
   }
 
-  private void loadDockerImages() {
-    dockerImages = dockerRunner.getAllDockerImageWithTags();
+  /** Options of this processor, that are passed on to daemon. */
+  private Map<String, String> getDaemonOptions() {
+    return processingEnv.getOptions().entrySet().stream()
+        .filter(option -> option.getKey().startsWith(BuildImageProcessorOptions.PREFIX))
+        .filter(option -> option.getValue() != null)
+        .collect(toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue));
   }
 
   private Stream<BuildImage> getSingleAnnotations(final RoundEnvironment roundEnv) {
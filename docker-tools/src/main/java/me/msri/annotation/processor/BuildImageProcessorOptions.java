@@ -0,0 +1,164 @@
+package me.msri.annotation.processor;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.docker.DockerClientOptions;
+import me.msri.trace.TraceFormat;
+
+/**
+ * Options accepted by {@link BuildImageProcessor}. They are supplied to the compiler as annotation
+ * processor options, for example <code>-Amsri.docker.parallelism=4</code>.
+ *
+ * @param parallelism Maximum number of services whose images are built at the same time.
+ * @param serviceTimeout Maximum time allowed to create image, and tags of a single service.
+ * @param imageCacheEnabled Whether an existing image is re-used when none of its inputs have
+ *     changed.
+ * @param watchImageEvents Whether docker image events are watched to pick up images changed by
+ *     other clients during compilation.
+ * @param layeredJarContext Whether fat jars are split into layers on the host, instead of being
+ *     extracted inside a builder stage of the docker file.
+ * @param daemonlessJarImages Whether images of fat jars are assembled in-process, and only loaded
+ *     into docker daemon, instead of being built by it.
+ * @param layerStoreMaxSizeBytes Size that the store of assembled image layers is trimmed to, by
+ *     evicting least recently used layers.
+ * @param daemon Whether images are built by a long-lived image build daemon, that is shared by all
+ *     compilations of the project, instead of in-process.
+ * @param daemonIdleTimeout Time after which image build daemon stops, if it receives no request.
+ * @param imageGc Whether tags created by the processor are removed in background, once they are
+ *     too old, or once its images take too much space.
+ * @param imageMaxAge Time after which an unused tag created by the processor is removed.
+ * @param imageStoreMaxSizeBytes Size that images created by the processor are trimmed to, by
+ *     removing least recently used tags.
+ * @param traceFormat Format of the file that spans of every round are written to, under build
+ *     directory, besides being emitted as JFR events.
+ * @param dockerClient Size of the pool of connections to docker daemon, and their timeouts.
+ */
+@Slf4j
+public record BuildImageProcessorOptions(
+    int parallelism,
+    Duration serviceTimeout,
+    boolean imageCacheEnabled,
+    boolean watchImageEvents,
+    boolean layeredJarContext,
+    boolean daemonlessJarImages,
+    long layerStoreMaxSizeBytes,
+    boolean daemon,
+    Duration daemonIdleTimeout,
+    boolean imageGc,
+    Duration imageMaxAge,
+    long imageStoreMaxSizeBytes,
+    TraceFormat traceFormat,
+    DockerClientOptions dockerClient) {
+
+  /** Prefix of names of all options. */
+  public static final String PREFIX = "msri.docker.";
+
+  static final String PARALLELISM = "msri.docker.parallelism";
+  static final String SERVICE_TIMEOUT_SECONDS = "msri.docker.serviceTimeoutSeconds";
+  static final String IMAGE_CACHE = "msri.docker.imageCache";
+  static final String WATCH_IMAGE_EVENTS = "msri.docker.watchImageEvents";
+  static final String LAYERED_JAR_CONTEXT = "msri.docker.layeredJarContext";
+  static final String DAEMONLESS_JAR_IMAGES = "msri.docker.daemonlessJarImages";
+  static final String LAYER_STORE_MAX_SIZE_MB = "msri.docker.layerStoreMaxSizeMb";
+  static final String DAEMON = "msri.docker.daemon";
+  static final String DAEMON_IDLE_TIMEOUT_MINUTES = "msri.docker.daemonIdleTimeoutMinutes";
+  static final String IMAGE_GC = "msri.docker.imageGc";
+  static final String IMAGE_MAX_AGE_DAYS = "msri.docker.imageMaxAgeDays";
+  static final String IMAGE_STORE_MAX_SIZE_MB = "msri.docker.imageStoreMaxSizeMb";
+  static final String TRACE_FORMAT = "msri.docker.traceFormat";
+  static final String MAX_CONNECTIONS = "msri.docker.maxConnections";
+  static final String CONNECT_TIMEOUT_SECONDS = "msri.docker.connectTimeoutSeconds";
+  static final String RESPONSE_TIMEOUT_SECONDS = "msri.docker.responseTimeoutSeconds";
+  static final String KEEP_ALIVE_SECONDS = "msri.docker.keepAliveSeconds";
+
+  private static final int DEFAULT_PARALLELISM =
+      Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  private static final long DEFAULT_SERVICE_TIMEOUT_SECONDS = 600;
+  private static final long DEFAULT_LAYER_STORE_MAX_SIZE_MB = 4096;
+  private static final long DEFAULT_DAEMON_IDLE_TIMEOUT_MINUTES = 180;
+  private static final long DEFAULT_IMAGE_MAX_AGE_DAYS = 14;
+  private static final long DEFAULT_IMAGE_STORE_MAX_SIZE_MB = 10240;
+
+  /** Reads processor options supplied to compiler, and falls back to defaults where absent. */
+  public static BuildImageProcessorOptions from(final Map<String, String> options) {
+    return new BuildImageProcessorOptions(
+        (int) readPositiveLong(options, PARALLELISM, DEFAULT_PARALLELISM),
+        Duration.ofSeconds(
+            readPositiveLong(options, SERVICE_TIMEOUT_SECONDS, DEFAULT_SERVICE_TIMEOUT_SECONDS)),
+        readBoolean(options, IMAGE_CACHE, true),
+        readBoolean(options, WATCH_IMAGE_EVENTS, false),
+        readBoolean(options, LAYERED_JAR_CONTEXT, false),
+        readBoolean(options, DAEMONLESS_JAR_IMAGES, false),
+        readPositiveLong(options, LAYER_STORE_MAX_SIZE_MB, DEFAULT_LAYER_STORE_MAX_SIZE_MB)
+            * 1024
+            * 1024,
+        readBoolean(options, DAEMON, false),
+        Duration.ofMinutes(
+            readPositiveLong(
+                options, DAEMON_IDLE_TIMEOUT_MINUTES, DEFAULT_DAEMON_IDLE_TIMEOUT_MINUTES)),
+        readBoolean(options, IMAGE_GC, true),
+        Duration.ofDays(readPositiveLong(options, IMAGE_MAX_AGE_DAYS, DEFAULT_IMAGE_MAX_AGE_DAYS)),
+        readPositiveLong(options, IMAGE_STORE_MAX_SIZE_MB, DEFAULT_IMAGE_STORE_MAX_SIZE_MB)
+            * 1024
+            * 1024,
+        readTraceFormat(options),
+        readDockerClientOptions(options));
+  }
+
+  /** Response timeout is unbounded, unless supplied, as docker builds may not print for long. */
+  private static DockerClientOptions readDockerClientOptions(final Map<String, String> options) {
+    final var defaults = DockerClientOptions.DEFAULT;
+    return new DockerClientOptions(
+        (int) readPositiveLong(options, MAX_CONNECTIONS, defaults.maxConnections()),
+        Duration.ofSeconds(
+            readPositiveLong(
+                options, CONNECT_TIMEOUT_SECONDS, defaults.connectTimeout().toSeconds())),
+        Duration.ofSeconds(
+            readPositiveLong(
+                options, RESPONSE_TIMEOUT_SECONDS, defaults.responseTimeout().toSeconds())),
+        Duration.ofSeconds(
+            readPositiveLong(options, KEEP_ALIVE_SECONDS, defaults.keepAlive().toSeconds())));
+  }
+
+  private static boolean readBoolean(
+      final Map<String, String> options, final String name, final boolean defaultValue) {
+    final String value = options.get(name);
+    return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.strip());
+  }
+
+  private static TraceFormat readTraceFormat(final Map<String, String> options) {
+    final String value = options.get(TRACE_FORMAT);
+    if (value == null || value.isBlank()) {
+      return TraceFormat.NONE;
+    }
+
+    try {
+      return TraceFormat.valueOf(value.strip().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      log.warn("Invalid value: '{}' for option: {}, using default: {}", value, TRACE_FORMAT,
+          TraceFormat.NONE);
+      return TraceFormat.NONE;
+    }
+  }
+
+  private static long readPositiveLong(
+      final Map<String, String> options, final String name, final long defaultValue) {
+    final String value = options.get(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+
+    try {
+      final long parsedValue = Long.parseLong(value.strip());
+      if (parsedValue > 0) {
+        return parsedValue;
+      }
+    } catch (NumberFormatException e) {
+      // falls through to default value
+    }
+    log.warn("Invalid value: '{}' for option: {}, using default: {}", value, name, defaultValue);
+    return defaultValue;
+  }
+}
@@ -0,0 +1,258 @@
+package me.msri.annotation.processor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.buildtool.BuildTasksResult;
+import me.msri.buildtool.BuildToolRunner;
+
+/**
+ * Plan of creating images of several services, that takes projects of the build they depend on
+ * into account. Projects that more than one service depends on are built once, before any of the
+ * services, instead of being checked, or even built, again by the build of every service. A service
+ * that depends on other requested services is built after them.
+ *
+ * <p>Every step of the plan is timed, so that the critical path of the whole run, and the time
+ * saved by every step, can be reported once all services are done.
+ */
+@Slf4j
+class ImageBuildPlan {
+
+  private static final String SHARED_PROJECTS_STEP = "shared projects";
+
+  /** Key: Name of service, Value: Projects it depends on, even transitively. */
+  private final Map<String, Set<String>> upstreamProjects;
+
+  private final Set<String> sharedProjects;
+  private final Map<String, Set<String>> serviceDependencies;
+  private final Map<String, Step> steps = new ConcurrentHashMap<>();
+  private final Map<String, Long> savedPerSharedProject = new ConcurrentHashMap<>();
+  private final long startTime = System.currentTimeMillis();
+
+  private ImageBuildPlan(final Map<String, Set<String>> upstreamProjects) {
+    this.upstreamProjects = upstreamProjects;
+    final Map<String, Integer> dependentCount = new HashMap<>();
+    upstreamProjects
+        .values()
+        .forEach(projects -> projects.forEach(it -> dependentCount.merge(it, 1, Integer::sum)));
+    this.sharedProjects =
+        dependentCount.entrySet().stream()
+            .filter(entry -> entry.getValue() > 1)
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toCollection(TreeSet::new));
+    this.serviceDependencies = new HashMap<>();
+    upstreamProjects.forEach(
+        (serviceName, projects) ->
+            serviceDependencies.put(
+                serviceName,
+                projects.stream()
+                    .filter(upstreamProjects::containsKey)
+                    .collect(Collectors.toUnmodifiableSet())));
+  }
+
+  /**
+   * Reads projects that every service depends on from build tool. If build tool fails to provide
+   * them, services are planned as independent of each other.
+   */
+  static ImageBuildPlan of(final BuildToolRunner buildToolRunner, final Set<String> serviceNames) {
+    final Map<String, Set<String>> upstreamProjects = new HashMap<>();
+    try {
+      for (final String serviceName : serviceNames) {
+        upstreamProjects.put(serviceName, getUpstreamProjects(buildToolRunner, serviceName));
+      }
+    } catch (RuntimeException e) {
+      log.warn("Could not read project dependencies, services are built independently.", e);
+      serviceNames.forEach(serviceName -> upstreamProjects.put(serviceName, Set.of()));
+    }
+    return new ImageBuildPlan(upstreamProjects);
+  }
+
+  /** Key: Name of service, Value: Requested services that it depends on. */
+  Map<String, Set<String>> getServiceDependencies() {
+    return serviceDependencies;
+  }
+
+  /**
+   * Builds projects that more than one service depends on, by a single build tool invocation. If
+   * it fails, every service builds them on its own, as it would without the plan.
+   */
+  void buildSharedProjects(final BuildToolRunner buildToolRunner) {
+    if (sharedProjects.isEmpty()) {
+      return;
+    }
+    final long stepStart = System.currentTimeMillis();
+    final BuildTasksResult result;
+    try {
+      result = buildToolRunner.buildProjects(sharedProjects);
+    } catch (RuntimeException e) {
+      log.warn("Could not build shared projects: {}", sharedProjects, e);
+      return;
+    }
+    steps.put(
+        SHARED_PROJECTS_STEP,
+        new Step(SHARED_PROJECTS_STEP, stepStart, System.currentTimeMillis(), Set.of()));
+    if (!result.isSuccessful()) {
+      log.warn("Shared projects failed to build, services build them on their own: {}",
+          result.error());
+      return;
+    }
+
+    // every other dependent would have spent at least the same time checking, or building it
+    result
+        .tasks()
+        .forEach(
+            (taskPath, taskResult) ->
+                getProjectOfTask(taskPath)
+                    .ifPresent(
+                        project ->
+                            savedPerSharedProject.put(
+                                project,
+                                taskResult.durationMillis() * (getDependentCount(project) - 1))));
+  }
+
+  /** Wraps image creator of services, so that time taken by every service is recorded. */
+  BiFunction<String, Set<String>, Optional<String>> track(
+      final BiFunction<String, Set<String>, Optional<String>> imageCreator) {
+    return (serviceName, tags) -> {
+      final long stepStart = System.currentTimeMillis();
+      try {
+        return imageCreator.apply(serviceName, tags);
+      } finally {
+        steps.put(
+            serviceName,
+            new Step(
+                serviceName, stepStart, System.currentTimeMillis(), getPredecessors(serviceName)));
+      }
+    };
+  }
+
+  /**
+   * Logs every step with its start, duration, and the time it saved, followed by the critical
+   * path, i.e. the chain of dependent steps that determined the total time. Time saved by a
+   * service is the part of its duration that overlapped with steps started before it.
+   */
+  void log() {
+    if (steps.size() < 2) {
+      return;
+    }
+
+    final List<Step> orderedSteps =
+        steps.values().stream().sorted(Comparator.comparingLong(Step::start)).toList();
+    final var criticalPath = getCriticalPath();
+    final var report = new StringBuilder();
+    long coveredUntil = startTime;
+    long wallTime = 0;
+    long sequentialTime = 0;
+    for (final Step step : orderedSteps) {
+      final long contribution = Math.max(0, step.end() - Math.max(coveredUntil, step.start()));
+      coveredUntil = Math.max(coveredUntil, step.end());
+      wallTime += contribution;
+      sequentialTime += step.duration();
+      final long saved =
+          SHARED_PROJECTS_STEP.equals(step.name())
+              ? savedPerSharedProject.values().stream().mapToLong(Long::longValue).sum()
+              : step.duration() - contribution;
+      report.append(
+          String.format(
+              "%n  %s %-30s %8dms %8dms %8dms",
+              criticalPath.contains(step) ? "*" : " ",
+              step.name(),
+              step.start() - startTime,
+              step.duration(),
+              saved));
+    }
+    savedPerSharedProject.forEach(
+        (project, saved) ->
+            report.append(
+                String.format(
+                    "%n      %-28s shared by %d services, saved ~%dms",
+                    project, getDependentCount(project), saved)));
+
+    log.info("""
+            Image build plan - (* critical path)
+                %-30s %10s %10s %10s{}
+            Critical path: {} ({}ms)
+            Wall time: {}ms, sequential time: {}ms
+            """.formatted("step", "start", "duration", "saved"),
+        report,
+        criticalPath.stream().map(Step::name).collect(Collectors.joining(" -> ")),
+        criticalPath.stream().mapToLong(Step::duration).sum(),
+        wallTime,
+        sequentialTime);
+  }
+
+  /**
+   * Starts from the step that finished last, and follows the predecessor that finished last, till
+   * a step without predecessors is reached.
+   */
+  private List<Step> getCriticalPath() {
+    final List<Step> path = new ArrayList<>();
+    var step = steps.values().stream().max(Comparator.comparingLong(Step::end));
+    while (step.isPresent()) {
+      path.add(0, step.get());
+      step =
+          step.get().predecessors().stream()
+              .map(steps::get)
+              .filter(Objects::nonNull)
+              .max(Comparator.comparingLong(Step::end));
+    }
+    return path;
+  }
+
+  private Set<String> getPredecessors(final String serviceName) {
+    final Set<String> predecessors = new HashSet<>(serviceDependencies.get(serviceName));
+    if (upstreamProjects.get(serviceName).stream().anyMatch(sharedProjects::contains)) {
+      predecessors.add(SHARED_PROJECTS_STEP);
+    }
+    return predecessors;
+  }
+
+  private long getDependentCount(final String project) {
+    return upstreamProjects.values().stream().filter(it -> it.contains(project)).count();
+  }
+
+  /** Task paths end with name of the task, and the project is identified by the rest of it. */
+  private Optional<String> getProjectOfTask(final String taskPath) {
+    final int separator = taskPath.lastIndexOf(':');
+    final String projectPath =
+        (separator < 0 ? taskPath : taskPath.substring(0, separator)).toLowerCase();
+    return sharedProjects.stream()
+        .filter(project -> projectPath.equals(project) || projectPath.endsWith(":" + project))
+        .findFirst();
+  }
+
+  /** Names of projects are in lower case, as names of services are. */
+  private static Set<String> getUpstreamProjects(
+      final BuildToolRunner buildToolRunner, final String serviceName) {
+    final Set<String> visited = new HashSet<>();
+    final var pending = new ArrayDeque<>(buildToolRunner.getProjectDependencies(serviceName));
+    while (!pending.isEmpty()) {
+      final String project = pending.poll().toLowerCase();
+      if (visited.add(project)) {
+        pending.addAll(buildToolRunner.getProjectDependencies(project));
+      }
+    }
+    visited.remove(serviceName);
+    return Set.copyOf(visited);
+  }
+
+  /** A timed step of the plan, with names of steps that had to be done before it. */
+  private static final record Step(String name, long start, long end, Set<String> predecessors) {
+
+    long duration() {
+      return end - start;
+    }
+  }
+}
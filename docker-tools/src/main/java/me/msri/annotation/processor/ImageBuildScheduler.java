@@ -0,0 +1,314 @@
+package me.msri.annotation.processor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.trace.Phase;
+
+/**
+ * Creates images of services at the same time. At most {@code parallelism} services are built
+ * concurrently, and creation of each service is interrupted if it does not finish within the
+ * service timeout. The timeout of a service starts when its creation begins, not when it is
+ * scheduled.
+ *
+ * <p>A service that depends on other scheduled services is scheduled only after all of them are
+ * done, so services are built in topological order, while independent services still run
+ * concurrently.
+ */
+@Slf4j
+public class ImageBuildScheduler {
+
+  private final int parallelism;
+  private final Duration serviceTimeout;
+
+  public ImageBuildScheduler(final int parallelism, final Duration serviceTimeout) {
+    this.parallelism = parallelism;
+    this.serviceTimeout = serviceTimeout;
+  }
+
+  /**
+   * Creates images for all supplied services, and waits till every service either succeeds, fails
+   * or times out.
+   *
+   * @param imagesWithTags Key: Name of service, Value: {@link Set} of tags to be created.
+   * @param imageCreator Creates image of a service with given tags, and returns name of the image
+   *     if it was created.
+   * @return Aggregated result of all services.
+   */
+  public ImageBuildReport buildAll(
+      final Map<String, Set<String>> imagesWithTags,
+      final BiFunction<String, Set<String>, Optional<String>> imageCreator) {
+    return buildAll(imagesWithTags, Map.of(), imageCreator);
+  }
+
+  /**
+   * Creates images for all supplied services, where a service waits for the services it depends
+   * on, regardless of their outcome, as its own build may still succeed.
+   *
+   * @param dependencies Key: Name of service, Value: Names of scheduled services that must be done
+   *     before it. Services that are missing are independent. Dependencies must not be cyclic.
+   * @see #buildAll(Map, BiFunction)
+   */
+  public ImageBuildReport buildAll(
+      final Map<String, Set<String>> imagesWithTags,
+      final Map<String, Set<String>> dependencies,
+      final BiFunction<String, Set<String>, Optional<String>> imageCreator) {
+    final int workerCount = Math.max(1, Math.min(parallelism, imagesWithTags.size()));
+    final ExecutorService workers =
+        Executors.newFixedThreadPool(workerCount, namedDaemonThreads("image-builder"));
+    final ScheduledExecutorService watchdog =
+        Executors.newSingleThreadScheduledExecutor(namedDaemonThreads("image-build-watchdog"));
+
+    try {
+      final Map<String, CompletableFuture<ServiceBuildResult>> results = new HashMap<>();
+      for (final String serviceName : topologicalOrder(imagesWithTags.keySet(), dependencies)) {
+        final var upstreamResults =
+            dependencies.getOrDefault(serviceName, Set.of()).stream()
+                .map(results::get)
+                .filter(Objects::nonNull)
+                .toArray(CompletableFuture[]::new);
+        results.put(
+            serviceName,
+            CompletableFuture.allOf(upstreamResults)
+                .thenCompose(
+                    ignored ->
+                        schedule(
+                            serviceName,
+                            imagesWithTags.get(serviceName),
+                            imageCreator,
+                            workers,
+                            watchdog)));
+      }
+
+      return new ImageBuildReport(
+          imagesWithTags.keySet().stream().map(results::get).map(CompletableFuture::join).toList());
+    } finally {
+      workers.shutdownNow();
+      watchdog.shutdownNow();
+    }
+  }
+
+  private CompletableFuture<ServiceBuildResult> schedule(
+      final String serviceName,
+      final Set<String> tags,
+      final BiFunction<String, Set<String>, Optional<String>> imageCreator,
+      final ExecutorService workers,
+      final ScheduledExecutorService watchdog) {
+    final var result = new CompletableFuture<ServiceBuildResult>();
+    workers.execute(
+        () -> {
+          final long startTime = System.currentTimeMillis();
+          final Thread worker = Thread.currentThread();
+          final var timeout =
+              watchdog.schedule(
+                  () -> {
+                    if (result.complete(
+                        ServiceBuildResult.timedOut(
+                            serviceName, tags, System.currentTimeMillis() - startTime))) {
+                      worker.interrupt();
+                    }
+                  },
+                  serviceTimeout.toMillis(),
+                  TimeUnit.MILLISECONDS);
+          try {
+            final var image = imageCreator.apply(serviceName, tags);
+            final long duration = System.currentTimeMillis() - startTime;
+            result.complete(
+                image.isPresent()
+                    ? ServiceBuildResult.created(serviceName, tags, duration)
+                    : ServiceBuildResult.failed(
+                        serviceName, tags, duration, "Could not create image"));
+          } catch (Exception e) {
+            log.error("Image creation failed for service: {}", serviceName, e);
+            result.complete(
+                ServiceBuildResult.failed(
+                    serviceName, tags, System.currentTimeMillis() - startTime, describe(e)));
+          } finally {
+            timeout.cancel(false);
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Orders services so that every service comes after services it depends on. Dependencies on
+   * services that are not scheduled are ignored.
+   */
+  private static List<String> topologicalOrder(
+      final Set<String> serviceNames, final Map<String, Set<String>> dependencies) {
+    final List<String> order = new ArrayList<>();
+    final Set<String> visited = new HashSet<>();
+    final Set<String> inProgress = new HashSet<>();
+    serviceNames.forEach(
+        serviceName -> visit(serviceName, serviceNames, dependencies, visited, inProgress, order));
+    return order;
+  }
+
+  private static void visit(
+      final String serviceName,
+      final Set<String> serviceNames,
+      final Map<String, Set<String>> dependencies,
+      final Set<String> visited,
+      final Set<String> inProgress,
+      final List<String> order) {
+    if (visited.contains(serviceName)) {
+      return;
+    }
+    if (!inProgress.add(serviceName)) {
+      throw new IllegalArgumentException("Services depend on each other: " + inProgress);
+    }
+    dependencies.getOrDefault(serviceName, Set.of()).stream()
+        .filter(serviceNames::contains)
+        .forEach(
+            upstream -> visit(upstream, serviceNames, dependencies, visited, inProgress, order));
+    inProgress.remove(serviceName);
+    visited.add(serviceName);
+    order.add(serviceName);
+  }
+
+  private static String describe(final Exception e) {
+    return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+  }
+
+  private static ThreadFactory namedDaemonThreads(final String prefix) {
+    final var counter = new AtomicInteger();
+    return runnable -> {
+      final var thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /** Outcome of creating image of a service. */
+  public enum Status {
+    CREATED,
+    FAILED,
+    TIMED_OUT
+  }
+
+  /** Result of creating image, and tags for one service. */
+  public static final record ServiceBuildResult(
+      String serviceName, Set<String> tags, Status status, long durationMillis, String reason) {
+
+    static ServiceBuildResult created(
+        final String serviceName, final Set<String> tags, final long durationMillis) {
+      return new ServiceBuildResult(serviceName, tags, Status.CREATED, durationMillis, null);
+    }
+
+    static ServiceBuildResult failed(
+        final String serviceName,
+        final Set<String> tags,
+        final long durationMillis,
+        final String reason) {
+      return new ServiceBuildResult(serviceName, tags, Status.FAILED, durationMillis, reason);
+    }
+
+    static ServiceBuildResult timedOut(
+        final String serviceName, final Set<String> tags, final long durationMillis) {
+      return new ServiceBuildResult(
+          serviceName, tags, Status.TIMED_OUT, durationMillis, "Timed out");
+    }
+  }
+
+  /**
+   * Aggregated result of creating images for all scheduled services.
+   *
+   * @param phaseMillis Key: Name of service, Value: Key: Phase, Value: Total time spent in the
+   *     phase, see {@link me.msri.trace.TraceExporter#summarise(List)}.
+   */
+  public static final record ImageBuildReport(
+      List<ServiceBuildResult> results, Map<String, Map<String, Long>> phaseMillis) {
+
+    public ImageBuildReport(final List<ServiceBuildResult> results) {
+      this(results, Map.of());
+    }
+
+    public ImageBuildReport withPhaseMillis(final Map<String, Map<String, Long>> phaseMillis) {
+      return new ImageBuildReport(results, phaseMillis);
+    }
+
+    public List<ServiceBuildResult> withStatus(final Status status) {
+      return results.stream().filter(result -> result.status() == status).toList();
+    }
+
+    public boolean isSuccessful() {
+      return results.stream().allMatch(result -> result.status() == Status.CREATED);
+    }
+
+    /** Logs one line per service, followed by total count of successes, and failures. */
+    public void log() {
+      final var report = new StringBuilder();
+      results.forEach(
+          result ->
+              report
+                  .append(
+                      String.format(
+                          "%n  %-30s %-10s %8dms  %s",
+                          result.serviceName(),
+                          result.status(),
+                          result.durationMillis(),
+                          result.tags()))
+                  .append(result.reason() == null ? "" : " - " + result.reason()));
+
+      final int created = withStatus(Status.CREATED).size();
+      if (isSuccessful()) {
+        ImageBuildScheduler.log.info("Image build report: {} created{}", created, report);
+      } else {
+        ImageBuildScheduler.log.error(
+            "Image build report: {} created, {} failed, {} timed out{}",
+            created,
+            withStatus(Status.FAILED).size(),
+            withStatus(Status.TIMED_OUT).size(),
+            report);
+      }
+      logPhases();
+    }
+
+    /** Logs a table of time spent by every service in every phase, if phases were traced. */
+    private void logPhases() {
+      if (phaseMillis.isEmpty()) {
+        return;
+      }
+
+      // time of a service as a whole is its total, that other phases are part of
+      final List<String> phases =
+          Arrays.stream(Phase.values())
+              .map(Phase::getDisplayName)
+              .filter(phase -> phaseMillis.values().stream().anyMatch(it -> it.containsKey(phase)))
+              .toList();
+      final var table = new StringBuilder(String.format("%n  %-30s", "service"));
+      phases.forEach(
+          phase ->
+              table.append(
+                  String.format(
+                      " %14s", Phase.SERVICE.getDisplayName().equals(phase) ? "total" : phase)));
+      phaseMillis.forEach(
+          (serviceName, millisPerPhase) -> {
+            table.append(String.format("%n  %-30s", serviceName));
+            phases.forEach(
+                phase ->
+                    table.append(
+                        millisPerPhase.containsKey(phase)
+                            ? String.format(" %12dms", millisPerPhase.get(phase))
+                            : String.format(" %14s", "-")));
+          });
+      ImageBuildScheduler.log.info("Time per phase of every service:{}", table);
+    }
+  }
+}
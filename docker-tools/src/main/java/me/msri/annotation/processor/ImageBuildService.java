@@ -0,0 +1,541 @@
+package me.msri.annotation.processor;
+
+import static java.util.stream.Collectors.toUnmodifiableSet;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.annotation.processor.ImageBuildScheduler.ImageBuildReport;
+import me.msri.annotation.processor.ImageBuildScheduler.ServiceBuildResult;
+import me.msri.buildtool.BuildToolRunner;
+import me.msri.buildtool.BuildToolRunnerProvider;
+import me.msri.docker.AsyncDockerRunner;
+import me.msri.docker.DockerClientProvider;
+import me.msri.docker.DockerRunner;
+import me.msri.docker.DockerfileUtil;
+import me.msri.docker.ImageCatalog;
+import me.msri.docker.ImageFingerprintCache;
+import me.msri.docker.ImageGarbageCollector;
+import me.msri.docker.ImageLedger;
+import me.msri.docker.oci.OciImageAssembler;
+import me.msri.trace.Phase;
+import me.msri.trace.Span;
+import me.msri.trace.TraceExporter;
+import me.msri.trace.Tracer;
+
+/**
+ * Creates images, and tags of services of a project. It holds everything that is expensive to set
+ * up, i.e. build tool runner with its connections, docker client, image catalog, and fingerprint
+ * cache, so that all requests served by the same instance share them.
+ *
+ * <p>It is used by {@link BuildImageProcessor} for a single compilation, and by image build daemon
+ * for all compilations of a project. Build tool, and docker are loaded in background as soon as an
+ * instance is created.
+ */
+@Slf4j
+public class ImageBuildService implements AutoCloseable {
+
+  /**
+   * Share of services that must use a dependency jar, for it to go into the layer shared by their
+   * images. Jars used by most services keep the layer the same as long as those services do not
+   * change, whereas jars of a few services would change it whenever those are built, or not.
+   */
+  private static final double SHARED_LIBRARY_MIN_SHARE = 0.5;
+
+  private final Path projectRoot;
+  private final Path workDirectory;
+  private final BuildImageProcessorOptions options;
+  private final Duration cleanupTimeout;
+  private final boolean layeredJarContext;
+  private final ImageBuildScheduler imageBuildScheduler;
+  private final ImageFingerprintCache imageFingerprintCache;
+  private final Queue<CompletableFuture<Void>> pendingCleanups = new ConcurrentLinkedQueue<>();
+  private CompletableFuture<BuildToolRunner> buildToolRunnerLoad;
+  private CompletableFuture<DockerSetup> dockerSetupLoad;
+  private volatile BuildToolRunner buildToolRunner;
+  private DockerClientProvider dockerClientProvider;
+  private DockerRunner dockerRunner;
+  private AsyncDockerRunner asyncDockerRunner;
+  private ImageCatalog imageCatalog;
+  private OciImageAssembler ociImageAssembler;
+  private ImageGarbageCollector imageGarbageCollector;
+  private volatile Set<String> sharedLibraries = Set.of();
+
+  /**
+   * @param projectRoot Directory of the project whose services are built. Its build directory holds
+   *     caches of the service.
+   */
+  public ImageBuildService(final Path projectRoot, final BuildImageProcessorOptions options) {
+    this.projectRoot = projectRoot;
+    this.workDirectory = projectRoot.resolve(Path.of("build", "msri"));
+    this.options = options;
+    this.cleanupTimeout = options.serviceTimeout();
+    this.layeredJarContext = options.layeredJarContext();
+    this.imageBuildScheduler =
+        new ImageBuildScheduler(options.parallelism(), options.serviceTimeout());
+    this.imageFingerprintCache =
+        options.imageCacheEnabled()
+            ? new ImageFingerprintCache(workDirectory.resolve("image-fingerprints.properties"))
+            : null;
+    // spans are collected for the summary of every round, and drained once it completes
+    Tracer.setCollecting(true);
+    startInitialisation();
+  }
+
+  /**
+   * Creates images of all supplied services, with supplied tags, and waits for all of them.
+   * Services that are not handled by build tool are reported as failed.
+   *
+   * @param imagesWithTags Key: Name of service, Value: {@link Set} of tags to be created.
+   */
+  public synchronized ImageBuildReport buildImages(final Map<String, Set<String>> imagesWithTags) {
+    awaitBuildToolRunner();
+    final Map<String, Set<String>> validImagesWithTags = new HashMap<>();
+    final List<ServiceBuildResult> results = new ArrayList<>();
+    imagesWithTags.forEach(
+        (serviceName, tags) -> {
+          if (buildToolRunner.isValidService(serviceName)) {
+            validImagesWithTags.put(serviceName, tags);
+          } else {
+            log.error("Service does not exist: {}", serviceName);
+            results.add(ServiceBuildResult.failed(serviceName, tags, 0, "Service does not exist"));
+          }
+        });
+
+    if (!validImagesWithTags.isEmpty()) {
+      awaitDockerSetup();
+      if (ociImageAssembler != null) {
+        sharedLibraries = getSharedLibraries(validImagesWithTags.keySet());
+      }
+      // shared projects are built once, then services are created concurrently, in dependency order
+      buildToolRunner.startRound();
+      final var plan = ImageBuildPlan.of(buildToolRunner, validImagesWithTags.keySet());
+      plan.buildSharedProjects(buildToolRunner);
+      results.addAll(
+          imageBuildScheduler
+              .buildAll(
+                  validImagesWithTags,
+                  plan.getServiceDependencies(),
+                  plan.track(this::createTracedImage))
+              .results());
+      plan.log();
+      // pending requests, or a low reuse rate, hint that more connections would help
+      log.debug("Connections to docker: {}", dockerClientProvider.getConnectionPoolMetrics());
+      // images of this round are protected, so it only removes tags of earlier compilations
+      if (imageGarbageCollector != null) {
+        imageGarbageCollector.collectInBackground();
+      }
+    }
+    final var spans = Tracer.drain();
+    TraceExporter.write(spans, options.traceFormat(), workDirectory.resolve("trace"));
+    return new ImageBuildReport(List.copyOf(results), TraceExporter.summarise(spans));
+  }
+
+  /**
+   * Loads build tool again, e.g. after its build files changed, while connections to docker are
+   * kept.
+   */
+  public synchronized void reloadBuildTool() {
+    awaitBuildToolRunner();
+    buildToolRunner.close();
+    startBuildToolLoad();
+  }
+
+  /**
+   * Starts loading build tool, and listing docker images, concurrently in background, so that
+   * neither of them waits for the other.
+   */
+  private void startInitialisation() {
+    startBuildToolLoad();
+    dockerSetupLoad =
+        runInBackground(
+            () -> {
+              final var provider = DockerClientProvider.newInstance(options.dockerClient());
+              final var runner = new DockerRunner(provider);
+              final var catalog = new ImageCatalog(runner).load();
+              if (options.watchImageEvents()) {
+                catalog.watch();
+              }
+              return new DockerSetup(provider, runner, catalog);
+            },
+            "docker-image-loader");
+  }
+
+  private void startBuildToolLoad() {
+    buildToolRunner = null;
+    buildToolRunnerLoad =
+        runInBackground(
+            () -> BuildToolRunnerProvider.getBuildToolRunner(projectRoot.toString()),
+            "build-tool-loader");
+  }
+
+  /** Waits till build tool is loaded. Its projects may still be loading in background. */
+  private void awaitBuildToolRunner() {
+    if (buildToolRunner == null) {
+      buildToolRunner = join(buildToolRunnerLoad);
+    }
+  }
+
+  /** Waits till docker images are listed, and sets up everything that depends on docker. */
+  private void awaitDockerSetup() {
+    if (dockerRunner != null) {
+      return;
+    }
+    final var dockerSetup = join(dockerSetupLoad);
+    dockerClientProvider = dockerSetup.dockerClientProvider();
+    dockerRunner = dockerSetup.dockerRunner();
+    imageCatalog = dockerSetup.imageCatalog();
+    asyncDockerRunner = new AsyncDockerRunner(dockerRunner);
+    ociImageAssembler =
+        options.daemonlessJarImages()
+            ? new OciImageAssembler(
+                dockerRunner, workDirectory.resolve("oci"), options.layerStoreMaxSizeBytes())
+            : null;
+    imageGarbageCollector =
+        options.imageGc()
+            ? new ImageGarbageCollector(
+                dockerRunner,
+                imageCatalog,
+                new ImageLedger(workDirectory.resolve("image-ledger.properties")),
+                options.imageMaxAge(),
+                options.imageStoreMaxSizeBytes())
+            : null;
+  }
+
+  /**
+   * Waits for pending tag removals, and releases connections to build tool, and docker, along with
+   * threads of docker runners. Docker may not be set up, if no image was requested. A running image
+   * garbage collection is awaited for a bounded time only, as it is continued by a later
+   * compilation.
+   */
+  @Override
+  public synchronized void close() {
+    awaitBuildToolRunner();
+    buildToolRunner.close();
+    if (dockerRunner == null) {
+      dockerSetupLoad.thenAccept(
+          dockerSetup -> {
+            dockerSetup.imageCatalog().close();
+            dockerSetup.dockerRunner().close();
+          });
+      return;
+    }
+    awaitPendingCleanups();
+    asyncDockerRunner.close();
+    if (imageGarbageCollector != null) {
+      imageGarbageCollector.close();
+    }
+    if (ociImageAssembler != null) {
+      ociImageAssembler.trimStore();
+    }
+    imageCatalog.close();
+    dockerRunner.close();
+  }
+
+  /** Creates image of a service within a span, that all phases of the service are part of. */
+  private Optional<String> createTracedImage(final String serviceName, final Set<String> tags) {
+    return Tracer.start(Phase.SERVICE, serviceName)
+        .with(Span.SERVICE, serviceName)
+        .with(Span.TAGS, tags)
+        .call(() -> createImage(serviceName, tags));
+  }
+
+  private Optional<String> createImage(final String serviceName, final Set<String> tags) {
+    // Re-use existing image if nothing that goes into the image has changed since it was created
+    final var fingerprint = getImageFingerprint(serviceName);
+    final var upToDateImageId =
+        fingerprint.flatMap(
+            it ->
+                imageFingerprintCache
+                    .getImageId(serviceName, it)
+                    .filter(id -> isImageUpToDate(serviceName, id, it)));
+    if (upToDateImageId.isPresent()) {
+      addTagsToExistingImage(serviceName, upToDateImageId.get(), tags);
+      return Optional.of(serviceName);
+    }
+
+    // Try to create spring boot application image using build pack (if boot version supports it)
+    final var springBootOciImage = buildToolRunner.createSpringBootImage(serviceName);
+    if (springBootOciImage.isPresent()) {
+      final String sourceTag = springBootOciImage.get().getValue();
+      final boolean isSourceTaPreExisting =
+          imageCatalog.getImageId(serviceName, sourceTag).isPresent();
+      // Only the newly created image is read, instead of re-loading all images
+      imageCatalog.refresh(serviceName + ":" + sourceTag);
+      // Creating requested tags
+      final String imageId = getImageId(serviceName, sourceTag);
+      buildImageWithTags(serviceName, imageId, sourceTag, tags);
+      recordUse(serviceName, imageId, tags);
+      // Build pack images can not be labelled, so only the index remembers their fingerprint
+      fingerprint.ifPresent(it -> imageFingerprintCache.put(serviceName, it, imageId));
+      // Cleaning up source tag in background, if it was not requested or did not exist before
+      if (!isSourceTaPreExisting && !tags.contains(sourceTag)) {
+        scheduleTagRemoval(serviceName, sourceTag);
+      }
+      return Optional.of(serviceName);
+    }
+
+    // Try to create spring boot fat jar and then manually create docker image from it
+    final var springBootImageFromJarNameAndTag =
+        buildToolRunner
+            .createSpringBootJar(serviceName)
+            .map(
+                entry ->
+                    createImageFromJar(
+                        serviceName,
+                        tags,
+                        entry.getKey(),
+                        entry.getValue(),
+                        getLabels(fingerprint)));
+    if (springBootImageFromJarNameAndTag.isPresent()) {
+      imageCatalog.recordImage(serviceName, springBootImageFromJarNameAndTag.get(), tags);
+      recordUse(serviceName, springBootImageFromJarNameAndTag.get(), tags);
+      fingerprint.ifPresent(
+          it -> imageFingerprintCache.put(serviceName, it, springBootImageFromJarNameAndTag.get()));
+      return Optional.of(serviceName);
+    }
+
+    return Optional.empty();
+  }
+
+  /** Labels of images created from jars, marking them as ours, and fingerprinting their inputs. */
+  private static Map<String, String> getLabels(final Optional<String> fingerprint) {
+    final Map<String, String> labels = new HashMap<>();
+    labels.put(ImageGarbageCollector.OWNER_LABEL, ImageGarbageCollector.OWNER);
+    fingerprint.ifPresent(it -> labels.put(ImageFingerprintCache.FINGERPRINT_LABEL, it));
+    return Map.copyOf(labels);
+  }
+
+  /**
+   * Records tags of an image as created by us, so that garbage collector may remove them once they
+   * are unused. Temporary tags are never recorded, as they are removed right away.
+   */
+  private void recordUse(final String imageName, final String imageId, final Set<String> tags) {
+    if (imageGarbageCollector != null) {
+      imageGarbageCollector.recordUse(imageName, imageId, tags);
+    }
+  }
+
+  /**
+   * Creates image of a spring boot fat jar, either assembled without docker daemon building it, or
+   * built by docker daemon from a minimal build context.
+   *
+   * @return ID of newly created image.
+   */
+  private String createImageFromJar(
+      final String serviceName,
+      final Set<String> tags,
+      final String jarFilePath,
+      final String jarName,
+      final Map<String, String> labels) {
+    if (ociImageAssembler != null) {
+      return ociImageAssembler.load(
+          ociImageAssembler.assemble(
+              serviceName, tags, Path.of(jarFilePath, jarName), labels, sharedLibraries));
+    }
+
+    final var buildContext =
+        layeredJarContext
+            ? DockerfileUtil.createLayeredBuildContextFromTemplate(jarFilePath, jarName)
+            : DockerfileUtil.createBuildContextFromTemplate(jarFilePath, jarName);
+    return dockerRunner.createNewImage(serviceName, tags, buildContext, labels);
+  }
+
+  /**
+   * Provides file names of dependency jars that are used by at least {@link
+   * #SHARED_LIBRARY_MIN_SHARE} of supplied services, so that their images share a single layer of
+   * these jars. A service that lacks some of them, e.g. one with few dependencies, gets a layer of
+   * its own, without taking the jars out of the layer that the other services share. Empty if there
+   * are not multiple services whose inputs build tool can tell.
+   */
+  private Set<String> getSharedLibraries(final Set<String> serviceNames) {
+    if (serviceNames.size() < 2) {
+      return Set.of();
+    }
+
+    try {
+      final Map<String, Integer> servicesPerLibrary = new HashMap<>();
+      int servicesWithLibraries = 0;
+      for (final String serviceName : serviceNames) {
+        final var libraries =
+            buildToolRunner.getServiceInputs(serviceName).stream()
+                .map(Path::getFileName)
+                .map(Path::toString)
+                .filter(fileName -> fileName.endsWith(".jar"))
+                .collect(toUnmodifiableSet());
+        if (!libraries.isEmpty()) {
+          servicesWithLibraries++;
+          libraries.forEach(library -> servicesPerLibrary.merge(library, 1, Integer::sum));
+        }
+      }
+
+      final int minServices =
+          Math.max(2, (int) Math.ceil(servicesWithLibraries * SHARED_LIBRARY_MIN_SHARE));
+      final Set<String> sharedLibraries =
+          servicesPerLibrary.entrySet().stream()
+              .filter(entry -> entry.getValue() >= minServices)
+              .map(Map.Entry::getKey)
+              .collect(toUnmodifiableSet());
+      log.info(
+          "Dependencies shared by at least {} of {} services: {}",
+          minServices,
+          servicesWithLibraries,
+          sharedLibraries.size());
+      return sharedLibraries;
+    } catch (RuntimeException e) {
+      log.warn("Could not find dependencies shared by services: {}", serviceNames, e);
+      return Set.of();
+    }
+  }
+
+  /**
+   * Computes fingerprint of everything that goes into the image of a service. Empty if image
+   * cache is disabled, or if build tool can not tell the inputs of the service.
+   */
+  private Optional<String> getImageFingerprint(final String serviceName) {
+    if (imageFingerprintCache == null) {
+      return Optional.empty();
+    }
+
+    try {
+      final var inputs = buildToolRunner.getServiceInputs(serviceName);
+      if (inputs.isEmpty()) {
+        return Optional.empty();
+      }
+      // image of the same inputs differs by the way it is created
+      final String imageRecipe =
+          ociImageAssembler != null
+              ? OciImageAssembler.class.getName()
+              : layeredJarContext
+                  ? DockerfileUtil.getLayeredDockerfileTemplate()
+                  : DockerfileUtil.getDockerfileTemplate();
+      return Optional.of(ImageFingerprintCache.fingerprint(inputs, imageRecipe));
+    } catch (RuntimeException e) {
+      log.warn("Could not compute fingerprint of service: {}, image will be re-created.",
+          serviceName, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * An image is up-to-date if it still exists, and it was not replaced by an image with different
+   * content. Images that do not carry the fingerprint label are verified by their id only.
+   */
+  private boolean isImageUpToDate(
+      final String serviceName, final String imageId, final String fingerprint) {
+    if (!imageCatalog.containsImage(serviceName, imageId)) {
+      return false;
+    }
+
+    final String label =
+        dockerRunner.getImageLabels(imageId).get(ImageFingerprintCache.FINGERPRINT_LABEL);
+    return label == null || label.equals(fingerprint);
+  }
+
+  private void addTagsToExistingImage(
+      final String imageName, final String imageId, final Set<String> tags) {
+    final var existingTags = imageCatalog.getTags(imageName, imageId);
+    log.info("""
+            Image is up-to-date, adding tags only -
+            Name: {}
+            Id: {}
+            Tags: {}
+            """, imageName, imageId, tags);
+
+    final var missingTags =
+        tags.stream().filter(Predicate.not(existingTags::contains)).collect(toUnmodifiableSet());
+    if (!missingTags.isEmpty()) {
+      dockerRunner.createTagsForImage(imageId, imageName, missingTags);
+      imageCatalog.recordImage(imageName, imageId, missingTags);
+    }
+    if (imageGarbageCollector != null) {
+      imageGarbageCollector.recordReuse(
+          imageName,
+          imageId,
+          missingTags,
+          tags.stream().filter(existingTags::contains).collect(toUnmodifiableSet()));
+    }
+  }
+
+  private void buildImageWithTags(
+      final String imageName, final String id, final String sourceTag, final Set<String> tags) {
+    final var targetTags =
+        tags.stream().filter(Predicate.not(sourceTag::equals)).collect(toUnmodifiableSet());
+
+    log.info("""
+            Adding new tags for existing image -
+            Name: {}
+            Id: {}
+            Source Tag: {}
+            Target Tags: {}
+            """, imageName, id, sourceTag, targetTags);
+
+    dockerRunner.createTagsForImage(id, imageName, targetTags);
+    imageCatalog.recordImage(imageName, id, targetTags);
+  }
+
+  /**
+   * Removes a tag without waiting for it, as nothing depends on its removal. Pending removals are
+   * awaited after the last round.
+   */
+  private void scheduleTagRemoval(final String imageName, final String tag) {
+    imageCatalog.recordRemoval(imageName, tag);
+    pendingCleanups.add(
+        asyncDockerRunner
+            .deleteImageAndTag(imageName, tag, cleanupTimeout)
+            .exceptionally(
+                failure -> {
+                  log.warn("Failed to remove tag: {} of image: {}", tag, imageName, failure);
+                  return null;
+                }));
+  }
+
+  /** Waits till tag removals, that were scheduled in background, are complete. */
+  public void awaitPendingCleanups() {
+    CompletableFuture.allOf(pendingCleanups.toArray(CompletableFuture[]::new)).join();
+    pendingCleanups.clear();
+  }
+
+  private String getImageId(final String imageName, final String tag) {
+    return imageCatalog.getImageId(imageName, tag).orElseThrow();
+  }
+
+  private static <T> CompletableFuture<T> runInBackground(
+      final Supplier<T> supplier, final String threadName) {
+    return CompletableFuture.supplyAsync(
+        supplier,
+        runnable -> {
+          final var thread = new Thread(runnable, threadName);
+          thread.setDaemon(true);
+          thread.start();
+        });
+  }
+
+  private static <T> T join(final CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private static final record DockerSetup(
+      DockerClientProvider dockerClientProvider,
+      DockerRunner dockerRunner,
+      ImageCatalog imageCatalog) {}
+}
@@ -0,0 +1,63 @@
+package me.msri.buildtool;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Result of running several tasks in a single build tool invocation.
+ *
+ * @param output Standard output generated by the whole invocation. Output of a single task is
+ *     available from its {@link TaskResult#output() result}.
+ * @param error Standard error generated by the whole invocation.
+ * @param tasks Key: Path of the task that identifies it uniquely in the build, e.g. {@code
+ *     :service:bootJar}. Value: Result of that task.
+ */
+public record BuildTasksResult(String output, String error, Map<String, TaskResult> tasks) {
+
+  /** Returns true if every requested task either ran successfully or was up-to-date. */
+  public boolean isSuccessful() {
+    return tasks.values().stream().allMatch(TaskResult::isSuccessful);
+  }
+
+  public Optional<TaskResult> getTask(final String taskPath) {
+    return Optional.ofNullable(tasks.get(taskPath));
+  }
+
+  /** Outcome of a single task. */
+  public enum TaskOutcome {
+    SUCCESS,
+    UP_TO_DATE,
+    FROM_CACHE,
+    SKIPPED,
+    FAILED,
+    /** Task was requested, but build tool never ran it, e.g. because an earlier task failed. */
+    NOT_RUN
+  }
+
+  /**
+   * @param outcome Outcome of the task.
+   * @param durationMillis Time taken by the task, 0 if it did not run.
+   * @param failure Reason of failure if task failed, or was skipped, otherwise null.
+   * @param output Last lines of output, and error that the build tool printed while the task was
+   *     running, empty if the build tool does not tell which task printed a line. Results of gradle
+   *     tasks carry their output, while results of maven goals keep it empty, as goals of all
+   *     modules run in one invocation, whose output is logged as a whole.
+   */
+  public record TaskResult(
+      TaskOutcome outcome, long durationMillis, String failure, String output) {
+
+    public TaskResult(final TaskOutcome outcome, final long durationMillis, final String failure) {
+      this(outcome, durationMillis, failure, "");
+    }
+
+    public TaskResult withOutput(final String output) {
+      return new TaskResult(outcome, durationMillis, failure, output);
+    }
+
+    public boolean isSuccessful() {
+      return outcome == TaskOutcome.SUCCESS
+          || outcome == TaskOutcome.UP_TO_DATE
+          || outcome == TaskOutcome.FROM_CACHE;
+    }
+  }
+}
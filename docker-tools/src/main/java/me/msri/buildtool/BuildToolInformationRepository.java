@@ -1,5 +1,6 @@
 package me.msri.buildtool;
 
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -16,16 +17,41 @@ public interface BuildToolInformationRepository {
   void initialise(String projectBasePath);
 
   /**
-   * @param name Name of the project.
-   * @param absolutePath Absolute path of the project root.
-   * @param tasks A {@link Set} of all tasks configured for this project that can be carried out by
-   *     build tool.
+   * @param projectInformation Set up information of a project, that replaces any information added
+   *     earlier for a project with same name.
    */
-  void addProjectInformation(String name, String absolutePath, Set<String> tasks);
+  void addProjectInformation(ProjectInformation projectInformation);
 
   boolean isProjectConfigured(String projectName);
 
   boolean isTaskConfiguredForProject(String projectName, String taskName);
 
   String getAbsolutePathOfProject(String projectName);
+
+  /** Returns absolute path of the root project, that contains all other projects of the build. */
+  String getAbsolutePathOfRootProject();
+
+  /**
+   * Returns path of a task of a project that identifies the task uniquely in the build, so that it
+   * can be run along with tasks of other projects, e.g. {@code :service:bootJar}.
+   */
+  String getTaskPath(String projectName, String taskName);
+
+  /**
+   * Returns absolute path of the spring boot fat jar that build tool creates for the project, empty
+   * if build tool does not create one.
+   */
+  Optional<String> getSpringBootJarPathOfProject(String projectName);
+
+  /**
+   * Returns full name of the image that build tool creates for the project, e.g. {@code
+   * docker.io/library/service:1.0}, empty if build tool does not create one.
+   */
+  Optional<String> getSpringBootImageNameOfProject(String projectName);
+
+  /**
+   * Returns names of projects of the build that the project directly depends on, so that they are
+   * built before it.
+   */
+  Set<String> getProjectDependencies(String projectName);
 }
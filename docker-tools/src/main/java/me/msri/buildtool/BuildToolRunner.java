@@ -1,10 +1,13 @@
 package me.msri.buildtool;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /** Provides functionalities related to build tools such as gradle, and maven. */
-public interface BuildToolRunner {
+public interface BuildToolRunner extends AutoCloseable {
 
   /** Returns true if the service name exists as a project handled by build tool. */
   boolean isValidService(String serviceName);
@@ -31,4 +34,53 @@ public interface BuildToolRunner {
    *     it is not possible for build tool to create such Jar.
    */
   Optional<Map.Entry<String, String>> createSpringBootJar(String projectName);
+
+  /**
+   * Provides files and directories whose content determines the image of the given project, such as
+   * its main sources, build scripts, and resolved dependency jars.
+   *
+   * @param projectName Name of the project that should be same as a service handled by build tool.
+   * @return A {@link Set} of paths of files and directories. Empty {@link Set} if build tool can not
+   *     determine the inputs of the project.
+   */
+  Set<Path> getServiceInputs(String projectName);
+
+  /**
+   * Runs several tasks, of one or more projects, in a single build tool invocation, so that the
+   * build is configured only once for all of them.
+   *
+   * @param tasksPerProject Key: Name of the project, Value: Names of tasks to be run for it, in
+   *     order.
+   * @return A {@link BuildTasksResult} containing output of the invocation, and outcome of every
+   *     requested task. Tasks that are not configured for their project are left out.
+   */
+  BuildTasksResult executeTasks(Map<String, List<String>> tasksPerProject);
+
+  /**
+   * Provides names of projects of the build that the given project directly depends on.
+   *
+   * @param projectName Name of a project handled by build tool.
+   */
+  Set<String> getProjectDependencies(String projectName);
+
+  /**
+   * Starts a round of builds, i.e. builds of images requested at once. Tasks of this round no
+   * longer rely on artifacts built in earlier rounds, as their sources may have changed since.
+   */
+  default void startRound() {}
+
+  /**
+   * Builds artifacts that other projects consume, e.g. plain jars, of supplied projects in a single
+   * build tool invocation, so that projects shared by several services are built only once. Tasks
+   * run later in the round for projects depending on them may rely on these artifacts, instead of
+   * building them again.
+   *
+   * @param projectNames Names of projects handled by build tool.
+   * @return A {@link BuildTasksResult} containing outcome of the task run for every project.
+   */
+  BuildTasksResult buildProjects(Set<String> projectNames);
+
+  /** Releases resources held for build tool, such as connections to running build tool daemons. */
+  @Override
+  void close();
 }
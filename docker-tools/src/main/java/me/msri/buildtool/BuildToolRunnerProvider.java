@@ -1,47 +1,48 @@
 package me.msri.buildtool;
 
-import java.util.stream.Collectors;
+import java.nio.file.Path;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
+import me.msri.buildtool.ProjectLayout.BuildTool;
 import me.msri.buildtool.exception.UnresolvedBuildToolException;
 import me.msri.buildtool.gradle.GradleClientProvider;
 import me.msri.buildtool.gradle.GradleRunner;
 import me.msri.buildtool.gradle.GradleSetupInformationRepository;
 import me.msri.buildtool.maven.MavenRunner;
+import me.msri.buildtool.maven.MavenSetupInformationRepository;
 import me.msri.buildtool.maven.MavenWrapperRunner;
-import me.msri.console.ConsoleCommandExecutor;
 
 @Slf4j
 @UtilityClass
 public class BuildToolRunnerProvider {
 
+  /**
+   * Provides runner of the build tool that builds the project, which contains supplied directory.
+   * If configuration of both gradle and maven is found, then gradle is used.
+   */
   public static BuildToolRunner getBuildToolRunner(final String projectBasePath) {
-
-    final String command = "ls " + projectBasePath;
-
-    var result = ConsoleCommandExecutor.runCommandAndWait(command);
-    final var errorResult = result.errorResult();
-    if (!result.isSuccessful()) {
-      throw new UnresolvedBuildToolException(errorResult);
-    }
-
-    final String successResult = result.getSuccessResultStream().collect(Collectors.joining(" "));
-
-    if (successResult.contains("gradlew") || successResult.contains("build.gradle")) {
+    final var layout =
+        ProjectLayoutDetector.detect(Path.of(projectBasePath))
+            .orElseThrow(
+                () ->
+                    new UnresolvedBuildToolException(
+                        "Gradle or Maven build configuration not found."));
+    final String rootPath = layout.rootDirectory().toString();
+
+    if (layout.hasGradle()) {
+      if (layout.hasMaven()) {
+        log.info("Both gradle and maven are configured for: {}, gradle is used.", rootPath);
+      }
       final var gradleClientProvider = GradleClientProvider.getInstance();
       final var repository = new GradleSetupInformationRepository(gradleClientProvider);
-      repository.initialise(projectBasePath);
+      repository.initialise(rootPath);
       return new GradleRunner(gradleClientProvider, repository);
     }
 
-    if (successResult.contains("mvnw")) {
-      return new MavenWrapperRunner();
-    }
-
-    if (successResult.contains("pom.xml")) {
-      return new MavenRunner();
-    }
-
-    throw new UnresolvedBuildToolException("Gradle or Maven build configuration not found.");
+    final var repository = new MavenSetupInformationRepository();
+    repository.initialise(rootPath);
+    return layout.buildTools().contains(BuildTool.MAVEN_WRAPPER)
+        ? new MavenWrapperRunner(repository)
+        : new MavenRunner(repository);
   }
 }
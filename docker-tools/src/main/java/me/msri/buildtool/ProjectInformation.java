@@ -0,0 +1,27 @@
+package me.msri.buildtool;
+
+import java.util.Set;
+
+/**
+ * Information related to set up of a single project handled by build tool.
+ *
+ * @param name Name of the project.
+ * @param buildPath Path that identifies the project uniquely in the build, e.g. {@code :service}.
+ * @param absolutePath Absolute path of the project root.
+ * @param tasks A {@link Set} of all tasks configured for this project that can be carried out by
+ *     build tool.
+ * @param springBootJarPath Absolute path of the spring boot fat jar that build tool creates for
+ *     this project, null if build tool does not create one.
+ * @param springBootImageName Full name of the image that build tool creates for this project, e.g.
+ *     {@code docker.io/library/service:1.0}, null if build tool does not create one.
+ * @param dependencies Names of projects this project directly depends on. It may contain names
+ *     that are not projects of the build, e.g. external artifacts of a maven module.
+ */
+public record ProjectInformation(
+    String name,
+    String buildPath,
+    String absolutePath,
+    Set<String> tasks,
+    String springBootJarPath,
+    String springBootImageName,
+    Set<String> dependencies) {}
@@ -0,0 +1,31 @@
+package me.msri.buildtool;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Build tools that are set up for a project, as found on file system.
+ *
+ * @param rootDirectory Absolute path of the root project, that contains all other projects of the
+ *     build.
+ * @param buildTools All build tools whose configuration is found in root directory. It has more
+ *     than one element for projects that can be built by several build tools.
+ */
+public record ProjectLayout(Path rootDirectory, Set<BuildTool> buildTools) {
+
+  public boolean hasGradle() {
+    return buildTools.contains(BuildTool.GRADLE) || buildTools.contains(BuildTool.GRADLE_WRAPPER);
+  }
+
+  public boolean hasMaven() {
+    return buildTools.contains(BuildTool.MAVEN) || buildTools.contains(BuildTool.MAVEN_WRAPPER);
+  }
+
+  /** A build tool, along with whether it is run through wrapper of the project. */
+  public enum BuildTool {
+    GRADLE,
+    GRADLE_WRAPPER,
+    MAVEN,
+    MAVEN_WRAPPER
+  }
+}
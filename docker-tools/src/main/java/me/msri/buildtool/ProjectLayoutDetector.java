@@ -0,0 +1,144 @@
+package me.msri.buildtool;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.buildtool.ProjectLayout.BuildTool;
+
+/**
+ * Detects build tools of a project by looking for their configuration files. It starts from a
+ * directory of the project, usually the working directory of compiler, and walks up to the root
+ * project:
+ *
+ * <ul>
+ *   <li>Gradle: nearest directory that contains settings script, or gradle wrapper.
+ *   <li>Maven: topmost directory of the chain of directories that contain a pom, or nearest one
+ *       that contains maven wrapper, or <code>.mvn</code> directory.
+ * </ul>
+ *
+ * <p>Layouts are cached for the lifetime of the class loader, both for the starting directory, and
+ * for the root, so that every compilation in the same daemon finds them without probing again.
+ */
+@Slf4j
+@UtilityClass
+public class ProjectLayoutDetector {
+
+  private static final Set<String> GRADLE_SETTINGS =
+      Set.of("settings.gradle", "settings.gradle.kts");
+  private static final Set<String> GRADLE_BUILD_SCRIPTS =
+      Set.of("build.gradle", "build.gradle.kts");
+  private static final String GRADLE_WRAPPER = "gradlew";
+  private static final String POM = "pom.xml";
+  private static final String MAVEN_WRAPPER = "mvnw";
+  private static final String MAVEN_CONFIG_DIRECTORY = ".mvn";
+
+  private static final Map<Path, ProjectLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+  /**
+   * Provides layout of the project that contains supplied directory.
+   *
+   * @return Layout of the project, empty if no build configuration is found in the directory or
+   *     any of its parents.
+   */
+  public static Optional<ProjectLayout> detect(final Path directory) {
+    final Path start = directory.toAbsolutePath().normalize();
+    final var cached = LAYOUTS.get(start);
+    if (cached != null) {
+      return Optional.of(cached);
+    }
+
+    final long startTime = System.currentTimeMillis();
+    // the nearest build configuration decides which build tool owns the directory
+    final var layout =
+        findNearest(start, ProjectLayoutDetector::isProject)
+            .map(
+                nearest ->
+                    isGradleProject(nearest) ? findGradleRoot(nearest) : findMavenRoot(nearest))
+            .map(ProjectLayoutDetector::probe);
+    layout.ifPresent(
+        it -> {
+          LAYOUTS.put(start, it);
+          LAYOUTS.put(it.rootDirectory(), it);
+          log.info(
+              "Project layout: {} detected in time: {}ms",
+              it,
+              System.currentTimeMillis() - startTime);
+        });
+    return layout;
+  }
+
+  /** A sub-project has only build script, its root has settings script, or wrapper. */
+  private static Path findGradleRoot(final Path nearestProject) {
+    return findNearest(
+            nearestProject,
+            directory ->
+                containsAny(directory, GRADLE_SETTINGS) || containsFile(directory, GRADLE_WRAPPER))
+        .orElse(nearestProject);
+  }
+
+  /** Modules of a reactor are nested in directory of their aggregator, that has a pom too. */
+  private static Path findMavenRoot(final Path nearestModule) {
+    var root = nearestModule;
+    while (!isMavenRootMarked(root)
+        && root.getParent() != null
+        && containsFile(root.getParent(), POM)) {
+      root = root.getParent();
+    }
+    return root;
+  }
+
+  private static ProjectLayout probe(final Path rootDirectory) {
+    final var buildTools = EnumSet.noneOf(BuildTool.class);
+    if (containsFile(rootDirectory, GRADLE_WRAPPER)) {
+      buildTools.add(BuildTool.GRADLE_WRAPPER);
+    }
+    if (isGradleProject(rootDirectory)) {
+      buildTools.add(BuildTool.GRADLE);
+    }
+    if (containsFile(rootDirectory, MAVEN_WRAPPER)) {
+      buildTools.add(BuildTool.MAVEN_WRAPPER);
+    }
+    if (containsFile(rootDirectory, POM)) {
+      buildTools.add(BuildTool.MAVEN);
+    }
+    return new ProjectLayout(rootDirectory, Set.copyOf(buildTools));
+  }
+
+  private static boolean isProject(final Path directory) {
+    return isGradleProject(directory) || containsFile(directory, POM);
+  }
+
+  private static boolean isGradleProject(final Path directory) {
+    return containsAny(directory, GRADLE_SETTINGS) || containsAny(directory, GRADLE_BUILD_SCRIPTS);
+  }
+
+  private static boolean isMavenRootMarked(final Path directory) {
+    return containsFile(directory, MAVEN_WRAPPER)
+        || Files.isDirectory(directory.resolve(MAVEN_CONFIG_DIRECTORY));
+  }
+
+  /** Finds the supplied directory, or its nearest parent, that satisfies the condition. */
+  private static Optional<Path> findNearest(final Path start, final Predicate<Path> condition) {
+    for (Path directory = start; directory != null; directory = directory.getParent()) {
+      if (condition.test(directory)) {
+        return Optional.of(directory);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static boolean containsAny(final Path directory, final Set<String> fileNames) {
+    return fileNames.stream().anyMatch(fileName -> containsFile(directory, fileName));
+  }
+
+  private static boolean containsFile(final Path directory, final String fileName) {
+    return Files.isRegularFile(directory.resolve(fileName));
+  }
+}
@@ -0,0 +1,36 @@
+package me.msri.buildtool;
+
+import java.util.Map;
+import java.util.Optional;
+import lombok.experimental.UtilityClass;
+import me.msri.console.LineMatcher;
+
+/** Matchers for lines that spring boot plugins of build tools print while they run. */
+@UtilityClass
+public class SpringBootOutputMatchers {
+
+  /**
+   * Finds name and tag of the image in a line like <code>Successfully built image
+   * 'docker.io/library/service:0.0.1'</code>, printed when a build pack image is created.
+   */
+  public static final LineMatcher<Map.Entry<String, String>> BUILT_IMAGE_MATCHER =
+      line -> {
+        final int messageStart = line.indexOf("Successfully built image '");
+        if (messageStart < 0) {
+          return Optional.empty();
+        }
+        final int imageStart = line.indexOf('\'', messageStart) + 1;
+        final int imageEnd = line.indexOf('\'', imageStart);
+        if (imageEnd < 0) {
+          return Optional.empty();
+        }
+        final String image = line.substring(imageStart, imageEnd);
+        // registry may contain a port, so tag is separated by the last ':' after the last '/'
+        final int nameStart = image.lastIndexOf('/') + 1;
+        final int tagStart = image.indexOf(':', nameStart);
+        return tagStart < 0
+            ? Optional.of(Map.entry(image.substring(nameStart), "latest"))
+            : Optional.of(
+                Map.entry(image.substring(nameStart, tagStart), image.substring(tagStart + 1)));
+      };
+}
@@ -1,28 +1,57 @@
 package me.msri.buildtool.gradle;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.gradle.tooling.GradleConnector;
 import org.gradle.tooling.ProjectConnection;
 
 /**
  * Provides a gradle client to invoke tasks on local running gradle or gradle wrapper installation.
+ *
+ * <p>Connections to a project are pooled, keyed by project directory, so that consecutive tasks of
+ * a project keep talking to the same warm gradle daemon. A pooled connection is shared by all
+ * threads, and is closed once it has not been used for {@link #MAX_IDLE_TIME}, or when {@link
+ * #closeAllConnections()} is called.
  */
 @Slf4j
 public class GradleClientProvider {
+  private static final Duration MAX_IDLE_TIME = Duration.ofMinutes(5);
+  private static final Duration EVICTION_INTERVAL = Duration.ofMinutes(1);
+
   private static GradleClientProvider gradleClientProvider;
 
   private final GradleConnector connector;
+  private final Map<String, PooledConnection> connections;
+  private final ScheduledExecutorService evictionExecutor;
 
   private GradleClientProvider() {
     connector = GradleConnector.newConnector();
+    connections = new ConcurrentHashMap<>();
+    evictionExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              final var thread = new Thread(runnable, "gradle-connection-eviction");
+              thread.setDaemon(true);
+              return thread;
+            });
+    evictionExecutor.scheduleWithFixedDelay(
+        this::evictIdleConnections,
+        EVICTION_INTERVAL.toMillis(),
+        EVICTION_INTERVAL.toMillis(),
+        TimeUnit.MILLISECONDS);
   }
 
   /**
    * Provides a singleton instance of GradleClientProvider class, which contains same gradle
    * connector for all gradle clients.
    */
-  public static GradleClientProvider getInstance() {
+  public static synchronized GradleClientProvider getInstance() {
     if (gradleClientProvider == null) {
       gradleClientProvider = new GradleClientProvider();
     }
@@ -38,13 +67,91 @@ public class GradleClientProvider {
   }
 
   /**
-   * Provides a new {@link ProjectConnection} object specific to a gradle project. If a gradle
-   * wrapper is configured at supplied project base path, then it connects with wrapper installation
+   * Provides a {@link ProjectConnection} object specific to a gradle project. If a gradle wrapper
+   * is configured at supplied project base path, then it connects with wrapper installation
    * otherwise it connects to global gradle installation.
    *
+   * <p>The connection is borrowed from the pool, and closing it returns it to the pool instead of
+   * disconnecting from the gradle daemon.
+   *
    * @param projectBasePath Absolute path of the gradle project that we are trying to connect to.
    */
   public ProjectConnection getConnectionForProject(final String projectBasePath) {
-    return connector.forProjectDirectory(new File(projectBasePath)).connect();
+    final var projectDirectory = new File(projectBasePath).getAbsoluteFile();
+    final var pooledConnection =
+        connections.compute(
+            projectDirectory.getPath(),
+            (path, existing) -> {
+              final var connection =
+                  existing != null
+                      ? existing
+                      : new PooledConnection(
+                          path,
+                          // a connector holds the project directory, so it is not shared
+                          GradleConnector.newConnector()
+                              .forProjectDirectory(projectDirectory)
+                              .connect());
+              connection.lease();
+              return connection;
+            });
+    return new PooledProjectConnection(
+        pooledConnection.getConnection(), pooledConnection::release);
+  }
+
+  /** Closes all pooled connections, including those that are in use. */
+  public void closeAllConnections() {
+    connections.keySet().forEach(path -> connections.computeIfPresent(path, this::close));
+  }
+
+  private void evictIdleConnections() {
+    final long idleSince = System.currentTimeMillis() - MAX_IDLE_TIME.toMillis();
+    connections
+        .keySet()
+        .forEach(
+            path ->
+                connections.computeIfPresent(
+                    path,
+                    (key, connection) ->
+                        connection.isIdleSince(idleSince) ? close(key, connection) : connection));
+  }
+
+  private PooledConnection close(final String path, final PooledConnection connection) {
+    log.info("Closing gradle connection for project: {}", path);
+    try {
+      connection.getConnection().close();
+    } catch (RuntimeException e) {
+      log.warn("Failed to close gradle connection for project: {}", path, e);
+    }
+    return null;
+  }
+
+  /** A pooled connection with number of its current borrowers, and time it was last returned. */
+  private static final class PooledConnection {
+    private final ProjectConnection connection;
+    private int leases;
+    private long lastReleased;
+
+    private PooledConnection(final String path, final ProjectConnection connection) {
+      this.connection = connection;
+      this.lastReleased = System.currentTimeMillis();
+      log.info("Opened gradle connection for project: {}", path);
+    }
+
+    private ProjectConnection getConnection() {
+      return connection;
+    }
+
+    private synchronized void lease() {
+      leases++;
+    }
+
+    private synchronized void release() {
+      leases--;
+      lastReleased = System.currentTimeMillis();
+    }
+
+    private synchronized boolean isIdleSince(final long time) {
+      return leases == 0 && lastReleased < time;
+    }
   }
 }
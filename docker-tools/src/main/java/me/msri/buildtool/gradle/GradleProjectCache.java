@@ -0,0 +1,263 @@
+package me.msri.buildtool.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.buildtool.ProjectInformation;
+import me.msri.buildtool.exception.BuildToolRunnerException;
+import me.msri.buildtool.gradle.model.SpringBootBuildModelInitScript;
+
+/**
+ * Persists information of all projects of a gradle build in a compact binary file under the build
+ * directory, so that the gradle model does not need to be fetched on every compilation.
+ *
+ * <p>The file is keyed by a hash of the settings, build scripts, and properties of all projects,
+ * along with version catalogs under <code>gradle</code>, and sources of <code>buildSrc</code> of
+ * the root project. If any of them changes, or a project is added or removed, the hash does not
+ * match, and the cached projects are reported as stale, to be used only till the model is fetched
+ * again.
+ */
+@Slf4j
+class GradleProjectCache {
+
+  private static final int MAGIC = 0x4d535249;
+  private static final int FORMAT_VERSION = 2;
+  private static final List<String> BUILD_FILES =
+      List.of(
+          "settings.gradle",
+          "settings.gradle.kts",
+          "build.gradle",
+          "build.gradle.kts",
+          "gradle.properties");
+  private static final String VERSION_CATALOG_DIRECTORY = "gradle";
+  private static final String VERSION_CATALOG_SUFFIX = ".versions.toml";
+  private static final String BUILD_SRC_DIRECTORY = "buildSrc";
+  // outputs, and state of the build of buildSrc, which change on every build of it
+  private static final Set<String> BUILD_SRC_OUTPUTS = Set.of("build", ".gradle");
+
+  private final Path projectBasePath;
+  private final Path cacheFile;
+
+  GradleProjectCache(final Path projectBasePath) {
+    this.projectBasePath = projectBasePath;
+    this.cacheFile = projectBasePath.resolve(Path.of("build", "msri", "gradle-projects.bin"));
+  }
+
+  /**
+   * @return Cached information of all projects, empty if there is no cache, or it could not be
+   *     read. It is stale if build files have changed since it was written.
+   */
+  Optional<CachedProjects> read() {
+    if (!Files.isRegularFile(cacheFile)) {
+      return Optional.empty();
+    }
+
+    try (final var input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+      if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+        return Optional.empty();
+      }
+      final String hash = input.readUTF();
+      final int projectCount = input.readInt();
+      final List<ProjectInformation> projects = new ArrayList<>(projectCount);
+      for (int i = 0; i < projectCount; i++) {
+        projects.add(readProject(input));
+      }
+
+      final boolean isCurrent = hash.equals(hash(projects));
+      if (!isCurrent) {
+        log.info("Gradle build files changed since project cache was written: {}", cacheFile);
+      }
+      return Optional.of(new CachedProjects(projects, isCurrent));
+    } catch (IOException e) {
+      log.warn("Could not read gradle project cache: {}", cacheFile, e);
+      return Optional.empty();
+    }
+  }
+
+  /** Writes information of all projects, along with current hash of their build files. */
+  void write(final Collection<ProjectInformation> projects) {
+    try {
+      Files.createDirectories(cacheFile.getParent());
+      final var tempFile = Files.createTempFile(cacheFile.getParent(), "gradle-projects", ".tmp");
+      try (final var output =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        output.writeUTF(hash(projects));
+        output.writeInt(projects.size());
+        for (final var project : projects) {
+          writeProject(output, project);
+        }
+      }
+      // readers never see a partially written cache
+      Files.move(
+          tempFile,
+          cacheFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not write gradle project cache: {}", cacheFile, e);
+    }
+  }
+
+  private String hash(final Collection<ProjectInformation> projects) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new BuildToolRunnerException(e);
+    }
+
+    // init script defines what the model contains
+    try {
+      digest.update(Files.readAllBytes(SpringBootBuildModelInitScript.getPath()));
+    } catch (IOException e) {
+      throw new BuildToolRunnerException(e);
+    }
+
+    final Set<Path> buildFiles = new TreeSet<>();
+    final Set<String> projectDirectories = new TreeSet<>();
+    projectDirectories.add(projectBasePath.toAbsolutePath().toString());
+    projects.forEach(project -> projectDirectories.add(project.absolutePath()));
+    for (final String projectDirectory : projectDirectories) {
+      BUILD_FILES.forEach(buildFile -> buildFiles.add(Path.of(projectDirectory, buildFile)));
+    }
+    try {
+      buildFiles.addAll(getBuildFilesOfRootProject());
+      for (final Path file : buildFiles) {
+        if (!Files.isRegularFile(file)) {
+          continue;
+        }
+        digest.update(file.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(Files.readAllBytes(file));
+      }
+    } catch (IOException e) {
+      throw new BuildToolRunnerException(e);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /** Version catalogs, and every file of <code>buildSrc</code>, except its outputs. */
+  private Set<Path> getBuildFilesOfRootProject() throws IOException {
+    final Path rootPath = projectBasePath.toAbsolutePath();
+    final Set<Path> buildFiles = new TreeSet<>();
+    final Path catalogDirectory = rootPath.resolve(VERSION_CATALOG_DIRECTORY);
+    if (Files.isDirectory(catalogDirectory)) {
+      try (Stream<Path> files = Files.list(catalogDirectory)) {
+        files
+            .filter(file -> file.getFileName().toString().endsWith(VERSION_CATALOG_SUFFIX))
+            .forEach(buildFiles::add);
+      }
+    }
+
+    final Path buildSrc = rootPath.resolve(BUILD_SRC_DIRECTORY);
+    if (Files.isDirectory(buildSrc)) {
+      Files.walkFileTree(
+          buildSrc,
+          new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                final Path directory, final BasicFileAttributes attributes) {
+              return buildSrc.equals(directory.getParent())
+                      && BUILD_SRC_OUTPUTS.contains(directory.getFileName().toString())
+                  ? FileVisitResult.SKIP_SUBTREE
+                  : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(
+                final Path file, final BasicFileAttributes attributes) {
+              buildFiles.add(file);
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    }
+    return buildFiles;
+  }
+
+  /**
+   * @param projects Information of all projects, as it was when the cache was written.
+   * @param isCurrent False if build files changed since then, so that the projects may be stale.
+   */
+  record CachedProjects(List<ProjectInformation> projects, boolean isCurrent) {}
+
+  private static ProjectInformation readProject(final DataInputStream input) throws IOException {
+    final String name = input.readUTF();
+    final String buildPath = input.readUTF();
+    final String absolutePath = input.readUTF();
+    final Set<String> tasks = readStrings(input);
+    final String springBootJarPath = readNullableString(input);
+    final String springBootImageName = readNullableString(input);
+    final Set<String> dependencies = readStrings(input);
+    return new ProjectInformation(
+        name,
+        buildPath,
+        absolutePath,
+        tasks,
+        springBootJarPath,
+        springBootImageName,
+        dependencies);
+  }
+
+  private static void writeProject(final DataOutputStream output, final ProjectInformation project)
+      throws IOException {
+    output.writeUTF(project.name());
+    output.writeUTF(project.buildPath());
+    output.writeUTF(project.absolutePath());
+    writeStrings(output, project.tasks());
+    writeNullableString(output, project.springBootJarPath());
+    writeNullableString(output, project.springBootImageName());
+    writeStrings(output, project.dependencies());
+  }
+
+  private static Set<String> readStrings(final DataInputStream input) throws IOException {
+    final int count = input.readInt();
+    final Set<String> values = new HashSet<>(count * 2);
+    for (int i = 0; i < count; i++) {
+      values.add(input.readUTF());
+    }
+    return Set.copyOf(values);
+  }
+
+  private static void writeStrings(final DataOutputStream output, final Set<String> values)
+      throws IOException {
+    output.writeInt(values.size());
+    for (final String value : values) {
+      output.writeUTF(value);
+    }
+  }
+
+  private static String readNullableString(final DataInputStream input) throws IOException {
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+  private static void writeNullableString(final DataOutputStream output, final String value)
+      throws IOException {
+    output.writeBoolean(value != null);
+    if (value != null) {
+      output.writeUTF(value);
+    }
+  }
+}
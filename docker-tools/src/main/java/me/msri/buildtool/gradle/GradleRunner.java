@@ -1,21 +1,34 @@
 package me.msri.buildtool.gradle;
 
-import static me.msri.buildtool.gradle.GradleRunnerUtil.executeTaskAndProcessError;
-
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import lombok.RequiredArgsConstructor;
+import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
+import me.msri.buildtool.BuildTasksResult;
 import me.msri.buildtool.BuildToolInformationRepository;
 import me.msri.buildtool.BuildToolRunner;
+import me.msri.buildtool.SpringBootOutputMatchers;
 
 @Slf4j
-@RequiredArgsConstructor
 public class GradleRunner implements BuildToolRunner {
 
+  private static final String JAR_TASK = "jar";
+
   private final GradleClientProvider gradleClientProvider;
   private final BuildToolInformationRepository repository;
+  private final GradleServiceInputResolver serviceInputResolver;
+
+  public GradleRunner(
+      final GradleClientProvider gradleClientProvider,
+      final BuildToolInformationRepository repository) {
+    this.gradleClientProvider = gradleClientProvider;
+    this.repository = repository;
+    this.serviceInputResolver = new GradleServiceInputResolver(gradleClientProvider, repository);
+  }
 
   @Override
   public boolean isValidService(String serviceName) {
@@ -25,82 +38,120 @@ public class GradleRunner implements BuildToolRunner {
   @Override
   public Optional<Map.Entry<String, String>> createSpringBootImage(final String projectName) {
     final String bootBuildImage = "bootBuildImage";
-    return executeTaskAndProcessError(gradleClientProvider, repository, projectName, bootBuildImage)
-        .map(Map.Entry::getKey)
-        .stream()
-        .flatMap(String::lines)
-        .filter(line -> line.contains("Successfully built image"))
-        .map(line -> line.split("'"))
-        .map(arr -> arr[1])
-        .map(imageName -> imageName.split(":"))
-        .map(imageAndTag -> Map.entry(imageAndTag[0].split("/")[2], imageAndTag[1]))
-        .findFirst();
+    if (!repository.isTaskConfiguredForProject(projectName, bootBuildImage)) {
+      log.warn("Task: '{}', not configured for project: {}", bootBuildImage, projectName);
+      return Optional.empty();
+    }
+
+    // image name is picked from the output while it is streamed, the build is still awaited, as
+    // the image is tagged, and published after that line
+    final String taskPath = repository.getTaskPath(projectName, bootBuildImage);
+    final var outputStream = GradleRunnerUtil.newOutputStream(List.of(taskPath));
+    final var builtImage = outputStream.addMatcher(SpringBootOutputMatchers.BUILT_IMAGE_MATCHER);
+    final var result =
+        GradleRunnerUtil.executeTasks(
+            gradleClientProvider,
+            repository.getAbsolutePathOfRootProject(),
+            List.of(taskPath),
+            false,
+            outputStream);
+
+    final var imageCreationResult = result.getTask(taskPath);
+    if (imageCreationResult.isEmpty() || !imageCreationResult.get().isSuccessful()) {
+      log.error(
+          "Error while creating spring boot image: {}{}{}",
+          imageCreationResult.map(BuildTasksResult.TaskResult::failure).orElse(result.error()),
+          System.lineSeparator(),
+          imageCreationResult.map(BuildTasksResult.TaskResult::output).orElse(""));
+      return Optional.empty();
+    }
+    // stream is closed by now, so the matcher is complete, with null if nothing matched
+    return Optional.ofNullable(builtImage.join());
   }
 
   @Override
   public Optional<Map.Entry<String, String>> createSpringBootJar(String projectName) {
-    // create jar
+    // location of the jar is known from gradle model, so only the jar needs to be created
+    final var jarPath = repository.getSpringBootJarPathOfProject(projectName);
+    if (jarPath.isEmpty()) {
+      log.warn("Spring boot fat jar is not configured for project: {}", projectName);
+      return Optional.empty();
+    }
+
     final String bootJarTaskName = "bootJar";
-    var jarCreationResult =
-        executeTaskAndProcessError(gradleClientProvider, repository, projectName, bootJarTaskName);
+    final var result = executeTasks(Map.of(projectName, List.of(bootJarTaskName)));
+    final var jarCreationResult =
+        result.getTask(repository.getTaskPath(projectName, bootJarTaskName));
     if (jarCreationResult.isEmpty()) {
-      return jarCreationResult;
+      return Optional.empty();
     }
-
-    final var jarCreationError = jarCreationResult.get().getValue();
-    if (jarCreationError != null && !jarCreationError.isBlank()) {
-      log.error("Error while creating spring boot fat jar: {}", jarCreationError);
+    if (!jarCreationResult.get().isSuccessful()) {
+      log.error(
+          "Error while creating spring boot fat jar: {}{}{}",
+          Optional.ofNullable(jarCreationResult.get().failure()).orElse(result.error()),
+          System.lineSeparator(),
+          jarCreationResult.get().output());
       return Optional.empty();
     }
 
-    final var jarResult = jarCreationResult.get().getKey();
     if (log.isDebugEnabled()) {
-      log.debug("Sprig boot fat jar creation successful: {}", jarResult);
+      log.debug("Sprig boot fat jar creation successful: {}", jarCreationResult.get().output());
     }
 
-    // obtain spring boot fat jar path and name
-    final String propertiesTaskName = "properties";
-    final var propertyReadResult =
-        executeTaskAndProcessError(
-            gradleClientProvider, repository, projectName, propertiesTaskName);
-    if (propertyReadResult.isEmpty()) {
-      return propertyReadResult;
-    }
+    final var jarFile = Path.of(jarPath.get());
+    return Optional.of(
+        Map.entry(jarFile.getParent().toString(), jarFile.getFileName().toString()));
+  }
 
-    final var propertyReadResultError = propertyReadResult.get().getValue();
-    if (propertyReadResultError != null && !propertyReadResultError.isBlank()) {
-      log.error(
-          "Error while reading gradle properties of spring boot project : {}",
-          propertyReadResultError);
-      return Optional.empty();
-    }
+  @Override
+  public BuildTasksResult executeTasks(final Map<String, List<String>> tasksPerProject) {
+    final List<String> taskPaths = new ArrayList<>();
+    tasksPerProject.forEach(
+        (projectName, tasks) ->
+            tasks.forEach(
+                task -> {
+                  if (repository.isTaskConfiguredForProject(projectName, task)) {
+                    taskPaths.add(repository.getTaskPath(projectName, task));
+                  } else {
+                    log.warn("Task: '{}', not configured for project: {}", task, projectName);
+                  }
+                }));
 
-    final var propertyResult = propertyReadResult.get().getKey();
-    if (log.isDebugEnabled()) {
-      log.debug("Sprig boot gradle project property read successful: {}", propertyResult);
+    if (taskPaths.isEmpty()) {
+      return new BuildTasksResult("", "", Map.of());
     }
+    return GradleRunnerUtil.executeTasks(
+        gradleClientProvider,
+        repository.getAbsolutePathOfRootProject(),
+        taskPaths,
+        tasksPerProject.size() > 1);
+  }
 
-    final var propertiesAndValues =
-        propertyResult
-            .lines()
-            .filter(line -> line.contains(": "))
-            .map(line -> line.split(":"))
-            .collect(
-                Collectors.toUnmodifiableMap(
-                    propAndVal -> propAndVal[0], propAndVal -> propAndVal[1].strip()));
-
-    final String fullBuildDirPath =
-        propertiesAndValues
-            .get("buildDir")
-            .concat("/")
-            .concat(propertiesAndValues.getOrDefault("libsDirName", ""));
-    final String jarFileName =
-        propertiesAndValues
-            .get("archivesBaseName")
-            .concat("-")
-            .concat(propertiesAndValues.getOrDefault("version", ""))
-            .concat(".jar");
-
-    return Optional.of(Map.entry(fullBuildDirPath, jarFileName));
+  @Override
+  public Set<String> getProjectDependencies(final String projectName) {
+    return repository.getProjectDependencies(projectName);
+  }
+
+  /**
+   * Runs <code>jar</code> task of supplied projects. Tasks of dependent projects, run later, find
+   * the jars up-to-date, so there is nothing to remember between the invocations.
+   */
+  @Override
+  public BuildTasksResult buildProjects(final Set<String> projectNames) {
+    final Map<String, List<String>> tasksPerProject = new HashMap<>();
+    projectNames.stream()
+        .filter(projectName -> repository.isTaskConfiguredForProject(projectName, JAR_TASK))
+        .forEach(projectName -> tasksPerProject.put(projectName, List.of(JAR_TASK)));
+    return executeTasks(tasksPerProject);
+  }
+
+  @Override
+  public Set<Path> getServiceInputs(final String projectName) {
+    return serviceInputResolver.resolve(projectName);
+  }
+
+  @Override
+  public void close() {
+    gradleClientProvider.closeAllConnections();
   }
 }
@@ -1,93 +1,216 @@
 package me.msri.buildtool.gradle;
 
-import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
-import me.msri.buildtool.BuildToolInformationRepository;
+import me.msri.buildtool.BuildTasksResult;
+import me.msri.buildtool.BuildTasksResult.TaskOutcome;
+import me.msri.buildtool.BuildTasksResult.TaskResult;
 import me.msri.buildtool.exception.BuildToolRunnerException;
+import me.msri.console.LineProcessingOutputStream;
+import me.msri.trace.Phase;
+import me.msri.trace.Tracer;
+import org.gradle.tooling.CancellationTokenSource;
+import org.gradle.tooling.Failure;
 import org.gradle.tooling.GradleConnectionException;
+import org.gradle.tooling.GradleConnector;
 import org.gradle.tooling.ResultHandler;
+import org.gradle.tooling.events.OperationType;
+import org.gradle.tooling.events.ProgressListener;
+import org.gradle.tooling.events.task.TaskFailureResult;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskOperationResult;
+import org.gradle.tooling.events.task.TaskSkippedResult;
+import org.gradle.tooling.events.task.TaskSuccessResult;
 
 @UtilityClass
 @Slf4j
 public class GradleRunnerUtil {
 
+  /** Number of last lines of output, and error of a build that are kept for reporting. */
+  private static final int OUTPUT_TAIL_SIZE = 200;
+
+  /** Number of last lines of output, and error that are kept for every task. */
+  private static final int TASK_OUTPUT_TAIL_SIZE = 50;
+
   /**
-   * Executes a gradle task for a project and returns the generated output or error as a string.
+   * Executes several gradle tasks, possibly of different projects, in a single build, so that the
+   * build is configured only once, and gradle can schedule independent tasks in parallel.
    *
-   * @param fullProjectPath Absolute path of the project.
-   * @return A {@link Map.Entry} containing output or error as string that was generated by running
-   *     supplied gradle task.
+   * @param rootProjectPath Absolute path of the root project of the build.
+   * @param taskPaths Paths of tasks that identify them uniquely in the build, e.g. {@code
+   *     :service:bootJar}.
+   * @param parallel Whether gradle should run tasks of different projects in parallel.
+   * @return A {@link BuildTasksResult} containing last lines of output and error of the build, and
+   *     outcome, and last lines of output of every requested task.
    */
-  public static Map.Entry<String, String> executeTask(
+  public static BuildTasksResult executeTasks(
       final GradleClientProvider gradleClientProvider,
-      final String fullProjectPath,
-      final String task) {
-    final long startTime = System.currentTimeMillis();
-    final var outputStream = new ByteArrayOutputStream();
-    final var errorStream = new ByteArrayOutputStream();
-
-    try (final var projConn = gradleClientProvider.getConnectionForProject(fullProjectPath)) {
-      final var latch = new CountDownLatch(1);
-      projConn
-          .newBuild()
-          .setStandardOutput(outputStream)
-          .setStandardError(errorStream)
-          .forTasks(task)
-          .run(
-              new ResultHandler<>() {
-                @Override
-                public void onComplete(Void result) {
-                  log.info(
-                      "Task: '{}' execution complete in time: {}ms",
-                      task,
-                      (System.currentTimeMillis() - startTime));
-                  latch.countDown();
-                }
-
-                @Override
-                public void onFailure(GradleConnectionException failure) {
-                  log.error(
-                      "Task: '{}' execution failed in time: {}",
-                      task,
-                      (System.currentTimeMillis() - startTime));
-                  latch.countDown();
-                  throw new BuildToolRunnerException(failure);
-                }
-              });
-      latch.await();
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      throw new BuildToolRunnerException(e);
-    }
-
-    return Map.entry(outputStream.toString(), errorStream.toString());
+      final String rootProjectPath,
+      final List<String> taskPaths,
+      final boolean parallel) {
+    return executeTasks(
+        gradleClientProvider, rootProjectPath, taskPaths, parallel, newOutputStream(taskPaths));
   }
 
   /**
-   * Executes a gradle task if it is configured for the given project.
+   * Same as {@link #executeTasks(GradleClientProvider, String, List, boolean)}, but writes output
+   * of the build to supplied stream, e.g. to look for certain lines while the build is running.
+   * The build is always awaited, as tasks may still have work to do after the line they are looked
+   * for, e.g. tagging, and publishing of a built image.
    *
-   * @return A {@link Map.Entry} containing output or error as string that was generated by running
-   *     supplied gradle task.
+   * @param outputStream Receives standard output of the build, and is closed once the build
+   *     completes.
    */
-  public static Optional<Entry<String, String>> executeTaskAndProcessError(
+  public static BuildTasksResult executeTasks(
       final GradleClientProvider gradleClientProvider,
-      final BuildToolInformationRepository repository,
-      final String projectName,
-      final String gradleTask) {
+      final String rootProjectPath,
+      final List<String> taskPaths,
+      final boolean parallel,
+      final LineProcessingOutputStream outputStream) {
+    // tasks that gradle reports are recorded as parts of the span of the build
+    try (final var span = Tracer.start(Phase.BUILD_TOOL, "gradle " + taskPaths)) {
+      final long startTime = System.currentTimeMillis();
+      final var errorStream =
+          new LineProcessingOutputStream(
+              line -> log.warn("{} > {}", taskPaths, line), OUTPUT_TAIL_SIZE);
+      final var taskOutput = new TaskOutputCollector(TASK_OUTPUT_TAIL_SIZE);
+      outputStream.addLineListener(taskOutput);
+      errorStream.addLineListener(taskOutput);
+      final var cancellationTokenSource = GradleConnector.newCancellationTokenSource();
+      final Map<String, TaskResult> taskResults = new ConcurrentHashMap<>();
+      final var buildFailure = new AtomicReference<GradleConnectionException>();
+
+      try (final var projConn = gradleClientProvider.getConnectionForProject(rootProjectPath)) {
+        final var latch = new CountDownLatch(1);
+        projConn
+            .newBuild()
+            .setStandardOutput(outputStream)
+            .setStandardError(errorStream)
+            .forTasks(taskPaths.toArray(String[]::new))
+            .withArguments(parallel ? List.of("--parallel") : List.of())
+            .addProgressListener(
+                (ProgressListener)
+                    event -> {
+                      taskOutput.statusChanged(event);
+                      if (event instanceof TaskFinishEvent taskFinishEvent) {
+                        final var taskResult = toTaskResult(taskFinishEvent.getResult());
+                        final String taskPath = taskFinishEvent.getDescriptor().getTaskPath();
+                        taskResults.put(taskPath, taskResult);
+                        span.recordChild(
+                            Phase.BUILD_TASK,
+                            taskPath,
+                            taskFinishEvent.getResult().getStartTime(),
+                            taskFinishEvent.getResult().getEndTime(),
+                            taskResult.failure());
+                      }
+                    },
+                OperationType.TASK)
+            .withCancellationToken(cancellationTokenSource.token())
+            .run(
+                new ResultHandler<>() {
+                  @Override
+                  public void onComplete(Void result) {
+                    log.info(
+                        "Tasks: {} execution complete in time: {}ms",
+                        taskPaths,
+                        (System.currentTimeMillis() - startTime));
+                    latch.countDown();
+                  }
+
+                  @Override
+                  public void onFailure(GradleConnectionException failure) {
+                    log.error(
+                        "Tasks: {} execution failed in time: {}ms",
+                        taskPaths,
+                        (System.currentTimeMillis() - startTime),
+                        failure);
+                    buildFailure.set(failure);
+                    latch.countDown();
+                  }
+                });
+        awaitOrCancel(latch, cancellationTokenSource);
+      } finally {
+        outputStream.close();
+        errorStream.close();
+      }
+      if (buildFailure.get() != null) {
+        span.fail(buildFailure.get());
+      }
 
-    if (!repository.isTaskConfiguredForProject(projectName, gradleTask)) {
-      log.warn("Task: '{}', not configured for project: {}", gradleTask, projectName);
-      return Optional.empty();
+      // tasks that never finished did not run, e.g. because a task they depend on failed
+      final Map<String, TaskResult> requestedTaskResults = new LinkedHashMap<>();
+      taskPaths.forEach(
+          taskPath ->
+              requestedTaskResults.put(
+                  taskPath,
+                  taskResults
+                      .getOrDefault(
+                          taskPath,
+                          new TaskResult(
+                              TaskOutcome.NOT_RUN,
+                              0,
+                              buildFailure.get() == null ? null : buildFailure.get().getMessage()))
+                      .withOutput(taskOutput.getOutput(taskPath))));
+
+      return new BuildTasksResult(
+          outputStream.getTail(), errorStream.getTail(), requestedTaskResults);
     }
+  }
 
-    final String projectPath = repository.getAbsolutePathOfProject(projectName);
-    final var result = executeTask(gradleClientProvider, projectPath, gradleTask);
+  /**
+   * Creates a stream for standard output of a build that forwards every line to the log as it is
+   * written, and keeps only the last lines in memory.
+   */
+  public static LineProcessingOutputStream newOutputStream(final List<String> taskPaths) {
+    return new LineProcessingOutputStream(
+        line -> log.info("{} > {}", taskPaths, line), OUTPUT_TAIL_SIZE);
+  }
+
+  private static TaskResult toTaskResult(final TaskOperationResult result) {
+    final long duration = result.getEndTime() - result.getStartTime();
+    if (result instanceof TaskSuccessResult successResult) {
+      if (successResult.isFromCache()) {
+        return new TaskResult(TaskOutcome.FROM_CACHE, duration, null);
+      }
+      return new TaskResult(
+          successResult.isUpToDate() ? TaskOutcome.UP_TO_DATE : TaskOutcome.SUCCESS,
+          duration,
+          null);
+    }
+    if (result instanceof TaskSkippedResult skippedResult) {
+      return new TaskResult(TaskOutcome.SKIPPED, duration, skippedResult.getSkipMessage());
+    }
+    if (result instanceof TaskFailureResult failureResult) {
+      return new TaskResult(
+          TaskOutcome.FAILED,
+          duration,
+          failureResult.getFailures().stream()
+              .map(Failure::getMessage)
+              .collect(Collectors.joining(System.lineSeparator())));
+    }
+    return new TaskResult(TaskOutcome.NOT_RUN, duration, null);
+  }
 
-    return Optional.of(result);
+  /**
+   * Waits for the build to complete. If the waiting thread is interrupted, e.g. when image creation
+   * of a service times out, then the build is cancelled in gradle daemon as well, before the
+   * connection is closed.
+   */
+  private static void awaitOrCancel(
+      final CountDownLatch latch, final CancellationTokenSource cancellationTokenSource) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      cancellationTokenSource.cancel();
+      Thread.currentThread().interrupt();
+      throw new BuildToolRunnerException(e);
+    }
   }
 }
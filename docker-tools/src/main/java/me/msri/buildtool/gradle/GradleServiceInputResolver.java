@@ -0,0 +1,154 @@
+package me.msri.buildtool.gradle;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.buildtool.BuildToolInformationRepository;
+import org.gradle.tooling.model.eclipse.EclipseClasspathEntry;
+import org.gradle.tooling.model.eclipse.EclipseProject;
+import org.gradle.tooling.model.eclipse.EclipseProjectDependency;
+
+/**
+ * Resolves the inputs of a gradle project that end up in its image: main source directories and
+ * build scripts of the project, and of all projects it depends on, build scripts of root project,
+ * and resolved dependency jars. Test sources are not part of an image, so they are left out.
+ *
+ * <p>Scope of a source directory, or a class path entry, is told by the attributes that gradle
+ * gives it in eclipse model: <code>gradle_used_by_scope</code> lists the source sets that use it,
+ * e.g. <code>main,test</code>, and <code>test</code> marks entries used only by tests. Entries
+ * without these attributes, e.g. of older versions of gradle, are kept, so that an input is never
+ * missed.
+ */
+@Slf4j
+class GradleServiceInputResolver {
+
+  private static final Set<String> BUILD_SCRIPTS =
+      Set.of(
+          "build.gradle",
+          "build.gradle.kts",
+          "settings.gradle",
+          "settings.gradle.kts",
+          "gradle.properties",
+          "gradle/libs.versions.toml");
+
+  private static final String MAIN_SCOPE = "main";
+  private static final String SCOPE_ATTRIBUTE = "gradle_scope";
+  private static final String USED_BY_SCOPE_ATTRIBUTE = "gradle_used_by_scope";
+  private static final String TEST_ATTRIBUTE = "test";
+
+  private final GradleClientProvider gradleClientProvider;
+  private final BuildToolInformationRepository repository;
+
+  /** Eclipse model of all projects in the build, keyed by name of the eclipse project. */
+  private Map<String, EclipseProject> eclipseProjects;
+
+  GradleServiceInputResolver(
+      final GradleClientProvider gradleClientProvider,
+      final BuildToolInformationRepository repository) {
+    this.gradleClientProvider = gradleClientProvider;
+    this.repository = repository;
+  }
+
+  Set<Path> resolve(final String projectName) {
+    final File projectDirectory = new File(repository.getAbsolutePathOfProject(projectName));
+    final var projects = getEclipseProjects(projectDirectory.getAbsolutePath());
+    final var project =
+        projects.values().stream()
+            .filter(it -> projectDirectory.equals(it.getProjectDirectory()))
+            .findFirst();
+    if (project.isEmpty()) {
+      log.warn("Eclipse model not found for project: {}", projectName);
+      return Set.of();
+    }
+
+    final Set<Path> inputs = new HashSet<>();
+    project.get().getClasspath().stream()
+        .filter(GradleServiceInputResolver::isUsedByMain)
+        .forEach(dependency -> inputs.add(dependency.getFile().toPath()));
+    addBuildScripts(rootOf(project.get()).getProjectDirectory().toPath(), inputs);
+
+    // sources of upstream projects are compiled into the image as well
+    final var visited = new HashSet<String>();
+    final var pending = new ArrayDeque<EclipseProject>();
+    pending.add(project.get());
+    while (!pending.isEmpty()) {
+      final var current = pending.poll();
+      if (!visited.add(current.getName())) {
+        continue;
+      }
+      addBuildScripts(current.getProjectDirectory().toPath(), inputs);
+      current.getSourceDirectories().stream()
+          .filter(GradleServiceInputResolver::isUsedByMain)
+          .forEach(sourceDirectory -> inputs.add(sourceDirectory.getDirectory().toPath()));
+      current.getProjectDependencies().stream()
+          .filter(GradleServiceInputResolver::isUsedByMain)
+          .map(EclipseProjectDependency::getPath)
+          .map(path -> path.startsWith("/") ? path.substring(1) : path)
+          .map(projects::get)
+          .filter(Objects::nonNull)
+          .forEach(pending::add);
+    }
+
+    return Set.copyOf(inputs);
+  }
+
+  /**
+   * Loads eclipse model of the build only once, as it contains resolved class path of every
+   * project in the build.
+   */
+  private synchronized Map<String, EclipseProject> getEclipseProjects(final String projectPath) {
+    if (eclipseProjects == null) {
+      try (final var projConn = gradleClientProvider.getConnectionForProject(projectPath)) {
+        final var projects = new HashMap<String, EclipseProject>();
+        addProjectAndChildren(rootOf(projConn.getModel(EclipseProject.class)), projects);
+        eclipseProjects = projects;
+      }
+    }
+    return eclipseProjects;
+  }
+
+  private static void addProjectAndChildren(
+      final EclipseProject project, final Map<String, EclipseProject> projects) {
+    projects.put(project.getName(), project);
+    project.getChildren().forEach(child -> addProjectAndChildren(child, projects));
+  }
+
+  private static EclipseProject rootOf(final EclipseProject project) {
+    var root = project;
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    return root;
+  }
+
+  /**
+   * Returns false if attributes of the entry tell that only other source sets, e.g. tests, use it.
+   */
+  private static boolean isUsedByMain(final EclipseClasspathEntry entry) {
+    final Map<String, String> attributes = new HashMap<>();
+    entry
+        .getClasspathAttributes()
+        .forEach(attribute -> attributes.put(attribute.getName(), attribute.getValue()));
+    if (Boolean.parseBoolean(attributes.get(TEST_ATTRIBUTE))) {
+      return false;
+    }
+    final String scopes =
+        attributes.getOrDefault(USED_BY_SCOPE_ATTRIBUTE, attributes.get(SCOPE_ATTRIBUTE));
+    return scopes == null || Arrays.asList(scopes.split(",")).contains(MAIN_SCOPE);
+  }
+
+  private static void addBuildScripts(final Path projectDirectory, final Set<Path> inputs) {
+    BUILD_SCRIPTS.stream()
+        .map(projectDirectory::resolve)
+        .filter(Files::isRegularFile)
+        .forEach(inputs::add);
+  }
+}
@@ -1,85 +1,235 @@
 package me.msri.buildtool.gradle;
 
-import java.util.HashMap;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
 import me.msri.buildtool.BuildToolInformationRepository;
+import me.msri.buildtool.ProjectInformation;
 import me.msri.buildtool.exception.BuildToolRunnerException;
-import org.gradle.tooling.model.GradleProject;
-import org.gradle.tooling.model.Task;
-
-/** Provides data related to gradle setup of a project. */
+import me.msri.buildtool.gradle.model.SpringBootBuildModel;
+import me.msri.buildtool.gradle.model.SpringBootBuildModelInitScript;
+import me.msri.buildtool.gradle.model.SpringBootProjectModel;
+import me.msri.trace.Phase;
+import me.msri.trace.Tracer;
+
+/**
+ * Provides data related to gradle setup of a project. All data is read with a single request for
+ * {@link SpringBootBuildModel}, and cached for the lifetime of the repository.
+ *
+ * <p>The data is also persisted by {@link GradleProjectCache}, and read from there. Initialisation
+ * happens in background, and only the first query waits for it to complete. If build files of the
+ * project changed since the cache was written, the cached data is served while the model is fetched
+ * again in background, and replaced once it is. Only a query for a project that the cached data
+ * does not know waits for the refresh, as the project may have been added.
+ */
+@Slf4j
 public class GradleSetupInformationRepository implements BuildToolInformationRepository {
 
-  private final Map<String, ProjectPathAndTasks> projects;
+  private static final String ROOT_PROJECT_PATH = ":";
+
   private final GradleClientProvider gradleClientProvider;
+  private volatile Map<String, ProjectInformation> projects;
+  private volatile String rootProjectPath;
+  private volatile CompletableFuture<Void> initialisation;
+  private volatile CompletableFuture<Void> refresh;
 
   public GradleSetupInformationRepository(final GradleClientProvider gradleClientProvider) {
     this.gradleClientProvider = gradleClientProvider;
-    projects = new HashMap<>();
+    projects = new ConcurrentHashMap<>();
+    initialisation = CompletableFuture.completedFuture(null);
+    refresh = CompletableFuture.completedFuture(null);
   }
 
   @Override
   public void initialise(String projectBasePath) {
+    final var loaded = new CompletableFuture<Void>();
+    final var refreshed = new CompletableFuture<Void>();
+    initialisation = loaded;
+    refresh = refreshed;
+    final var thread =
+        new Thread(
+            () -> {
+              try {
+                load(projectBasePath, loaded);
+              } catch (RuntimeException e) {
+                loaded.completeExceptionally(e);
+              } finally {
+                loaded.complete(null);
+                refreshed.complete(null);
+              }
+            },
+            "gradle-model-loader");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Loads projects from the cache, or from gradle model. Supplied future is completed as soon as
+   * projects can be served, which is before the model is fetched, if the cache is stale.
+   */
+  private void load(final String projectBasePath, final CompletableFuture<Void> loaded) {
+    try (final var span = Tracer.start(Phase.MODEL_LOAD, "gradle projects")) {
+      final long startTime = System.currentTimeMillis();
+      final var cache = new GradleProjectCache(Path.of(projectBasePath));
+      final var cachedProjects = cache.read();
+      if (cachedProjects.isPresent()) {
+        cachedProjects.get().projects().forEach(this::addProjectInformation);
+        loaded.complete(null);
+        if (cachedProjects.get().isCurrent()) {
+          span.with("source", "cache");
+          log.info(
+              "Gradle projects loaded from cache in time: {}ms",
+              System.currentTimeMillis() - startTime);
+          return;
+        }
+        log.info(
+            "Gradle projects loaded from stale cache in time: {}ms, refreshing them in background",
+            System.currentTimeMillis() - startTime);
+      }
+
+      final List<ProjectInformation> fetchedProjects;
+      try {
+        fetchedProjects = fetchProjects(projectBasePath);
+      } catch (RuntimeException e) {
+        if (!loaded.isDone()) {
+          throw e;
+        }
+        // queries keep being served from the stale cache
+        log.warn("Could not refresh gradle projects of: {}", projectBasePath, e);
+        span.fail(e);
+        return;
+      }
+      final Map<String, ProjectInformation> refreshedProjects = new ConcurrentHashMap<>();
+      fetchedProjects.forEach(
+          project -> refreshedProjects.put(project.name().toLowerCase(), project));
+      // queries see either the cached, or the refreshed projects, never a mix of both
+      projects = refreshedProjects;
+      fetchedProjects.forEach(this::updateRootProjectPath);
+      cache.write(fetchedProjects);
+      span.with(
+          "source", cachedProjects.isPresent() ? "stale cache, gradle model" : "gradle model");
+      log.info(
+          "Gradle projects loaded from gradle model in time: {}ms",
+          System.currentTimeMillis() - startTime);
+    }
+  }
+
+  private List<ProjectInformation> fetchProjects(final String projectBasePath) {
     try (final var projConn = gradleClientProvider.getConnectionForProject(projectBasePath)) {
-      final var project = projConn.getModel(GradleProject.class);
-      addProjectAndSubProjectsToMap(project);
+      return projConn
+          .model(SpringBootBuildModel.class)
+          .withArguments(SpringBootBuildModelInitScript.getArguments())
+          .get()
+          .getProjects()
+          .stream()
+          .map(GradleSetupInformationRepository::toProjectInformation)
+          .toList();
+    }
+  }
+
+  /** Waits till the projects are loaded, either from cache or from gradle model. */
+  private void awaitInitialisation() {
+    try {
+      initialisation.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
     }
   }
 
   /**
-   * @param name Name of gradle project.
-   * @param absolutePath Path of gradle project, relative to user root directory.
-   * @param tasks A {@link Set} of all gradle tasks configured for this project.
+   * @param projectInformation Set up information of a gradle project, where absolute path of the
+   *     project is relative to user root directory.
    */
   @Override
-  public void addProjectInformation(
-      final String name, final String absolutePath, final Set<String> tasks) {
-    projects.put(name.toLowerCase(), new ProjectPathAndTasks(absolutePath, tasks));
+  public void addProjectInformation(final ProjectInformation projectInformation) {
+    projects.put(projectInformation.name().toLowerCase(), projectInformation);
+    updateRootProjectPath(projectInformation);
+  }
+
+  private void updateRootProjectPath(final ProjectInformation projectInformation) {
+    if (ROOT_PROJECT_PATH.equals(projectInformation.buildPath())) {
+      rootProjectPath = projectInformation.absolutePath();
+    }
   }
 
   @Override
   public boolean isProjectConfigured(final String projectName) {
+    awaitInitialisation();
+    if (projects.containsKey(projectName.toLowerCase())) {
+      return true;
+    }
+    // project may have been added since the cache was written
+    refresh.join();
     return projects.containsKey(projectName.toLowerCase());
   }
 
   @Override
   public boolean isTaskConfiguredForProject(final String projectName, final String taskName) {
-    if (!isProjectConfigured(projectName)) {
-      throw new BuildToolRunnerException(projectName + " is not configured as gradle project.");
-    }
-
-    return projects.get(projectName.toLowerCase()).tasks().contains(taskName);
+    return getProject(projectName).tasks().contains(taskName);
   }
 
   @Override
   public String getAbsolutePathOfProject(final String projectName) {
-    if (!isProjectConfigured(projectName)) {
-      throw new BuildToolRunnerException(projectName + " is not configured as gradle project.");
-    }
+    return getProject(projectName).absolutePath();
+  }
+
+  @Override
+  public String getAbsolutePathOfRootProject() {
+    awaitInitialisation();
+    return rootProjectPath;
+  }
 
-    return projects.get(projectName.toLowerCase()).projectPath();
+  @Override
+  public String getTaskPath(final String projectName, final String taskName) {
+    final String buildPath = getProject(projectName).buildPath();
+    // path of root project is ':', tasks of sub-projects are separated by ':' from project path
+    return buildPath.endsWith(":") ? buildPath + taskName : buildPath + ":" + taskName;
   }
 
-  private void addProjectAndSubProjectsToMap(final GradleProject project) {
-    putProjectAndTasksToMap(project);
+  @Override
+  public Optional<String> getSpringBootJarPathOfProject(final String projectName) {
+    return Optional.ofNullable(getProject(projectName).springBootJarPath());
+  }
 
-    final var children = project.getChildren();
-    if (children.isEmpty()) {
-      return;
+  @Override
+  public Optional<String> getSpringBootImageNameOfProject(final String projectName) {
+    return Optional.ofNullable(getProject(projectName).springBootImageName());
+  }
+
+  @Override
+  public Set<String> getProjectDependencies(final String projectName) {
+    return getProject(projectName).dependencies().stream()
+        .filter(this::isProjectConfigured)
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  private ProjectInformation getProject(final String projectName) {
+    if (!isProjectConfigured(projectName)) {
+      throw new BuildToolRunnerException(projectName + " is not configured as gradle project.");
     }
 
-    children.forEach(this::addProjectAndSubProjectsToMap);
+    return projects.get(projectName.toLowerCase());
   }
 
-  private void putProjectAndTasksToMap(final GradleProject project) {
-    addProjectInformation(
+  private static ProjectInformation toProjectInformation(final SpringBootProjectModel project) {
+    return new ProjectInformation(
         project.getName(),
+        project.getPath(),
         project.getProjectDirectory().getAbsolutePath(),
-        project.getTasks().stream().map(Task::getName).collect(Collectors.toUnmodifiableSet()));
+        Set.copyOf(project.getTasks()),
+        Optional.ofNullable(project.getBootJarFile()).map(File::getAbsolutePath).orElse(null),
+        project.getBootBuildImageName(),
+        Set.copyOf(project.getProjectDependencies()));
   }
-
-  /** Contains absolute path, and all tasks configured for one gradle project. */
-  private static record ProjectPathAndTasks(String projectPath, Set<String> tasks) {}
 }
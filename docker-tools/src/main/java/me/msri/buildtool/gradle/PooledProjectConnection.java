@@ -0,0 +1,77 @@
+package me.msri.buildtool.gradle;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.gradle.tooling.BuildAction;
+import org.gradle.tooling.BuildActionExecuter;
+import org.gradle.tooling.BuildLauncher;
+import org.gradle.tooling.ModelBuilder;
+import org.gradle.tooling.ProjectConnection;
+import org.gradle.tooling.ResultHandler;
+import org.gradle.tooling.TestLauncher;
+
+/**
+ * A {@link ProjectConnection} borrowed from {@link GradleClientProvider}. All operations are
+ * delegated to the pooled connection, except {@link #close()}, which returns the connection to the
+ * pool instead of disconnecting from gradle daemon.
+ */
+class PooledProjectConnection implements ProjectConnection {
+
+  private final ProjectConnection delegate;
+  private final Runnable release;
+  private final AtomicBoolean released;
+
+  PooledProjectConnection(final ProjectConnection delegate, final Runnable release) {
+    this.delegate = delegate;
+    this.release = release;
+    this.released = new AtomicBoolean();
+  }
+
+  @Override
+  public <T> T getModel(final Class<T> modelType) {
+    return delegate.getModel(modelType);
+  }
+
+  @Override
+  public <T> void getModel(final Class<T> modelType, final ResultHandler<? super T> handler) {
+    delegate.getModel(modelType, handler);
+  }
+
+  @Override
+  public BuildLauncher newBuild() {
+    return delegate.newBuild();
+  }
+
+  @Override
+  public TestLauncher newTestLauncher() {
+    return delegate.newTestLauncher();
+  }
+
+  @Override
+  public <T> ModelBuilder<T> model(final Class<T> modelType) {
+    return delegate.model(modelType);
+  }
+
+  @Override
+  public <T> BuildActionExecuter<T> action(final BuildAction<T> buildAction) {
+    return delegate.action(buildAction);
+  }
+
+  @Override
+  public BuildActionExecuter.Builder action() {
+    return delegate.action();
+  }
+
+  @Override
+  public void notifyDaemonsAboutChangedPaths(final List<Path> changedPaths) {
+    delegate.notifyDaemonsAboutChangedPaths(changedPaths);
+  }
+
+  @Override
+  public void close() {
+    if (released.compareAndSet(false, true)) {
+      release.run();
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package me.msri.buildtool.gradle;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import me.msri.console.TailBuffer;
+import org.gradle.tooling.events.ProgressEvent;
+import org.gradle.tooling.events.ProgressListener;
+import org.gradle.tooling.events.task.TaskStartEvent;
+
+/**
+ * Attributes lines of output of a build to the tasks that printed them, and keeps the last lines of
+ * every task.
+ *
+ * <p>Gradle groups output of a task, even of tasks running in parallel, and prints it once the task
+ * finished, after a header like <code>&gt; Task :service:bootJar UP-TO-DATE</code>. Such a header
+ * starts output of a task only if task progress events reported that task as started, so that a
+ * task printing a similar line is not mistaken for another one. Output of the task ends with the
+ * next header, or with the summary of the build, which belongs to no task.
+ */
+class TaskOutputCollector implements ProgressListener, Consumer<String> {
+
+  private static final Pattern TASK_HEADER = Pattern.compile("^> Task (:\\S*)(?: [A-Z-]+)*$");
+
+  private final int tailSize;
+  private final Set<String> startedTasks = ConcurrentHashMap.newKeySet();
+  private final Map<String, TailBuffer> outputPerTask = new ConcurrentHashMap<>();
+  private TailBuffer currentOutput;
+
+  /** @param tailSize Number of last lines kept for every task. */
+  TaskOutputCollector(final int tailSize) {
+    this.tailSize = tailSize;
+  }
+
+  @Override
+  public void statusChanged(final ProgressEvent event) {
+    if (event instanceof TaskStartEvent startEvent) {
+      startedTasks.add(startEvent.getDescriptor().getTaskPath());
+    }
+  }
+
+  /** Receives lines of both output, and error of the build, in the order gradle printed them. */
+  @Override
+  public synchronized void accept(final String line) {
+    final var header = TASK_HEADER.matcher(line);
+    if (header.matches() && startedTasks.contains(header.group(1))) {
+      final String taskPath = header.group(1);
+      currentOutput = outputPerTask.computeIfAbsent(taskPath, it -> new TailBuffer(tailSize));
+      return;
+    }
+    if (line.startsWith("FAILURE: ") || line.startsWith("BUILD ")) {
+      currentOutput = null;
+      return;
+    }
+    if (currentOutput != null) {
+      currentOutput.add(line);
+    }
+  }
+
+  /** Returns the last lines printed by supplied task, joined by line separator. */
+  String getOutput(final String taskPath) {
+    final var output = outputPerTask.get(taskPath);
+    return output == null ? "" : output.asString().strip();
+  }
+}
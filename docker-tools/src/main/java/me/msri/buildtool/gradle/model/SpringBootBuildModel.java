@@ -0,0 +1,15 @@
+package me.msri.buildtool.gradle.model;
+
+import java.util.List;
+
+/**
+ * Custom tooling model that describes spring boot artifacts of every project of a gradle build. It
+ * is built inside gradle daemon by the model builder registered through {@link
+ * SpringBootBuildModelInitScript}, so that it can be fetched with a single model request instead of
+ * running tasks and parsing their output.
+ */
+public interface SpringBootBuildModel {
+
+  /** Returns root project, and all of its sub-projects. */
+  List<SpringBootProjectModel> getProjects();
+}
@@ -0,0 +1,47 @@
+package me.msri.buildtool.gradle.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import lombok.experimental.UtilityClass;
+import me.msri.buildtool.exception.BuildToolRunnerException;
+
+/**
+ * Provides the gradle init script that registers the model builder of {@link
+ * SpringBootBuildModel} in every build it is passed to.
+ */
+@UtilityClass
+public class SpringBootBuildModelInitScript {
+
+  private static final String RESOURCE_NAME = "spring-boot-model.init.gradle";
+
+  private static Path initScript;
+
+  /**
+   * Returns path of the init script. The script is copied out of the class path once, as gradle
+   * can only read init scripts from file system.
+   */
+  public static synchronized Path getPath() {
+    if (initScript == null) {
+      try (final var resource =
+          SpringBootBuildModelInitScript.class.getResourceAsStream(RESOURCE_NAME)) {
+        if (resource == null) {
+          throw new BuildToolRunnerException("Init script not found: " + RESOURCE_NAME);
+        }
+        final var file = Files.createTempFile("spring-boot-model", ".init.gradle");
+        file.toFile().deleteOnExit();
+        Files.copy(resource, file, StandardCopyOption.REPLACE_EXISTING);
+        initScript = file;
+      } catch (IOException e) {
+        throw new BuildToolRunnerException(e);
+      }
+    }
+    return initScript;
+  }
+
+  /** Returns arguments that pass the init script to a gradle build, or model request. */
+  public static String[] getArguments() {
+    return new String[] {"--init-script", getPath().toString()};
+  }
+}
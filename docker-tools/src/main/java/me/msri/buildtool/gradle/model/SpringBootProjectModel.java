@@ -0,0 +1,35 @@
+package me.msri.buildtool.gradle.model;
+
+import java.io.File;
+import java.util.List;
+
+/** Part of {@link SpringBootBuildModel} that describes a single gradle project. */
+public interface SpringBootProjectModel {
+
+  String getName();
+
+  /** Returns gradle path of the project, e.g. {@code :service}. */
+  String getPath();
+
+  File getProjectDirectory();
+
+  /** Returns names of all tasks configured for the project. */
+  List<String> getTasks();
+
+  /**
+   * Returns the archive file created by {@code bootJar} task, null if the task is not configured.
+   */
+  File getBootJarFile();
+
+  /**
+   * Returns the full name of the image created by {@code bootBuildImage} task, e.g. {@code
+   * docker.io/library/service:1.0}, null if the task is not configured.
+   */
+  String getBootBuildImageName();
+
+  /**
+   * Returns names of projects of the same build, that the project depends on through its main
+   * configurations, i.e. not through configurations of tests.
+   */
+  List<String> getProjectDependencies();
+}
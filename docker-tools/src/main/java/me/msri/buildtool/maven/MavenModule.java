@@ -0,0 +1,27 @@
+package me.msri.buildtool.maven;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A module of a maven reactor, as read from its pom.
+ *
+ * @param artifactId Artifact id of the module, that is used as its name.
+ * @param displayName Name that maven prints for the module, e.g. in reactor summary.
+ * @param directory Absolute path of the directory that contains pom of the module.
+ * @param poms Pom of the module, followed by poms of its parents that are part of the reactor.
+ * @param dependencies Artifact ids of all declared dependencies of the module.
+ */
+record MavenModule(
+        String artifactId,
+        String displayName,
+        Path directory,
+        List<Path> poms,
+        Set<String> dependencies) {
+
+    /** Selector of the module for <code>--projects</code> option of maven. */
+    String selector() {
+        return ":" + artifactId;
+    }
+}
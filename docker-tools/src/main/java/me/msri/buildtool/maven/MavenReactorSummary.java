@@ -0,0 +1,83 @@
+package me.msri.buildtool.maven;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import me.msri.buildtool.BuildTasksResult.TaskOutcome;
+import me.msri.buildtool.BuildTasksResult.TaskResult;
+
+/**
+ * Collects outcome of every module from reactor summary, that maven prints at the end of a build
+ * of more than one module, e.g.
+ *
+ * <pre>
+ * [INFO] service 0.0.1-SNAPSHOT ........................... SUCCESS [  1.786 s]
+ * [INFO] library ......................................... SKIPPED
+ * </pre>
+ */
+class MavenReactorSummary implements Consumer<String> {
+
+    private static final Pattern SUMMARY_LINE =
+            Pattern.compile(
+                    "^\\[INFO] (.+?) \\.+ ?(SUCCESS|FAILURE|SKIPPED)"
+                            + "(?: \\[\\s*([0-9:.]+) (s|min|h)])?.*$");
+
+    /** Key: Name of module, with its version if maven printed one, Value: its result. */
+    private final Map<String, TaskResult> results = new ConcurrentHashMap<>();
+
+    @Override
+    public void accept(final String line) {
+        final var matcher = SUMMARY_LINE.matcher(line);
+        if (!matcher.matches()) {
+            return;
+        }
+        final var outcome =
+                switch (matcher.group(2)) {
+                    case "SUCCESS" -> TaskOutcome.SUCCESS;
+                    case "FAILURE" -> TaskOutcome.FAILED;
+                    default -> TaskOutcome.SKIPPED;
+                };
+        results.put(
+                matcher.group(1),
+                new TaskResult(
+                        outcome,
+                        toMillis(matcher.group(3), matcher.group(4)),
+                        outcome == TaskOutcome.SUCCESS ? null : "Module " + matcher.group(2)));
+    }
+
+    /** Returns false if maven did not print a summary, e.g. because it built only one module. */
+    boolean isPresent() {
+        return !results.isEmpty();
+    }
+
+    /** Provides result of a module, that maven printed either as its name, or name and version. */
+    Optional<TaskResult> getResult(final String displayName) {
+        final var result = results.get(displayName);
+        if (result != null) {
+            return Optional.of(result);
+        }
+        return results.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(displayName + " "))
+                .map(Map.Entry::getValue)
+                .findFirst();
+    }
+
+    /** Converts durations like <code>1.786 s</code>, or <code>01:02 min</code> to millis. */
+    private static long toMillis(final String amount, final String unit) {
+        if (amount == null) {
+            return 0;
+        }
+        final String[] parts = amount.split(":");
+        try {
+            return switch (unit) {
+                case "min" -> (Long.parseLong(parts[0]) * 60 + Long.parseLong(parts[1])) * 1000;
+                case "h" -> (Long.parseLong(parts[0]) * 60 + Long.parseLong(parts[1])) * 60_000;
+                default -> Math.round(Double.parseDouble(amount) * 1000);
+            };
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+}
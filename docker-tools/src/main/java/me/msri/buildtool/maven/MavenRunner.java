@@ -1,23 +1,536 @@
 package me.msri.buildtool.maven;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-
+import java.util.Set;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.buildtool.BuildTasksResult;
+import me.msri.buildtool.BuildTasksResult.TaskOutcome;
+import me.msri.buildtool.BuildTasksResult.TaskResult;
 import me.msri.buildtool.BuildToolRunner;
+import me.msri.buildtool.SpringBootOutputMatchers;
+import me.msri.buildtool.exception.BuildToolRunnerException;
+import me.msri.console.LineProcessingOutputStream;
+import me.msri.console.ProcessExecutor;
+import me.msri.trace.Phase;
+import me.msri.trace.Tracer;
 
+/**
+ * Runs maven goals of modules of a reactor. All goals and modules of a request are built by a
+ * single maven invocation, using <code>--projects</code> to select the modules, and <code>-T
+ * 1C</code> to build independent modules in parallel.
+ *
+ * <p>Invocations run in a {@link MavenWorkerProcess worker JVM}, that is started by the first
+ * invocation, and reused by all later ones, till the runner is closed, so that they find maven
+ * loaded, and compiled already. The worker runs the maven distribution that the executable of the
+ * runner reports, e.g. the version that maven wrapper of the project pins. Only if the
+ * distribution can not be found, every invocation starts the executable, and a new JVM, instead.
+ */
+@Slf4j
 public class MavenRunner implements BuildToolRunner {
+
+    private static final int OUTPUT_TAIL_SIZE = 200;
+    private static final String MAVEN = "mvn";
+    private static final String INSTALL = "install";
+    private static final String MAVEN_HOME_PREFIX = "Maven home:";
+    private static final Duration VERSION_TIMEOUT = Duration.ofMinutes(5);
+
+    protected final MavenSetupInformationRepository repository;
+    private final String executable;
+    /** Concurrent invocations would write to the same target directories, so they are serial. */
+    private final Lock buildLock;
+    /** Home of the maven distribution, that is looked up in background, as it may be downloaded. */
+    private volatile CompletableFuture<Optional<Path>> mavenHome;
+    /** Guarded by {@link #buildLock}. */
+    private MavenWorkerProcess worker;
+    /**
+     * Artifact ids of modules installed in the current round, either by {@link
+     * #buildProjects(Set)}, or ahead of goals of plugins.
+     */
+    private volatile Set<String> installedModules = Set.of();
+
+    public MavenRunner(final MavenSetupInformationRepository repository) {
+        this(repository, MAVEN);
+    }
+
+    /**
+     * @param executable Executable of maven, whose distribution is run by the worker, or that is
+     *     run for every invocation, if its distribution can not be found.
+     */
+    protected MavenRunner(
+            final MavenSetupInformationRepository repository, final String executable) {
+        this.repository = repository;
+        this.executable = executable;
+        this.buildLock = new ReentrantLock();
+        this.mavenHome =
+                CompletableFuture.supplyAsync(
+                        this::findMavenHome,
+                        runnable -> {
+                            final var thread = new Thread(runnable, "maven-home-lookup");
+                            thread.setDaemon(true);
+                            thread.start();
+                        });
+    }
+
     @Override
-    public boolean isValidService(String serviceName) {
-        return false;
+    public boolean isValidService(final String serviceName) {
+        return repository.isProjectConfigured(serviceName);
+    }
+
+    @Override
+    public Optional<Map.Entry<String, String>> createSpringBootImage(final String projectName) {
+        final String buildImage = MavenSetupInformationRepository.BUILD_IMAGE_GOAL;
+        if (!repository.isTaskConfiguredForProject(projectName, buildImage)) {
+            log.warn("Goal: '{}', not configured for project: {}", buildImage, projectName);
+            return Optional.empty();
+        }
+
+        // image name is picked from the output while it is streamed, instead of after the build
+        final var goals = List.of("package", buildImage);
+        final var summary = new MavenReactorSummary();
+        final var outputStream = newOutputStream(List.of(projectName), summary);
+        final var builtImage =
+                outputStream.addMatcher(SpringBootOutputMatchers.BUILT_IMAGE_MATCHER);
+        final var result = runReactor(goals, List.of(projectName), outputStream, summary);
+
+        final var imageCreationResult =
+                result.getTask(repository.getTaskPath(projectName, buildImage));
+        if (imageCreationResult.isEmpty() || !imageCreationResult.get().isSuccessful()) {
+            log.error("Error while creating spring boot image: {}", result.error());
+            return Optional.empty();
+        }
+        // stream is closed by now, so the matcher is complete, with null if nothing matched
+        return Optional.ofNullable(builtImage.join());
+    }
+
+    @Override
+    public Optional<Map.Entry<String, String>> createSpringBootJar(final String projectName) {
+        // location of the jar is known from pom, so only the jar needs to be created
+        final var jarPath = repository.getSpringBootJarPathOfProject(projectName);
+        if (jarPath.isEmpty()) {
+            log.warn("Spring boot fat jar is not configured for project: {}", projectName);
+            return Optional.empty();
+        }
+
+        // repackage needs the jar of package phase, so both run in the same invocation
+        final var goals = List.of("package", MavenSetupInformationRepository.REPACKAGE_GOAL);
+        final var result = executeTasks(Map.of(projectName, goals));
+        final var jarCreationResult =
+                result.getTask(
+                        repository.getTaskPath(
+                                projectName, MavenSetupInformationRepository.REPACKAGE_GOAL));
+        if (jarCreationResult.isEmpty() || !jarCreationResult.get().isSuccessful()) {
+            log.error("Error while creating spring boot fat jar: {}", result.error());
+            return Optional.empty();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Sprig boot fat jar creation successful: {}", result.output());
+        }
+
+        final var jarFile = Path.of(jarPath.get());
+        return Optional.of(
+                Map.entry(jarFile.getParent().toString(), jarFile.getFileName().toString()));
+    }
+
+    /**
+     * Modules that request the same goals are built by one invocation, so a request where every
+     * module asks for the same goals needs a single invocation.
+     */
+    @Override
+    public BuildTasksResult executeTasks(final Map<String, List<String>> tasksPerProject) {
+        final Map<List<String>, List<String>> projectsPerGoals = new LinkedHashMap<>();
+        tasksPerProject.forEach(
+                (projectName, tasks) -> {
+                    final var goals =
+                            tasks.stream()
+                                    .filter(task -> isConfigured(projectName, task))
+                                    .toList();
+                    if (!goals.isEmpty()) {
+                        projectsPerGoals
+                                .computeIfAbsent(goals, it -> new ArrayList<>())
+                                .add(projectName);
+                    }
+                });
+
+        final var output = new StringBuilder();
+        final var error = new StringBuilder();
+        final Map<String, TaskResult> tasks = new HashMap<>();
+        projectsPerGoals.forEach(
+                (goals, projectNames) -> {
+                    final var summary = new MavenReactorSummary();
+                    final var result =
+                            runReactor(
+                                    goals,
+                                    projectNames,
+                                    newOutputStream(projectNames, summary),
+                                    summary);
+                    output.append(result.output());
+                    error.append(result.error());
+                    tasks.putAll(result.tasks());
+                });
+        return new BuildTasksResult(output.toString(), error.toString(), tasks);
+    }
+
+    @Override
+    public Set<String> getProjectDependencies(final String projectName) {
+        return repository.getProjectDependencies(projectName);
+    }
+
+    /**
+     * Installs supplied modules, along with modules they depend on. Installed modules are not
+     * installed again before goals of plugins of their dependents, until this is called next time.
+     */
+    @Override
+    public void startRound() {
+        installedModules = Set.of();
+    }
+
+    @Override
+    public BuildTasksResult buildProjects(final Set<String> projectNames) {
+        installedModules = Set.of();
+        final Map<String, List<String>> tasksPerProject = new HashMap<>();
+        projectNames.forEach(projectName -> tasksPerProject.put(projectName, List.of(INSTALL)));
+        final var result = executeTasks(tasksPerProject);
+        if (result.isSuccessful()) {
+            // modules they depend on are installed as well, by --also-make
+            final var modules = projectNames.stream().map(repository::getModule).toList();
+            installedModules =
+                    Stream.concat(modules.stream(), getUpstreamModules(modules).stream())
+                            .map(MavenModule::artifactId)
+                            .collect(Collectors.toUnmodifiableSet());
+        }
+        return result;
     }
 
+    /**
+     * Inputs of a module are its main sources and poms, along with those of reactor modules it
+     * depends on. Dependencies from repositories are not resolved, but their versions are declared
+     * in the poms, so a changed version changes the inputs as well.
+     */
     @Override
-    public Optional<Map.Entry<String, String>> createSpringBootImage(String projectName) {
-        return null;
+    public Set<Path> getServiceInputs(final String projectName) {
+        final Set<Path> inputs = new HashSet<>();
+        final Set<String> visited = new HashSet<>();
+        final var pending = new ArrayDeque<MavenModule>();
+        pending.add(repository.getModule(projectName));
+        while (!pending.isEmpty()) {
+            final var module = pending.poll();
+            if (!visited.add(module.artifactId())) {
+                continue;
+            }
+            inputs.addAll(module.poms());
+            final Path mainSources = module.directory().resolve("src").resolve("main");
+            if (Files.isDirectory(mainSources)) {
+                inputs.add(mainSources);
+            }
+            module.dependencies().stream()
+                    .filter(repository::isProjectConfigured)
+                    .map(repository::getModule)
+                    .forEach(pending::add);
+        }
+        return Set.copyOf(inputs);
     }
 
+    /** Stops the worker, after the invocation it is running, if any. */
     @Override
-    public Optional<Map.Entry<String, String>> createSpringBootJar(String projectName) {
-        return null;
+    public void close() {
+        buildLock.lock();
+        try {
+            if (worker != null) {
+                worker.close();
+                worker = null;
+            }
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    private boolean isConfigured(final String projectName, final String goal) {
+        if (repository.isTaskConfiguredForProject(projectName, goal)) {
+            return true;
+        }
+        log.warn("Goal: '{}', not configured for project: {}", goal, projectName);
+        return false;
+    }
+
+    /**
+     * Runs goals for supplied modules. Modules of the reactor they depend on are built as well,
+     * with <code>--also-make</code>, as long as only lifecycle phases are requested. Goals of
+     * plugins would run for those modules too, so instead such modules are installed by a preceding
+     * invocation.
+     */
+    private BuildTasksResult runReactor(
+            final List<String> goals,
+            final List<String> projectNames,
+            final LineProcessingOutputStream outputStream,
+            final MavenReactorSummary summary) {
+        final var modules = projectNames.stream().map(repository::getModule).toList();
+        final boolean onlyPhases = goals.stream().noneMatch(goal -> goal.contains(":"));
+
+        buildLock.lock();
+        try {
+            final var upstreamModules =
+                    getUpstreamModules(modules).stream()
+                            .filter(module -> !installedModules.contains(module.artifactId()))
+                            .toList();
+            if (!onlyPhases && !upstreamModules.isEmpty()) {
+                final var installSummary = new MavenReactorSummary();
+                final var installStream = newOutputStream(List.of(INSTALL), installSummary);
+                if (!runMaven(List.of(INSTALL), upstreamModules, true, installStream)) {
+                    outputStream.close();
+                    return failedResult(goals, projectNames, installStream);
+                }
+                // goals of modules with the same dependencies do not install them again
+                installedModules =
+                        Stream.concat(
+                                        installedModules.stream(),
+                                        upstreamModules.stream().map(MavenModule::artifactId))
+                                .collect(Collectors.toUnmodifiableSet());
+            }
+
+            final long start = System.currentTimeMillis();
+            final boolean isSuccessful = runMaven(goals, modules, onlyPhases, outputStream);
+            final long duration = System.currentTimeMillis() - start;
+            final Map<String, TaskResult> tasks = new HashMap<>();
+            for (final var module : modules) {
+                final var result = getResult(module, summary, isSuccessful, duration);
+                goals.forEach(goal ->
+                        tasks.put(repository.getTaskPath(module.artifactId(), goal), result));
+            }
+            return new BuildTasksResult(
+                    outputStream.getTail(), isSuccessful ? "" : outputStream.getTail(), tasks);
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    /**
+     * Runs maven, and streams its output line by line. Standard output and error are written to the
+     * same stream, as maven reports failures on either of them. It is called with {@link
+     * #buildLock} held.
+     *
+     * @return True if maven succeeded.
+     */
+    private boolean runMaven(
+            final List<String> goals,
+            final List<MavenModule> modules,
+            final boolean alsoMake,
+            final LineProcessingOutputStream outputStream) {
+        final List<String> arguments = new ArrayList<>();
+        arguments.add("--batch-mode");
+        arguments.add("-Dstyle.color=never");
+        if (!goals.contains("test")) {
+            arguments.add("-DskipTests");
+        }
+        if (modules.size() > 1) {
+            arguments.add("--threads");
+            arguments.add("1C");
+        }
+        arguments.add("--projects");
+        arguments.add(modules.stream().map(MavenModule::selector).collect(Collectors.joining(",")));
+        if (alsoMake) {
+            arguments.add("--also-make");
+        }
+        arguments.addAll(goals);
+
+        final var span = Tracer.start(Phase.BUILD_TOOL, "maven " + goals);
+        try (outputStream) {
+            span.with("modules", modules.stream().map(MavenModule::artifactId).toList());
+            final var currentWorker = getWorker();
+            final boolean isSuccessful =
+                    currentWorker.isPresent()
+                            ? currentWorker.get().run(arguments, outputStream::writeLine) == 0
+                            : runInNewProcess(arguments, outputStream);
+            if (!isSuccessful) {
+                span.fail("Maven failed");
+            }
+            return isSuccessful;
+        } catch (InterruptedException e) {
+            // cancellation destroys maven along with its forked processes
+            Thread.currentThread().interrupt();
+            span.fail(e);
+            throw new BuildToolRunnerException(e);
+        } catch (IOException e) {
+            // worker is replaced by the next invocation
+            span.fail(e);
+            throw new BuildToolRunnerException(e);
+        } catch (ExecutionException e) {
+            span.fail(e.getCause());
+            throw new BuildToolRunnerException(
+                    e.getCause() instanceof Exception cause ? cause : e);
+        } finally {
+            span.close();
+        }
+    }
+
+    /** Runs maven in a new JVM, e.g. if its distribution could not be found for a worker. */
+    private boolean runInNewProcess(
+            final List<String> arguments, final LineProcessingOutputStream outputStream)
+            throws InterruptedException, ExecutionException {
+        final List<String> command = new ArrayList<>();
+        command.add(executable);
+        command.addAll(arguments);
+        final var execution =
+                ProcessExecutor.prepare(command)
+                        .directory(Path.of(repository.getAbsolutePathOfRootProject()))
+                        .tailSize(1)
+                        .onLine(line -> outputStream.writeLine(line.text()))
+                        .start();
+        try {
+            return execution.get().isSuccessful();
+        } catch (InterruptedException e) {
+            execution.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Provides the running worker, and starts one if there is none, or if the last one exited. It
+     * is empty if maven distribution could not be found, or the worker could not be started.
+     */
+    private Optional<MavenWorkerProcess> getWorker() throws InterruptedException {
+        if (worker != null && worker.isAlive()) {
+            return Optional.of(worker);
+        }
+        if (worker != null) {
+            log.warn("Maven worker exited, starting another.");
+            worker = null;
+        }
+
+        final Optional<Path> home;
+        try {
+            home = mavenHome.get();
+        } catch (ExecutionException e) {
+            return Optional.empty();
+        }
+        if (home.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            worker =
+                    MavenWorkerProcess.start(
+                            home.get(), Path.of(repository.getAbsolutePathOfRootProject()));
+        } catch (IOException e) {
+            log.warn("Maven worker could not be started, running: {} instead.", executable, e);
+            mavenHome = CompletableFuture.completedFuture(Optional.empty());
+        }
+        return Optional.ofNullable(worker);
+    }
+
+    /**
+     * Asks the executable for home of its maven distribution, so that maven wrapper downloads the
+     * version it pins, if it has not yet.
+     */
+    private Optional<Path> findMavenHome() {
+        try {
+            final var result =
+                    ProcessExecutor.prepare(List.of(executable, "--version"))
+                            .directory(Path.of(repository.getAbsolutePathOfRootProject()))
+                            .timeout(VERSION_TIMEOUT)
+                            .start()
+                            .get();
+            final var home =
+                    result.getSuccessResultStream()
+                            .map(String::strip)
+                            .filter(line -> line.startsWith(MAVEN_HOME_PREFIX))
+                            .map(line -> line.substring(MAVEN_HOME_PREFIX.length()).strip())
+                            .map(Path::of)
+                            .filter(path -> Files.isDirectory(path.resolve("lib")))
+                            .findFirst();
+            if (home.isPresent()) {
+                log.info("Maven goals are run by a worker, with maven home: {}", home.get());
+            } else {
+                log.warn("Maven home is not reported by: {}, every goal starts it.", executable);
+            }
+            return home;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (ExecutionException | RuntimeException e) {
+            log.warn("Maven home could not be found by: {}, every goal starts it.", executable, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Outcome of a module is read from reactor summary. Maven prints it only if the reactor has
+     * more than one module, otherwise the outcome is that of the whole invocation.
+     */
+    private static TaskResult getResult(
+            final MavenModule module,
+            final MavenReactorSummary summary,
+            final boolean isSuccessful,
+            final long duration) {
+        if (summary.isPresent()) {
+            return summary.getResult(module.displayName())
+                    .orElse(new TaskResult(TaskOutcome.NOT_RUN, 0, null));
+        }
+        return isSuccessful
+                ? new TaskResult(TaskOutcome.SUCCESS, duration, null)
+                : new TaskResult(TaskOutcome.FAILED, duration, "Maven build failed");
+    }
+
+    /** Provides modules of the reactor that supplied modules depend on, even transitively. */
+    private List<MavenModule> getUpstreamModules(final List<MavenModule> modules) {
+        final Set<String> requested =
+                modules.stream().map(MavenModule::artifactId).collect(Collectors.toSet());
+        final Set<String> visited = new HashSet<>();
+        final var pending = new ArrayDeque<>(modules);
+        final List<MavenModule> upstreamModules = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            final var module = pending.poll();
+            if (!visited.add(module.artifactId())) {
+                continue;
+            }
+            if (!requested.contains(module.artifactId())) {
+                upstreamModules.add(module);
+            }
+            module.dependencies().stream()
+                    .filter(repository::isProjectConfigured)
+                    .map(repository::getModule)
+                    .forEach(pending::add);
+        }
+        return upstreamModules;
+    }
+
+    private BuildTasksResult failedResult(
+            final List<String> goals,
+            final List<String> projectNames,
+            final LineProcessingOutputStream outputStream) {
+        final var notRun =
+                new TaskResult(TaskOutcome.NOT_RUN, 0, "Installation of upstream modules failed");
+        final Map<String, TaskResult> tasks = new HashMap<>();
+        projectNames.forEach(
+                projectName ->
+                        goals.forEach(goal ->
+                                tasks.put(repository.getTaskPath(projectName, goal), notRun)));
+        return new BuildTasksResult(outputStream.getTail(), outputStream.getTail(), tasks);
+    }
+
+    private static LineProcessingOutputStream newOutputStream(
+            final List<String> projectNames, final MavenReactorSummary summary) {
+        return new LineProcessingOutputStream(
+                line -> {
+                    log.info("{} > {}", projectNames, line);
+                    summary.accept(line);
+                },
+                OUTPUT_TAIL_SIZE);
     }
 }
@@ -0,0 +1,390 @@
+package me.msri.buildtool.maven;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.buildtool.BuildToolInformationRepository;
+import me.msri.buildtool.ProjectInformation;
+import me.msri.buildtool.exception.BuildToolRunnerException;
+import me.msri.trace.Phase;
+import me.msri.trace.Tracer;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Provides data related to maven setup of a project. Poms of the reactor are read once, starting
+ * from the root pom and following its modules, and cached for the lifetime of the repository.
+ *
+ * <p>Poms are read as they are, so that no maven process is needed for it. Parents that are part
+ * of the reactor are resolved, along with properties declared in them, but parents from a
+ * repository, e.g. <code>spring-boot-starter-parent</code>, and profiles are not. Every module
+ * supports lifecycle phases, and modules that declare <code>spring-boot-maven-plugin</code>, or
+ * inherit it from a parent in the reactor, support its goals as well.
+ */
+@Slf4j
+public class MavenSetupInformationRepository implements BuildToolInformationRepository {
+
+    static final String REPACKAGE_GOAL = "spring-boot:repackage";
+    static final String BUILD_IMAGE_GOAL = "spring-boot:build-image";
+
+    private static final String POM = "pom.xml";
+    private static final String SPRING_BOOT_PLUGIN = "spring-boot-maven-plugin";
+    private static final Set<String> LIFECYCLE_PHASES =
+            Set.of("clean", "validate", "compile", "test", "package", "verify", "install");
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+
+    private final Map<String, ProjectInformation> projects;
+    private final Map<String, MavenModule> modules;
+    private final Map<Path, Pom> poms;
+    private volatile String rootProjectPath;
+
+    public MavenSetupInformationRepository() {
+        projects = new ConcurrentHashMap<>();
+        modules = new ConcurrentHashMap<>();
+        poms = new HashMap<>();
+    }
+
+    @Override
+    public synchronized void initialise(final String projectBasePath) {
+        try (final var span = Tracer.start(Phase.MODEL_LOAD, "maven projects")) {
+            final long startTime = System.currentTimeMillis();
+            final Path rootPom =
+                    Path.of(projectBasePath).toAbsolutePath().normalize().resolve(POM);
+            rootProjectPath = rootPom.getParent().toString();
+            addModuleAndChildren(rootPom);
+            span.with("source", "poms");
+            log.info(
+                    "Maven projects loaded from poms in time: {}ms",
+                    System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * @param projectInformation Set up information of a maven module, where build path is the
+     *     selector of the module, e.g. <code>:service</code>.
+     */
+    @Override
+    public void addProjectInformation(final ProjectInformation projectInformation) {
+        projects.put(projectInformation.name().toLowerCase(), projectInformation);
+    }
+
+    @Override
+    public boolean isProjectConfigured(final String projectName) {
+        return projects.containsKey(projectName.toLowerCase());
+    }
+
+    @Override
+    public boolean isTaskConfiguredForProject(final String projectName, final String taskName) {
+        return getProject(projectName).tasks().contains(taskName);
+    }
+
+    @Override
+    public String getAbsolutePathOfProject(final String projectName) {
+        return getProject(projectName).absolutePath();
+    }
+
+    @Override
+    public String getAbsolutePathOfRootProject() {
+        return rootProjectPath;
+    }
+
+    /** Goals are run for selected modules, so the path is the selector followed by the goal. */
+    @Override
+    public String getTaskPath(final String projectName, final String taskName) {
+        return getProject(projectName).buildPath() + ":" + taskName;
+    }
+
+    @Override
+    public Optional<String> getSpringBootJarPathOfProject(final String projectName) {
+        return Optional.ofNullable(getProject(projectName).springBootJarPath());
+    }
+
+    @Override
+    public Optional<String> getSpringBootImageNameOfProject(final String projectName) {
+        return Optional.ofNullable(getProject(projectName).springBootImageName());
+    }
+
+    @Override
+    public Set<String> getProjectDependencies(final String projectName) {
+        return getProject(projectName).dependencies().stream()
+                .filter(this::isProjectConfigured)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /** Provides the module of the reactor with supplied name. */
+    MavenModule getModule(final String projectName) {
+        getProject(projectName);
+        return modules.get(projectName.toLowerCase());
+    }
+
+    /** Provides all modules of the reactor. */
+    Collection<MavenModule> getModules() {
+        return modules.values();
+    }
+
+    private ProjectInformation getProject(final String projectName) {
+        if (!isProjectConfigured(projectName)) {
+            throw new BuildToolRunnerException(
+                    projectName + " is not configured as maven project.");
+        }
+
+        return projects.get(projectName.toLowerCase());
+    }
+
+    private void addModuleAndChildren(final Path pomFile) {
+        final var pom = readPom(pomFile);
+        final Path directory = pomFile.getParent();
+
+        final Set<String> tasks = new HashSet<>(LIFECYCLE_PHASES);
+        String springBootJarPath = null;
+        String springBootImageName = null;
+        if (pom.springBootPlugin() != null && "jar".equals(pom.packaging())) {
+            tasks.add(REPACKAGE_GOAL);
+            tasks.add(BUILD_IMAGE_GOAL);
+            // repackaged jar replaces the main artifact of the module
+            final String buildDirectory =
+                    childText(pom.build(), "directory").map(pom::interpolate).orElse("target");
+            final String finalName =
+                    childText(pom.build(), "finalName")
+                            .map(pom::interpolate)
+                            .orElse(pom.artifactId() + "-" + pom.version());
+            springBootJarPath =
+                    directory.resolve(buildDirectory).resolve(finalName + ".jar").toString();
+            springBootImageName =
+                    childText(pom.springBootPlugin(), "configuration", "image", "name")
+                            .map(pom::interpolate)
+                            .orElse("docker.io/library/" + pom.artifactId() + ":" + pom.version());
+        }
+
+        final var module =
+                new MavenModule(
+                        pom.artifactId(),
+                        pom.interpolate(pom.name()),
+                        directory,
+                        pom.files(),
+                        pom.dependencies());
+        modules.put(pom.artifactId().toLowerCase(), module);
+        addProjectInformation(
+                new ProjectInformation(
+                        pom.artifactId(),
+                        module.selector(),
+                        directory.toString(),
+                        Set.copyOf(tasks),
+                        springBootJarPath,
+                        springBootImageName,
+                        pom.dependencies()));
+
+        for (final String child : pom.modules()) {
+            final Path childPath = directory.resolve(child).normalize();
+            addModuleAndChildren(Files.isDirectory(childPath) ? childPath.resolve(POM) : childPath);
+        }
+    }
+
+    /** Reads a pom, along with its parent if the parent is part of the reactor. */
+    private Pom readPom(final Path pomFile) {
+        final var cached = poms.get(pomFile);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Element project = parse(pomFile);
+        final var parentElement = child(project, "parent");
+        final Pom parent = parentElement.flatMap(it -> readReactorParent(pomFile, it)).orElse(null);
+
+        final String artifactId =
+                childText(project, "artifactId")
+                        .orElseThrow(
+                                () -> new BuildToolRunnerException(
+                                        "artifactId not found in: " + pomFile));
+        final Map<String, String> properties =
+                parent == null ? new HashMap<>() : new HashMap<>(parent.properties());
+        child(project, "properties")
+                .ifPresent(
+                        it -> childElements(it)
+                                .forEach(property ->
+                                        properties.put(property.getNodeName(), text(property))));
+        // e.g. ${revision} of CI friendly versions, that is defined by properties of the reactor
+        final String groupId =
+                interpolate(
+                        childText(project, "groupId")
+                                .or(() -> parentElement.flatMap(it -> childText(it, "groupId")))
+                                .orElse(""),
+                        properties);
+        final String version =
+                interpolate(
+                        childText(project, "version")
+                                .or(() -> parentElement.flatMap(it -> childText(it, "version")))
+                                .orElse(""),
+                        properties);
+        properties.put("project.groupId", groupId);
+        properties.put("project.artifactId", artifactId);
+        properties.put("project.version", version);
+        properties.put("groupId", groupId);
+        properties.put("artifactId", artifactId);
+        properties.put("version", version);
+
+        final Element build = child(project, "build").orElse(null);
+        final Element springBootPlugin =
+                childrenOf(build, "plugins", "plugin").stream()
+                        .filter(plugin -> childText(plugin, "artifactId")
+                                .filter(SPRING_BOOT_PLUGIN::equals)
+                                .isPresent())
+                        .findFirst()
+                        .orElse(parent == null ? null : parent.springBootPlugin());
+
+        final List<Path> files = new ArrayList<>();
+        files.add(pomFile);
+        if (parent != null) {
+            files.addAll(parent.files());
+        }
+
+        final var pom =
+                new Pom(
+                        artifactId,
+                        childText(project, "name").orElse(artifactId),
+                        version,
+                        childText(project, "packaging").orElse("jar"),
+                        Map.copyOf(properties),
+                        build,
+                        springBootPlugin,
+                        childrenOf(project, "modules", "module").stream()
+                                .map(MavenSetupInformationRepository::text)
+                                .toList(),
+                        childrenOf(project, "dependencies", "dependency").stream()
+                                .map(dependency -> childText(dependency, "artifactId"))
+                                .flatMap(Optional::stream)
+                                .collect(Collectors.toUnmodifiableSet()),
+                        List.copyOf(files));
+        poms.put(pomFile, pom);
+        return pom;
+    }
+
+    /** Provides parent of a pom, if it is found at its relative path, i.e. it is in the reactor. */
+    private Optional<Pom> readReactorParent(final Path pomFile, final Element parentElement) {
+        final String relativePath = childText(parentElement, "relativePath").orElse("../" + POM);
+        if (relativePath.isEmpty()) {
+            return Optional.empty();
+        }
+        Path parentPath = pomFile.getParent().resolve(relativePath).normalize();
+        if (Files.isDirectory(parentPath)) {
+            parentPath = parentPath.resolve(POM);
+        }
+        if (!Files.isRegularFile(parentPath)) {
+            return Optional.empty();
+        }
+
+        final var parent = readPom(parentPath);
+        return childText(parentElement, "artifactId")
+                .filter(parent.artifactId()::equals)
+                .map(it -> parent);
+    }
+
+    private static Element parse(final Path pomFile) {
+        try (final var inputStream = Files.newInputStream(pomFile)) {
+            final var factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(inputStream).getDocumentElement();
+        } catch (IOException | ParserConfigurationException | SAXException e) {
+            throw new BuildToolRunnerException(e);
+        }
+    }
+
+    private static Optional<Element> child(final Element parent, final String name) {
+        return childElements(parent).stream()
+                .filter(it -> name.equals(it.getNodeName()))
+                .findFirst();
+    }
+
+    /** Provides text of the element that is found by following supplied names from the parent. */
+    private static Optional<String> childText(final Element parent, final String... path) {
+        Optional<Element> current = Optional.ofNullable(parent);
+        for (final String name : path) {
+            current = current.flatMap(it -> child(it, name));
+        }
+        return current.map(MavenSetupInformationRepository::text).filter(it -> !it.isEmpty());
+    }
+
+    /** Provides elements with supplied name, that are inside a container, e.g. all modules. */
+    private static List<Element> childrenOf(
+            final Element parent, final String container, final String name) {
+        if (parent == null) {
+            return List.of();
+        }
+        return child(parent, container).stream()
+                .flatMap(it -> childElements(it).stream())
+                .filter(it -> name.equals(it.getNodeName()))
+                .toList();
+    }
+
+    private static List<Element> childElements(final Element parent) {
+        final List<Element> elements = new ArrayList<>();
+        final var nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                elements.add((Element) nodes.item(i));
+            }
+        }
+        return elements;
+    }
+
+    private static String text(final Element element) {
+        return element.getTextContent().trim();
+    }
+
+    /**
+     * A pom as it is read from its file.
+     *
+     * @param properties Properties of the pom and its parents in the reactor, along with
+     *     coordinates of the project.
+     * @param springBootPlugin Declaration of spring boot plugin in the pom, or in its nearest
+     *     parent in the reactor, null if no such declaration exists.
+     * @param files The pom file, followed by files of its parents in the reactor.
+     */
+    private record Pom(
+            String artifactId,
+            String name,
+            String version,
+            String packaging,
+            Map<String, String> properties,
+            Element build,
+            Element springBootPlugin,
+            List<String> modules,
+            Set<String> dependencies,
+            List<Path> files) {
+
+        /** @see MavenSetupInformationRepository#interpolate(String, Map) */
+        String interpolate(final String value) {
+            return MavenSetupInformationRepository.interpolate(value, properties);
+        }
+    }
+
+    /** Replaces known properties in a value, unknown properties are left as they are. */
+    private static String interpolate(final String value, final Map<String, String> properties) {
+        final Matcher matcher = PROPERTY.matcher(value);
+        final var result = new StringBuilder();
+        while (matcher.find()) {
+            final String replacement = properties.getOrDefault(matcher.group(1), matcher.group());
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package me.msri.buildtool.maven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Main class of the long-lived JVM that {@link MavenWorkerProcess} starts, which runs maven
+ * invocations one after another, so that they find classes of maven loaded, and compiled already.
+ *
+ * <p>Classes of the maven distribution are loaded the way its launcher loads them, and every
+ * invocation is run by a new <code>MavenCli</code>. Arguments of an invocation are read from
+ * standard input as a line of tab separated values, and the end of its output is marked by a line
+ * that starts with the marker supplied to the worker, followed by the exit code of maven. System
+ * properties are restored after every invocation, as maven sets its user properties as system
+ * properties.
+ *
+ * <p>It runs outside of the annotation processor, so it depends on nothing but the JDK.
+ */
+public final class MavenWorker {
+
+    static final String ARGUMENT_SEPARATOR = "\t";
+
+    private MavenWorker() {}
+
+    /**
+     * @param args Maven home, marker of the end of an invocation, and the root of the reactor.
+     */
+    public static void main(final String[] args) throws Exception {
+        final Path mavenHome = Path.of(args[0]);
+        final String marker = args[1];
+        final String projectRoot = args[2];
+        System.setProperty("maven.home", mavenHome.toString());
+        System.setProperty("maven.conf", mavenHome.resolve("conf").toString());
+        System.setProperty("maven.multiModuleProjectDirectory", projectRoot);
+
+        final ClassLoader mavenClassLoader =
+                new URLClassLoader(getClassPath(mavenHome), ClassLoader.getPlatformClassLoader());
+        final Class<?> mavenCli = mavenClassLoader.loadClass("org.apache.maven.cli.MavenCli");
+        final Method doMain =
+                mavenCli.getMethod(
+                        "doMain", String[].class, String.class, PrintStream.class,
+                        PrintStream.class);
+        Thread.currentThread().setContextClassLoader(mavenClassLoader);
+
+        final PrintStream out = System.out;
+        final var requests =
+                new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String request;
+        while ((request = requests.readLine()) != null) {
+            final String[] mavenArgs =
+                    request.isEmpty() ? new String[0] : request.split(ARGUMENT_SEPARATOR);
+            final var properties = (Properties) System.getProperties().clone();
+            int exitCode;
+            try {
+                exitCode =
+                        (int) doMain.invoke(
+                                mavenCli.getConstructor().newInstance(),
+                                mavenArgs,
+                                projectRoot,
+                                out,
+                                System.err);
+            } catch (InvocationTargetException e) {
+                e.getCause().printStackTrace();
+                exitCode = 1;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                e.printStackTrace();
+                exitCode = 1;
+            } finally {
+                System.setProperties(properties);
+                System.setOut(out);
+            }
+            System.err.flush();
+            out.println(marker + " " + exitCode);
+            out.flush();
+        }
+    }
+
+    /** Same class path as <code>bin/m2.conf</code> of maven gives its core realm. */
+    private static URL[] getClassPath(final Path mavenHome) throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        entries.add(mavenHome.resolve("conf").resolve("logging"));
+        for (final String directory : List.of("boot", "lib/ext", "lib")) {
+            final Path jarDirectory = mavenHome.resolve(directory);
+            if (Files.isDirectory(jarDirectory)) {
+                try (Stream<Path> jars = Files.list(jarDirectory)) {
+                    jars.filter(jar -> jar.toString().endsWith(".jar"))
+                            .sorted()
+                            .forEach(entries::add);
+                }
+            }
+        }
+
+        final List<URL> urls = new ArrayList<>();
+        for (final Path entry : entries) {
+            try {
+                urls.add(entry.toUri().toURL());
+            } catch (MalformedURLException e) {
+                throw new IOException("Invalid class path entry: " + entry, e);
+            }
+        }
+        return urls.toArray(URL[]::new);
+    }
+}
@@ -0,0 +1,219 @@
+package me.msri.buildtool.maven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A JVM that runs maven invocations of a reactor one after another, see {@link MavenWorker}. It is
+ * started once, and kept running till it is closed, so that only the first invocation pays for
+ * starting a JVM, and loading maven.
+ *
+ * <p>The worker runs the maven distribution it is given, which is the one that maven wrapper of
+ * the project, or maven on <code>PATH</code>, would run. JVM options of <code>.mvn/jvm.config
+ * </code> are applied to the worker, and standard output, and error of maven are merged into one
+ * stream of lines. A worker that exits, or is destroyed, e.g. as its invocation was interrupted,
+ * fails every invocation after that, and needs to be replaced.
+ */
+@Slf4j
+class MavenWorkerProcess implements AutoCloseable {
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final Process process;
+    private final OutputStream requests;
+    private final String marker;
+    private volatile Consumer<String> currentOutput;
+    private volatile CompletableFuture<Integer> currentExitCode;
+
+    private MavenWorkerProcess(final Process process, final String marker) {
+        this.process = process;
+        this.requests = process.getOutputStream();
+        this.marker = marker;
+        final var reader = new Thread(this::readOutput, "maven-worker-output");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Starts a worker JVM, that runs maven of supplied maven home, for the reactor at supplied
+     * root. It uses the JVM of this process, unless <code>JAVA_HOME</code> selects another one, as
+     * maven launcher would.
+     */
+    static MavenWorkerProcess start(final Path mavenHome, final Path projectRoot)
+            throws IOException {
+        final String marker = "[msri-maven-worker-" + UUID.randomUUID() + "]";
+        final List<String> command = new ArrayList<>();
+        command.add(getJavaExecutable());
+        command.addAll(readJvmConfig(projectRoot));
+        command.add("-cp");
+        command.add(getWorkerClassPath());
+        command.add(MavenWorker.class.getName());
+        command.add(mavenHome.toString());
+        command.add(marker);
+        command.add(projectRoot.toString());
+
+        final var process =
+                new ProcessBuilder(command)
+                        .directory(projectRoot.toFile())
+                        .redirectErrorStream(true)
+                        .start();
+        log.info("Maven worker started with pid: {}, for maven home: {}", process.pid(), mavenHome);
+        return new MavenWorkerProcess(process, marker);
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Runs maven with supplied arguments, and forwards its output line by line, till it exits. An
+     * interrupted invocation destroys the worker, along with processes maven forked.
+     *
+     * @return Exit code of maven.
+     * @throws IOException If the worker is not running, or exited during the invocation.
+     */
+    synchronized int run(final List<String> arguments, final Consumer<String> output)
+            throws IOException, InterruptedException {
+        if (!process.isAlive()) {
+            throw new IOException("Maven worker is not running.");
+        }
+
+        final var exitCode = new CompletableFuture<Integer>();
+        currentOutput = output;
+        currentExitCode = exitCode;
+        try {
+            requests.write(
+                    (String.join(MavenWorker.ARGUMENT_SEPARATOR, arguments) + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+            requests.flush();
+            return exitCode.get();
+        } catch (InterruptedException e) {
+            destroy();
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause
+                    ? cause
+                    : new IOException("Maven worker failed.", e.getCause());
+        } finally {
+            currentOutput = null;
+            currentExitCode = null;
+        }
+    }
+
+    /** Lets the worker exit once its standard input ends, and destroys it if it does not. */
+    @Override
+    public void close() {
+        try {
+            requests.close();
+            if (!process.waitFor(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                destroy();
+            }
+        } catch (IOException e) {
+            destroy();
+        } catch (InterruptedException e) {
+            destroy();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void destroy() {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /** Forwards lines to the current invocation, and completes it once its marker is read. */
+    private void readOutput() {
+        try (final var reader =
+                new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int markerIndex = line.indexOf(marker);
+                if (markerIndex < 0) {
+                    forward(line);
+                    continue;
+                }
+                // maven may not have ended its last line
+                if (markerIndex > 0) {
+                    forward(line.substring(0, markerIndex));
+                }
+                final var exitCode = currentExitCode;
+                if (exitCode != null) {
+                    exitCode.complete(
+                            Integer.parseInt(
+                                    line.substring(markerIndex + marker.length()).strip()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Output of maven worker could not be read.", e);
+        }
+
+        final var exitCode = currentExitCode;
+        if (exitCode != null) {
+            exitCode.completeExceptionally(new IOException("Maven worker exited."));
+        }
+        log.info("Maven worker with pid: {} exited.", process.pid());
+    }
+
+    private void forward(final String line) {
+        final var output = currentOutput;
+        if (output != null) {
+            output.accept(line);
+        } else {
+            log.debug("Maven worker > {}", line);
+        }
+    }
+
+    private static String getJavaExecutable() {
+        final String javaHome = System.getenv("JAVA_HOME");
+        final boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
+        return Path.of(
+                        javaHome == null || javaHome.isBlank()
+                                ? System.getProperty("java.home")
+                                : javaHome,
+                        "bin",
+                        isWindows ? "java.exe" : "java")
+                .toString();
+    }
+
+    /** Options that maven launcher passes to the JVM of every build of the project. */
+    private static List<String> readJvmConfig(final Path projectRoot) throws IOException {
+        final Path jvmConfig = projectRoot.resolve(".mvn").resolve("jvm.config");
+        if (!Files.isRegularFile(jvmConfig)) {
+            return List.of();
+        }
+        return Arrays.stream(Files.readString(jvmConfig).strip().split("\\s+"))
+                .filter(option -> !option.isEmpty())
+                .toList();
+    }
+
+    /** Worker needs only its own class, which is on the class path this class is loaded from. */
+    private static String getWorkerClassPath() throws IOException {
+        try {
+            return Path.of(
+                            MavenWorker.class
+                                    .getProtectionDomain()
+                                    .getCodeSource()
+                                    .getLocation()
+                                    .toURI())
+                    .toString();
+        } catch (URISyntaxException | RuntimeException e) {
+            throw new IOException("Class path of maven worker could not be found.", e);
+        }
+    }
+}
@@ -1,23 +1,20 @@
 package me.msri.buildtool.maven;
 
-import java.util.Map;
-import java.util.Optional;
+import java.nio.file.Path;
 
-import me.msri.buildtool.BuildToolRunner;
+/**
+ * Runs maven goals with maven wrapper of the project, so that the version of maven that the
+ * project declares is used. The wrapper is asked for its distribution, downloading it if needed,
+ * and goals run in a worker of that distribution, as with {@link MavenRunner}.
+ */
+public class MavenWrapperRunner extends MavenRunner {
 
-public class MavenWrapperRunner implements BuildToolRunner {
-    @Override
-    public boolean isValidService(String serviceName) {
-        return false;
+    public MavenWrapperRunner(final MavenSetupInformationRepository repository) {
+        super(repository, getWrapper(repository.getAbsolutePathOfRootProject()));
     }
 
-    @Override
-    public Optional<Map.Entry<String, String>> createSpringBootImage(String projectName) {
-        return null;
-    }
-
-    @Override
-    public Optional<Map.Entry<String, String>> createSpringBootJar(String projectName) {
-        return null;
+    private static String getWrapper(final String rootProjectPath) {
+        final boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
+        return Path.of(rootProjectPath, isWindows ? "mvnw.cmd" : "mvnw").toString();
     }
 }
@@ -1,59 +1,88 @@
 package me.msri.console;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Stream;
 
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
+import me.msri.console.OutputLine.Source;
 
 @UtilityClass
 @Slf4j
 public class ConsoleCommandExecutor {
 
-    private static final Runtime RUNTIME = Runtime.getRuntime();
-    public static final String DELIMITER = "<<DEL>>";
-
+    /**
+     * Runs a command, whose arguments are separated by whitespace, and waits for it to finish.
+     *
+     * @see #runCommandAndWait(List, Path, Duration)
+     */
     public static CommandExecutionResult runCommandAndWait(final String command) {
-        final long startTime = System.currentTimeMillis();
-        final String threadName = Thread.currentThread().getName();
+        return runCommandAndWait(splitCommand(command), null, null);
+    }
 
-        try {
-            final var process = RUNTIME.exec(command);
-            final int result = process.waitFor();
-
-            try (final Scanner inputScanner = new Scanner(process.getInputStream());
-                 final Scanner errorScanner = new Scanner(process.getErrorStream())) {
-                return new CommandExecutionResult(
-                    result == 0,
-                    inputScanner.tokens().collect(Collectors.joining(DELIMITER)),
-                    errorScanner.tokens().collect(Collectors.joining(DELIMITER)));
-            }
+    /** Splits a command into executable and its arguments, by whitespace. */
+    static List<String> splitCommand(final String command) {
+        return Arrays.asList(command.trim().split("\\s+"));
+    }
 
+    /**
+     * Runs a command and waits for it to finish. Output of the command is read while it runs, so
+     * the command never blocks on a full pipe, and the whole output is kept in the result.
+     *
+     * @param command Executable followed by its arguments.
+     * @param directory Working directory of the command, null for working directory of this JVM.
+     * @param timeout Time after which the command and all its descendants are destroyed, null to
+     *     wait forever.
+     */
+    public static CommandExecutionResult runCommandAndWait(
+        final List<String> command, final Path directory, final Duration timeout) {
+        final var output = new StringJoiner(System.lineSeparator());
+        final var error = new StringJoiner(System.lineSeparator());
+        final var result =
+            ProcessExecutor.prepare(command)
+                .directory(directory)
+                .timeout(timeout)
+                .onLine(line -> (line.source() == Source.OUTPUT ? output : error).add(line.text()))
+                .start();
+        try {
+            final boolean isSuccessful = result.get().isSuccessful();
+            return new CommandExecutionResult(isSuccessful, output.toString(), error.toString());
         } catch (final InterruptedException e) {
+            // cancellation destroys the process
+            result.cancel(true);
             Thread.currentThread().interrupt();
             throw new ConsoleCommandExecutionFailedException(e);
-        } catch (final Exception e) {
-            throw new ConsoleCommandExecutionFailedException(e);
-        } finally {
-            log.info(
-                "Command: {} :: Execution Time: {}ms :: Thread: {}",
-                command,
-                System.currentTimeMillis() - startTime,
-                threadName);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof ConsoleCommandExecutionFailedException cause) {
+                throw cause;
+            }
+            throw new ConsoleCommandExecutionFailedException(
+                e.getCause() instanceof Exception cause ? cause : e);
         }
     }
 
+    /**
+     * Outcome of a command. Results of {@link #runCommandAndWait(List, Path, Duration)} hold the
+     * whole output of the command, while those of {@link ProcessExecution#start()} hold only its
+     * last lines, as many as {@link ProcessExecution#tailSize(int)}.
+     *
+     * @param successResult Standard output of the command, line by line, possibly only its tail.
+     * @param errorResult Standard error of the command, line by line, possibly only its tail.
+     */
     public static final record CommandExecutionResult(
         boolean isSuccessful, String successResult, String errorResult) {
 
         public Stream<String> getSuccessResultStream() {
-            return Arrays.stream(successResult.split(DELIMITER));
+            return successResult.lines();
         }
 
         public Stream<String> getErrorResultStream() {
-            return Arrays.stream(errorResult.split(DELIMITER));
+            return errorResult.lines();
         }
     }
 }
@@ -0,0 +1,18 @@
+package me.msri.console;
+
+import java.util.Optional;
+
+/**
+ * Looks for a certain piece of information in lines of output produced by a command or build tool.
+ *
+ * @param <T> Type of the information extracted from a matching line.
+ */
+@FunctionalInterface
+public interface LineMatcher<T> {
+
+  /**
+   * @param line A single line of output, without line terminator.
+   * @return Information extracted from the line, empty if the line does not match.
+   */
+  Optional<T> match(String line);
+}
@@ -0,0 +1,138 @@
+package me.msri.console;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * An {@link OutputStream} that splits written bytes into lines as they arrive, instead of
+ * buffering the whole output. Every line is forwarded to a consumer, e.g. a logger, kept in a
+ * {@link TailBuffer} for error reporting, and checked against registered {@link LineMatcher}s.
+ *
+ * <p>A matcher is evaluated only till it finds its first match, after which lines are no longer
+ * checked against it. Further consumers of every line, e.g. one that attributes lines to tasks of a
+ * build, can be added while lines are written.
+ */
+public class LineProcessingOutputStream extends OutputStream {
+
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  private final Consumer<String> lineConsumer;
+  private final TailBuffer tail;
+  private final List<PendingMatch<?>> pendingMatches;
+  private final List<Consumer<String>> lineListeners;
+  private byte[] lineBuffer;
+  private int lineLength;
+
+  /**
+   * @param lineConsumer Receives every line as soon as it is complete.
+   * @param tailSize Number of last lines kept for error reporting.
+   */
+  public LineProcessingOutputStream(final Consumer<String> lineConsumer, final int tailSize) {
+    this.lineConsumer = lineConsumer;
+    this.tail = new TailBuffer(tailSize);
+    this.pendingMatches = new ArrayList<>();
+    this.lineListeners = new ArrayList<>();
+    this.lineBuffer = new byte[256];
+  }
+
+  /**
+   * Registers a matcher for the lines that are written after this call.
+   *
+   * @return A {@link CompletableFuture} that is completed with the first match. It is completed
+   *     with null if the stream is closed without any match.
+   */
+  public synchronized <T> CompletableFuture<T> addMatcher(final LineMatcher<T> matcher) {
+    final var pendingMatch = new PendingMatch<>(matcher, new CompletableFuture<T>());
+    pendingMatches.add(pendingMatch);
+    return pendingMatch.result();
+  }
+
+  /** Registers a consumer, that receives the lines that are written after this call. */
+  public synchronized void addLineListener(final Consumer<String> lineListener) {
+    lineListeners.add(lineListener);
+  }
+
+  @Override
+  public synchronized void write(final int b) {
+    if (b == '\n') {
+      processLine();
+      return;
+    }
+    if (lineLength == lineBuffer.length) {
+      if (lineLength == MAX_LINE_LENGTH) {
+        // excessively long lines are split instead of growing without bounds
+        processLine();
+      } else {
+        lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineLength * 2, MAX_LINE_LENGTH));
+      }
+    }
+    lineBuffer[lineLength++] = (byte) b;
+  }
+
+  @Override
+  public synchronized void write(final byte[] bytes, final int offset, final int length) {
+    for (int i = offset; i < offset + length; i++) {
+      write(bytes[i]);
+    }
+  }
+
+  /**
+   * Processes a complete line, that was already split by its producer, e.g. a line read from a
+   * process. A partial line that was written before is processed first.
+   */
+  public synchronized void writeLine(final String line) {
+    if (lineLength > 0) {
+      processLine();
+    }
+    process(line);
+  }
+
+  /** Processes the last line even if it was not terminated, and completes pending matchers. */
+  @Override
+  public synchronized void close() {
+    if (lineLength > 0) {
+      processLine();
+    }
+    pendingMatches.forEach(pendingMatch -> pendingMatch.result().complete(null));
+    pendingMatches.clear();
+  }
+
+  /** Returns the last lines written to this stream, joined by line separator. */
+  public String getTail() {
+    return tail.asString();
+  }
+
+  private void processLine() {
+    int length = lineLength;
+    if (length > 0 && lineBuffer[length - 1] == '\r') {
+      length--;
+    }
+    final String line = new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    lineLength = 0;
+    process(line);
+  }
+
+  private void process(final String line) {
+    lineConsumer.accept(line);
+    tail.add(line);
+    lineListeners.forEach(lineListener -> lineListener.accept(line));
+    if (!pendingMatches.isEmpty()) {
+      pendingMatches.removeIf(pendingMatch -> pendingMatch.tryMatch(line));
+    }
+  }
+
+  private static record PendingMatch<T>(LineMatcher<T> matcher, CompletableFuture<T> result) {
+
+    /** Returns true if the line matched, and the matcher is no longer needed. */
+    private boolean tryMatch(final String line) {
+      final var match = matcher.match(line);
+      match.ifPresent(result::complete);
+      return match.isPresent();
+    }
+  }
+}
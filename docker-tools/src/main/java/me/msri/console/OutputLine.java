@@ -0,0 +1,16 @@
+package me.msri.console;
+
+/**
+ * A single line written by a process, without line terminator.
+ *
+ * @param source Stream of the process that the line was written to.
+ * @param text Content of the line.
+ */
+public record OutputLine(Source source, String text) {
+
+  /** Output streams of a process. */
+  public enum Source {
+    OUTPUT,
+    ERROR
+  }
+}
@@ -0,0 +1,184 @@
+package me.msri.console;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.console.ConsoleCommandExecutor.CommandExecutionResult;
+import me.msri.console.OutputLine.Source;
+
+/**
+ * A process that is configured, and then started once. Standard output and error of the process
+ * are drained concurrently, line by line, while the process runs, so that neither of them can fill
+ * up its pipe and block the process. Lines are forwarded to registered consumers, and subscribers
+ * of {@link #output()}, and the last ones of each stream are kept for the result.
+ *
+ * <p>If the process does not exit within its timeout, or its result is cancelled, then the process
+ * is destroyed along with all of its descendants.
+ */
+@Slf4j
+public class ProcessExecution {
+
+  private static final int DEFAULT_TAIL_SIZE = 200;
+
+  private final List<String> command;
+  private final Executor drainExecutor;
+  private final List<Consumer<OutputLine>> lineConsumers;
+  private final SubmissionPublisher<OutputLine> publisher;
+  private Path directory;
+  private Duration timeout;
+  private int tailSize;
+  private boolean started;
+
+  ProcessExecution(final List<String> command, final Executor drainExecutor) {
+    this.command = List.copyOf(command);
+    this.drainExecutor = drainExecutor;
+    this.lineConsumers = new ArrayList<>();
+    this.publisher = new SubmissionPublisher<>(drainExecutor, Flow.defaultBufferSize());
+    this.tailSize = DEFAULT_TAIL_SIZE;
+  }
+
+  /** Sets working directory of the process, which is working directory of this JVM by default. */
+  public ProcessExecution directory(final Path directory) {
+    this.directory = directory;
+    return this;
+  }
+
+  /** Sets time after which the process is destroyed. By default, the process is awaited forever. */
+  public ProcessExecution timeout(final Duration timeout) {
+    this.timeout = timeout;
+    return this;
+  }
+
+  /**
+   * Sets number of last lines of each stream that are kept in the result, 200 by default. Earlier
+   * lines reach only consumers registered by {@link #onLine(Consumer)}, and subscribers of {@link
+   * #output()}.
+   */
+  public ProcessExecution tailSize(final int tailSize) {
+    this.tailSize = tailSize;
+    return this;
+  }
+
+  /** Registers a consumer that receives every line synchronously, on the thread that reads it. */
+  public ProcessExecution onLine(final Consumer<OutputLine> lineConsumer) {
+    lineConsumers.add(lineConsumer);
+    return this;
+  }
+
+  /**
+   * Provides lines of both streams as they are read. Lines are delivered asynchronously, and only
+   * those read after subscription, so subscribers should subscribe before the process is started.
+   * A subscriber that falls behind by more than its buffer slows down reading of the process. The
+   * publisher completes once both streams are drained.
+   */
+  public Flow.Publisher<OutputLine> output() {
+    return publisher;
+  }
+
+  /**
+   * Starts the process.
+   *
+   * @return A {@link CompletableFuture} that is completed once the process exits, and both of its
+   *     streams are drained. Its result holds only the last lines of each stream, as many as
+   *     {@link #tailSize(int)}. It fails with {@link java.util.concurrent.TimeoutException} if the
+   *     process does not exit within its timeout.
+   */
+  public synchronized CompletableFuture<CommandExecutionResult> start() {
+    if (started) {
+      throw new IllegalStateException("Process is already started: " + command);
+    }
+    started = true;
+
+    final long startTime = System.currentTimeMillis();
+    final Process process;
+    try {
+      process =
+          new ProcessBuilder(command)
+              .directory(directory == null ? null : directory.toFile())
+              .start();
+    } catch (IOException e) {
+      publisher.closeExceptionally(e);
+      return CompletableFuture.failedFuture(new ConsoleCommandExecutionFailedException(e));
+    }
+
+    final var outputTail = new TailBuffer(tailSize);
+    final var errorTail = new TailBuffer(tailSize);
+    final var outputDrained = drain(process.getInputStream(), Source.OUTPUT, outputTail);
+    final var errorDrained = drain(process.getErrorStream(), Source.ERROR, errorTail);
+    CompletableFuture.allOf(outputDrained, errorDrained)
+        .whenComplete(
+            (ignored, failure) -> {
+              if (failure == null) {
+                publisher.close();
+              } else {
+                publisher.closeExceptionally(failure);
+              }
+            });
+
+    final var result =
+        process
+            .onExit()
+            .thenCombine(
+                CompletableFuture.allOf(outputDrained, errorDrained),
+                (exitedProcess, ignored) ->
+                    new CommandExecutionResult(
+                        exitedProcess.exitValue() == 0,
+                        outputTail.asString(),
+                        errorTail.asString()));
+    final var boundedResult =
+        timeout == null ? result : result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    boundedResult.whenComplete(
+        (executionResult, failure) -> {
+          // timed out, or cancelled by the caller
+          if (failure != null) {
+            destroyTree(process);
+          }
+          log.info(
+              "Command: {} :: Execution Time: {}ms :: Successful: {}",
+              command,
+              System.currentTimeMillis() - startTime,
+              executionResult != null && executionResult.isSuccessful());
+        });
+    return boundedResult;
+  }
+
+  private CompletableFuture<Void> drain(
+      final InputStream inputStream, final Source source, final TailBuffer tail) {
+    return CompletableFuture.runAsync(
+        () -> {
+          try (final var reader =
+              new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+              final var line = new OutputLine(source, text);
+              tail.add(text);
+              lineConsumers.forEach(lineConsumer -> lineConsumer.accept(line));
+              publisher.submit(line);
+            }
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        },
+        drainExecutor);
+  }
+
+  /** Destroys descendants first, so that none of them is left running without its parent. */
+  private static void destroyTree(final Process process) {
+    process.descendants().forEach(ProcessHandle::destroyForcibly);
+    process.destroyForcibly();
+  }
+}
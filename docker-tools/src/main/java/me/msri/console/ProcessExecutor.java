@@ -0,0 +1,38 @@
+package me.msri.console;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Entry point for running processes with {@link ProcessExecution}. Commands are passed as lists of
+ * arguments, so that arguments containing spaces are passed as they are, without any shell.
+ */
+@UtilityClass
+public class ProcessExecutor {
+
+  /** Threads that drain output of processes. They spend most of their time blocked on reads. */
+  private static final ExecutorService DRAIN_EXECUTOR = newDrainExecutor();
+
+  /**
+   * Prepares a process, that is started once it is configured.
+   *
+   * @param command Executable followed by its arguments.
+   */
+  public static ProcessExecution prepare(final List<String> command) {
+    return new ProcessExecution(command, DRAIN_EXECUTOR);
+  }
+
+  private static ExecutorService newDrainExecutor() {
+    final var threadCount = new AtomicInteger();
+    return Executors.newCachedThreadPool(
+        runnable -> {
+          final var thread =
+              new Thread(runnable, "process-output-drainer-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+}
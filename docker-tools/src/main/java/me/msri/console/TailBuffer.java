@@ -0,0 +1,41 @@
+package me.msri.console;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded ring buffer that keeps only the last lines added to it, e.g. to report the end of a long
+ * output when a command fails, without holding the whole output in memory.
+ */
+public class TailBuffer {
+
+  private final String[] lines;
+  private int next;
+  private int size;
+
+  /** @param capacity Maximum number of lines kept. */
+  public TailBuffer(final int capacity) {
+    this.lines = new String[capacity];
+  }
+
+  public synchronized void add(final String line) {
+    lines[next] = line;
+    next = (next + 1) % lines.length;
+    size = Math.min(size + 1, lines.length);
+  }
+
+  /** Returns the kept lines, oldest first. */
+  public synchronized List<String> getLines() {
+    final List<String> tail = new ArrayList<>(size);
+    final int first = (next - size + lines.length) % lines.length;
+    for (int i = 0; i < size; i++) {
+      tail.add(lines[(first + i) % lines.length]);
+    }
+    return tail;
+  }
+
+  /** Returns the kept lines, oldest first, joined by line separator. */
+  public String asString() {
+    return String.join(System.lineSeparator(), getLines());
+  }
+}
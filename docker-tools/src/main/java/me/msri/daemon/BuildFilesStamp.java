@@ -0,0 +1,88 @@
+package me.msri.daemon;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.TreeMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tracks last modification of build files of a project, i.e. files that make build tool load its
+ * projects differently, so that a long-lived build tool connection is reloaded after they change.
+ */
+@Slf4j
+class BuildFilesStamp {
+
+  private static final Set<String> BUILD_FILES =
+      Set.of(
+          "settings.gradle",
+          "settings.gradle.kts",
+          "build.gradle",
+          "build.gradle.kts",
+          "gradle.properties",
+          "libs.versions.toml",
+          "pom.xml");
+
+  /** Directories that contain build outputs, or tool state, rather than build files. */
+  private static final Set<String> SKIPPED_DIRECTORIES =
+      Set.of("build", "target", "out", ".git", ".gradle", ".idea", "node_modules");
+
+  private final Path projectRoot;
+  private String stamp;
+
+  BuildFilesStamp(final Path projectRoot) {
+    this.projectRoot = projectRoot;
+    this.stamp = compute();
+  }
+
+  /** Computes stamp of build files again. Returns true if it differs from the previous one. */
+  synchronized boolean update() {
+    final String current = compute();
+    final boolean changed = !current.equals(stamp);
+    stamp = current;
+    return changed;
+  }
+
+  /** Path, size, and modification time of every build file, in order of their paths. */
+  private String compute() {
+    final var files = new TreeMap<String, String>();
+    try {
+      Files.walkFileTree(
+          projectRoot,
+          new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                final Path directory, final BasicFileAttributes attributes) {
+              return !directory.equals(projectRoot)
+                      && SKIPPED_DIRECTORIES.contains(directory.getFileName().toString())
+                  ? FileVisitResult.SKIP_SUBTREE
+                  : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(
+                final Path file, final BasicFileAttributes attributes) {
+              if (BUILD_FILES.contains(file.getFileName().toString())) {
+                files.put(
+                    projectRoot.relativize(file).toString(),
+                    attributes.size() + "@" + attributes.lastModifiedTime().toMillis());
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+              log.debug("Could not read: {}", file, e);
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      throw new ImageBuildDaemonException(e);
+    }
+    return files.toString();
+  }
+}
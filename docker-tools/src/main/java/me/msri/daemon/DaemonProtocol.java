@@ -0,0 +1,321 @@
+package me.msri.daemon;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import lombok.experimental.UtilityClass;
+import me.msri.annotation.processor.ImageBuildScheduler.ImageBuildReport;
+import me.msri.annotation.processor.ImageBuildScheduler.ServiceBuildResult;
+import me.msri.annotation.processor.ImageBuildScheduler.Status;
+
+/**
+ * Messages exchanged between image build daemon and its clients. Every connection carries a single
+ * request, and a single response, each of them is a JSON document on one line.
+ *
+ * <pre>
+ * {"type":"build","images":{"service":["tag1","tag2"]}}  ->  {"results":[...]}
+ * {"type":"ping"}                                        ->  {"status":"ok"}
+ * {"type":"stop"}                                        ->  {"status":"ok"}
+ * </pre>
+ *
+ * A request that could not be served is answered with <code>{"error":"..."}</code>.
+ */
+@UtilityClass
+class DaemonProtocol {
+
+  static final String BUILD = "build";
+  static final String PING = "ping";
+  static final String STOP = "stop";
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+  // sun_path holds 104 bytes on macOS, and 108 on linux, including the terminating null
+  private static final int MAX_SOCKET_PATH_LENGTH = 100;
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY =
+      PosixFilePermissions.fromString("rwx------");
+  private static final Set<PosixFilePermission> OWNER_ONLY_FILE =
+      PosixFilePermissions.fromString("rw-------");
+
+  /**
+   * Provides path of the socket of the daemon that serves a project, with supplied options. A
+   * daemon serves only the options it was started with, so different options have different
+   * daemons.
+   *
+   * <p>Socket is placed in a directory of the current user, that is the runtime directory of the
+   * user, or else build directory of the project. As length of socket paths is limited, a
+   * directory of the user in temporary directory is used, if the path would be too long in both.
+   */
+  static Path getSocketPath(final Path projectRoot, final Map<String, String> options) {
+    final String fileName = getDaemonId(projectRoot, options) + ".sock";
+    final List<Path> directories = new ArrayList<>();
+    final String runtimeDirectory = System.getenv("XDG_RUNTIME_DIR");
+    if (runtimeDirectory != null && !runtimeDirectory.isBlank()) {
+      directories.add(Path.of(runtimeDirectory, "msri"));
+    }
+    directories.add(projectRoot.toAbsolutePath().normalize().resolve(Path.of("build", "msri")));
+    return directories.stream()
+        .map(directory -> directory.resolve(fileName))
+        .filter(
+            socketPath ->
+                socketPath.toString().getBytes(StandardCharsets.UTF_8).length
+                    <= MAX_SOCKET_PATH_LENGTH)
+        .findFirst()
+        .orElseGet(
+            () ->
+                Path.of(
+                    System.getProperty("java.io.tmpdir"),
+                    "msri-" + System.getProperty("user.name"),
+                    fileName));
+  }
+
+  /**
+   * Creates directory of supplied socket, if it does not exist, so that only its owner has access
+   * to it. A directory that already exists is made accessible only to its owner as well, which
+   * fails if it is owned by another user, e.g. if it was placed in shared temporary directory.
+   */
+  static void createSocketDirectory(final Path socketPath) throws IOException {
+    final Path directory = socketPath.getParent();
+    if (!isPosix(directory)) {
+      Files.createDirectories(directory);
+      return;
+    }
+    Files.createDirectories(directory.getParent());
+    try {
+      Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+    } catch (FileAlreadyExistsException e) {
+      // created by an earlier daemon
+    }
+    if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+      throw new IOException("Socket directory is not a directory: " + directory);
+    }
+    Files.setPosixFilePermissions(directory, OWNER_ONLY_DIRECTORY);
+  }
+
+  /** Makes supplied socket accessible only to its owner. */
+  static void restrictToOwner(final Path file) throws IOException {
+    if (isPosix(file)) {
+      Files.setPosixFilePermissions(file, OWNER_ONLY_FILE);
+    }
+  }
+
+  static FileAttribute<?>[] ownerOnlyFileAttributes(final Path file) {
+    return isPosix(file)
+        ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE)}
+        : new FileAttribute<?>[0];
+  }
+
+  private static boolean isPosix(final Path path) {
+    return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+
+  private static String getDaemonId(final Path projectRoot, final Map<String, String> options) {
+    try {
+      final var digest = MessageDigest.getInstance("SHA-256");
+      final String root = projectRoot.toAbsolutePath().normalize().toString();
+      digest.update(root.getBytes(StandardCharsets.UTF_8));
+      digest.update(new TreeMap<>(options).toString().getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(digest.digest()).substring(0, 16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new ImageBuildDaemonException(e);
+    }
+  }
+
+  static String newRequest(final String type) {
+    return MAPPER.createObjectNode().put("type", type).toString();
+  }
+
+  static String newBuildRequest(final Map<String, Set<String>> imagesWithTags) {
+    final ObjectNode request = MAPPER.createObjectNode().put("type", BUILD);
+    final ObjectNode images = request.putObject("images");
+    imagesWithTags.forEach(
+        (serviceName, tags) -> tags.forEach(images.withArray(serviceName)::add));
+    return request.toString();
+  }
+
+  static String getType(final JsonNode request) {
+    return request.path("type").asText();
+  }
+
+  static Map<String, Set<String>> getImages(final JsonNode buildRequest) {
+    final Map<String, Set<String>> imagesWithTags = new TreeMap<>();
+    buildRequest
+        .path("images")
+        .fields()
+        .forEachRemaining(
+            service -> {
+              final Set<String> tags = new HashSet<>();
+              service.getValue().forEach(tag -> tags.add(tag.asText()));
+              imagesWithTags.put(service.getKey(), Set.copyOf(tags));
+            });
+    return imagesWithTags;
+  }
+
+  static String newOkResponse() {
+    return MAPPER.createObjectNode().put("status", "ok").toString();
+  }
+
+  static String newErrorResponse(final String message) {
+    return MAPPER.createObjectNode().put("error", message).toString();
+  }
+
+  static String newReportResponse(final ImageBuildReport report) {
+    final ObjectNode response = MAPPER.createObjectNode();
+    final var results = response.putArray("results");
+    for (final var result : report.results()) {
+      final ObjectNode node =
+          results
+              .addObject()
+              .put("serviceName", result.serviceName())
+              .put("status", result.status().name())
+              .put("durationMillis", result.durationMillis())
+              .put("reason", result.reason());
+      result.tags().forEach(node.putArray("tags")::add);
+    }
+    final ObjectNode phaseMillis = response.putObject("phaseMillis");
+    report
+        .phaseMillis()
+        .forEach(
+            (serviceName, millisPerPhase) -> {
+              final ObjectNode service = phaseMillis.putObject(serviceName);
+              millisPerPhase.forEach(service::put);
+            });
+    return response.toString();
+  }
+
+  /** @throws ImageBuildDaemonException If daemon responded with an error. */
+  static ImageBuildReport getReport(final JsonNode response) {
+    throwIfError(response);
+    final List<ServiceBuildResult> results = new ArrayList<>();
+    for (final var node : response.path("results")) {
+      final Set<String> tags = new HashSet<>();
+      node.path("tags").forEach(tag -> tags.add(tag.asText()));
+      results.add(
+          new ServiceBuildResult(
+              node.path("serviceName").asText(),
+              Set.copyOf(tags),
+              Status.valueOf(node.path("status").asText()),
+              node.path("durationMillis").asLong(),
+              node.path("reason").isNull() ? null : node.path("reason").asText()));
+    }
+    // json objects keep their order, which is the order of phases
+    final Map<String, Map<String, Long>> phaseMillis = new LinkedHashMap<>();
+    response
+        .path("phaseMillis")
+        .fields()
+        .forEachRemaining(
+            service -> {
+              final Map<String, Long> millisPerPhase = new LinkedHashMap<>();
+              service
+                  .getValue()
+                  .fields()
+                  .forEachRemaining(
+                      phase -> millisPerPhase.put(phase.getKey(), phase.getValue().asLong()));
+              phaseMillis.put(service.getKey(), millisPerPhase);
+            });
+    return new ImageBuildReport(List.copyOf(results), phaseMillis);
+  }
+
+  static void throwIfError(final JsonNode response) {
+    if (response.hasNonNull("error")) {
+      throw new ImageBuildDaemonException(response.get("error").asText());
+    }
+  }
+
+  /** Writes a message, followed by a line break. */
+  static void write(final SocketChannel channel, final String message) throws IOException {
+    final var buffer =
+        ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /** Reads a message till line break, or till the other end closes the connection. */
+  static JsonNode read(final SocketChannel channel) throws IOException {
+    return read(channel::read);
+  }
+
+  /**
+   * Same as {@link #read(SocketChannel)}, but waits for the message only till supplied timeout,
+   * e.g. so that a client does not wait forever for a daemon that hangs. Channel is left in
+   * non-blocking mode.
+   *
+   * @throws SocketTimeoutException If the message is not complete in time.
+   */
+  static JsonNode read(final SocketChannel channel, final Duration timeout) throws IOException {
+    final long deadline = System.nanoTime() + timeout.toNanos();
+    channel.configureBlocking(false);
+    try (final var selector = Selector.open()) {
+      channel.register(selector, SelectionKey.OP_READ);
+      return read(
+          buffer -> {
+            int count;
+            while ((count = channel.read(buffer)) == 0) {
+              final long remainingMillis =
+                  TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+              if (remainingMillis <= 0) {
+                throw new SocketTimeoutException("No response within: " + timeout);
+              }
+              selector.select(remainingMillis);
+              selector.selectedKeys().clear();
+            }
+            return count;
+          });
+    }
+  }
+
+  private static JsonNode read(final ChannelReader reader) throws IOException {
+    final var message = new ByteArrayOutputStream();
+    final var buffer = ByteBuffer.allocate(8192);
+    while (reader.read(buffer) >= 0) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        final byte next = buffer.get();
+        if (next == '\n') {
+          return MAPPER.readTree(message.toString(StandardCharsets.UTF_8));
+        }
+        message.write(next);
+      }
+      buffer.clear();
+      if (message.size() > MAX_MESSAGE_SIZE) {
+        throw new IOException("Message exceeds " + MAX_MESSAGE_SIZE + " bytes.");
+      }
+    }
+    if (message.size() == 0) {
+      throw new IOException("Connection closed without a message.");
+    }
+    return MAPPER.readTree(message.toString(StandardCharsets.UTF_8));
+  }
+
+  /** Reads bytes of a message into supplied buffer, see {@link SocketChannel#read(ByteBuffer)}. */
+  private interface ChannelReader {
+    int read(ByteBuffer buffer) throws IOException;
+  }
+}
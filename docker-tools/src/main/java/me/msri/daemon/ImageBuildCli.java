@@ -0,0 +1,67 @@
+package me.msri.daemon;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Command line client of {@link ImageBuildDaemon}, to create images without compiling, e.g.
+ *
+ * <pre>
+ * ImageBuildCli --project . -Amsri.docker.parallelism=2 order-service:latest order-service:1.0
+ * ImageBuildCli --project . --stop
+ * </pre>
+ *
+ * Options are passed the same way as to the annotation processor. Exits with a non-zero code, if
+ * any image could not be created.
+ */
+@Slf4j
+public class ImageBuildCli {
+
+  public static void main(final String[] args) {
+    Path projectRoot = Path.of("").toAbsolutePath();
+    boolean stop = false;
+    final Map<String, String> options = new HashMap<>();
+    final Map<String, Set<String>> imagesWithTags = new HashMap<>();
+    for (int i = 0; i < args.length; i++) {
+      final String arg = args[i];
+      if (arg.equals("--project") && i + 1 < args.length) {
+        projectRoot = Path.of(args[++i]).toAbsolutePath().normalize();
+      } else if (arg.equals("--stop")) {
+        stop = true;
+      } else if (arg.startsWith("-A") && arg.indexOf('=') > 2) {
+        options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.indexOf(':') > 0) {
+        imagesWithTags
+            .computeIfAbsent(arg.substring(0, arg.indexOf(':')), key -> new HashSet<>())
+            .add(arg.substring(arg.indexOf(':') + 1));
+      } else {
+        printUsage();
+        System.exit(2);
+      }
+    }
+
+    if (stop) {
+      final boolean stopped = ImageBuildDaemonClient.stop(projectRoot, options);
+      log.info(stopped ? "Image build daemon stopped." : "Image build daemon is not running.");
+      return;
+    }
+    if (imagesWithTags.isEmpty()) {
+      printUsage();
+      System.exit(2);
+    }
+
+    final var report = ImageBuildDaemonClient.submit(projectRoot, options, imagesWithTags);
+    report.log();
+    System.exit(report.isSuccessful() ? 0 : 1);
+  }
+
+  private static void printUsage() {
+    System.err.println(
+        "Usage: ImageBuildCli [--project <dir>] [--stop] [-A<option>=<value>]..."
+            + " [<service>:<tag>]...");
+  }
+}
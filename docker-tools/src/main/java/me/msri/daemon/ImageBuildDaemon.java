@@ -0,0 +1,282 @@
+package me.msri.daemon;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.annotation.processor.BuildImageProcessorOptions;
+import me.msri.annotation.processor.ImageBuildService;
+import me.msri.docker.DockerClientProvider;
+
+/**
+ * Long-lived image build service of a project, that keeps build tool connections, image catalog,
+ * and fingerprint cache warm across compilations. Clients submit requests over a unix domain
+ * socket, see {@link DaemonProtocol}. Builds are served one at a time, as they share the same
+ * build tool, and docker.
+ *
+ * <p>Build tool is reloaded whenever its build files change, and daemon stops itself after it has
+ * been idle for the configured time.
+ *
+ * <p>A daemon holds an exclusive lock on a file next to its socket for as long as it runs, so that
+ * of daemons started at the same time, e.g. by parallel builds, only one binds the socket, and no
+ * daemon deletes the socket of another. The lock file itself is left in place, as deleting it
+ * would let a daemon lock a new file, while another still holds the lock of the deleted one.
+ *
+ * <p>Usage: <code>ImageBuildDaemon &lt;project root&gt; [&lt;option&gt;=&lt;value&gt;]...</code>
+ */
+@Slf4j
+public class ImageBuildDaemon implements AutoCloseable {
+
+  private static final Duration IDLE_CHECK_INTERVAL = Duration.ofMinutes(1);
+
+  private final Path socketPath;
+  private final FileLock socketLock;
+  private final Duration idleTimeout;
+  private final ImageBuildService imageBuildService;
+  private final BuildFilesStamp buildFilesStamp;
+  private final ServerSocketChannel serverChannel;
+  private final ExecutorService connectionExecutor =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            final var thread = new Thread(runnable, "image-build-daemon-connection");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final ScheduledExecutorService idleWatcher =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final var thread = new Thread(runnable, "image-build-daemon-idle-watcher");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private volatile long lastRequestNanos = System.nanoTime();
+
+  public static void main(final String[] args) {
+    if (args.length < 1) {
+      System.err.println("Usage: ImageBuildDaemon <project root> [<option>=<value>]...");
+      System.exit(2);
+    }
+    final var projectRoot = Path.of(args[0]).toAbsolutePath().normalize();
+    final Map<String, String> options = new HashMap<>();
+    for (int i = 1; i < args.length; i++) {
+      final int separator = args[i].indexOf('=');
+      if (separator > 0) {
+        options.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+      }
+    }
+
+    final var socketPath = DaemonProtocol.getSocketPath(projectRoot, options);
+    final var socketLock = lockSocket(socketPath);
+    if (socketLock.isEmpty()) {
+      log.info("Image build daemon is already running, or starting on socket: {}", socketPath);
+      return;
+    }
+    if (ImageBuildDaemonClient.isRunning(socketPath)) {
+      log.info("Image build daemon is already running on socket: {}", socketPath);
+      releaseLock(socketLock.get());
+      return;
+    }
+    try (final var daemon =
+        new ImageBuildDaemon(projectRoot, options, socketPath, socketLock.get())) {
+      daemon.serve();
+    }
+  }
+
+  /**
+   * @param socketLock Lock of the socket, that this daemon releases once it is closed. It is taken
+   *     before a running daemon is looked for, so that none can start in between.
+   */
+  ImageBuildDaemon(
+      final Path projectRoot,
+      final Map<String, String> options,
+      final Path socketPath,
+      final FileLock socketLock) {
+    final var processorOptions = BuildImageProcessorOptions.from(options);
+    this.socketPath = socketPath;
+    this.socketLock = socketLock;
+    this.idleTimeout = processorOptions.daemonIdleTimeout();
+    this.buildFilesStamp = new BuildFilesStamp(projectRoot);
+    try {
+      // socket of a daemon that did not stop cleanly is left behind, and blocks binding
+      Files.deleteIfExists(socketPath);
+      this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+      DaemonProtocol.restrictToOwner(socketPath);
+    } catch (IOException e) {
+      releaseLock(socketLock);
+      throw new ImageBuildDaemonException(e);
+    }
+    this.imageBuildService = new ImageBuildService(projectRoot, processorOptions);
+    log.info("""
+            Image build daemon started -
+            Project: {}
+            Socket: {}
+            Idle timeout: {}
+            """, projectRoot, socketPath, idleTimeout);
+  }
+
+  /** Accepts connections until daemon is stopped by a client, or it has been idle for too long. */
+  void serve() {
+    idleWatcher.scheduleWithFixedDelay(
+        this::stopIfIdle,
+        IDLE_CHECK_INTERVAL.toMillis(),
+        IDLE_CHECK_INTERVAL.toMillis(),
+        TimeUnit.MILLISECONDS);
+    while (serverChannel.isOpen()) {
+      try {
+        final var channel = serverChannel.accept();
+        connectionExecutor.execute(() -> handle(channel));
+      } catch (ClosedChannelException e) {
+        log.info("Image build daemon stopped accepting requests.");
+      } catch (IOException e) {
+        log.warn("Failed to accept connection to image build daemon.", e);
+      }
+    }
+  }
+
+  private void handle(final SocketChannel channel) {
+    activeRequests.incrementAndGet();
+    try (channel) {
+      final var request = DaemonProtocol.read(channel);
+      final String type = DaemonProtocol.getType(request);
+      log.info("Received request: {}", type);
+      final String response =
+          switch (type) {
+            case DaemonProtocol.BUILD -> build(request);
+            case DaemonProtocol.PING -> DaemonProtocol.newOkResponse();
+            case DaemonProtocol.STOP -> {
+              stop();
+              yield DaemonProtocol.newOkResponse();
+            }
+            default -> DaemonProtocol.newErrorResponse("Unknown request: " + type);
+          };
+      DaemonProtocol.write(channel, response);
+    } catch (IOException e) {
+      log.warn("Failed to serve request of image build daemon.", e);
+    } finally {
+      lastRequestNanos = System.nanoTime();
+      activeRequests.decrementAndGet();
+    }
+  }
+
+  private String build(final JsonNode request) {
+    try {
+      synchronized (imageBuildService) {
+        if (buildFilesStamp.update()) {
+          log.info("Build files have changed, reloading build tool.");
+          imageBuildService.reloadBuildTool();
+        }
+        final var report = imageBuildService.buildImages(DaemonProtocol.getImages(request));
+        report.log();
+        return DaemonProtocol.newReportResponse(report);
+      }
+    } catch (RuntimeException e) {
+      log.error("Failed to build images.", e);
+      return DaemonProtocol.newErrorResponse(String.valueOf(e));
+    }
+  }
+
+  private void stopIfIdle() {
+    final var idle = Duration.ofNanos(System.nanoTime() - lastRequestNanos);
+    if (activeRequests.get() == 0 && idle.compareTo(idleTimeout) >= 0) {
+      log.info("Image build daemon has been idle for: {}, stopping.", idle);
+      stop();
+    }
+  }
+
+  /** Stops accepting requests. Requests being served are completed before daemon is closed. */
+  private void stop() {
+    try {
+      serverChannel.close();
+    } catch (IOException e) {
+      log.warn("Failed to close socket of image build daemon.", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    stop();
+    idleWatcher.shutdownNow();
+    connectionExecutor.shutdown();
+    try {
+      if (!connectionExecutor.awaitTermination(idleTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        log.warn("Requests of image build daemon did not complete in time.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      imageBuildService.close();
+    } catch (RuntimeException e) {
+      log.warn("Failed to release build tool, and docker of image build daemon.", e);
+    }
+    // the daemon is the only user of docker client of its JVM
+    DockerClientProvider.closeShared();
+    try {
+      Files.deleteIfExists(socketPath);
+    } catch (IOException e) {
+      log.warn("Failed to delete socket of image build daemon: {}", socketPath, e);
+    }
+    releaseLock(socketLock);
+    log.info("Image build daemon stopped.");
+  }
+
+  /**
+   * Takes the lock of supplied socket, without waiting for it. Directory of the socket is created
+   * before, and lock file is created, so that both are accessible only to the current user.
+   *
+   * @return Empty if another daemon holds the lock.
+   */
+  static Optional<FileLock> lockSocket(final Path socketPath) {
+    final Path lockFile = socketPath.resolveSibling(socketPath.getFileName() + ".lock");
+    try {
+      DaemonProtocol.createSocketDirectory(socketPath);
+      final var lockChannel =
+          FileChannel.open(
+              lockFile,
+              Set.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE),
+              DaemonProtocol.ownerOnlyFileAttributes(lockFile));
+      try {
+        final var lock = lockChannel.tryLock();
+        if (lock != null) {
+          return Optional.of(lock);
+        }
+      } catch (OverlappingFileLockException e) {
+        // held by a daemon of this JVM
+      }
+      lockChannel.close();
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new ImageBuildDaemonException(e);
+    }
+  }
+
+  private static void releaseLock(final FileLock lock) {
+    try {
+      lock.channel().close();
+    } catch (IOException e) {
+      log.warn("Failed to release lock of image build daemon socket.", e);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package me.msri.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.URISyntaxException;
+import java.net.URLClassLoader;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.annotation.processor.BuildImageProcessorOptions;
+import me.msri.annotation.processor.ImageBuildScheduler.ImageBuildReport;
+
+/**
+ * Client of {@link ImageBuildDaemon}. Daemon of a project is started on first use, and reused by
+ * all later requests with the same options.
+ */
+@Slf4j
+@UtilityClass
+public class ImageBuildDaemonClient {
+
+  private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration STARTUP_POLL_INTERVAL = Duration.ofMillis(100);
+  /** Time a daemon has to answer a request that builds nothing, e.g. ping. */
+  private static final Duration CONTROL_TIMEOUT = Duration.ofSeconds(10);
+
+  /**
+   * Submits images to be created to daemon of the project, and waits for all of them. Daemon is
+   * started if it is not running.
+   *
+   * @param options Options of the daemon, see {@link
+   *     me.msri.annotation.processor.BuildImageProcessorOptions}.
+   * @param imagesWithTags Key: Name of service, Value: {@link Set} of tags to be created.
+   * @throws ImageBuildDaemonUnavailableException If daemon could not be reached, or started, so
+   *     that it did not receive the request.
+   * @throws ImageBuildDaemonException If daemon failed to serve the request, or did not respond
+   *     in time, which is bounded by service timeout of supplied options.
+   */
+  public static ImageBuildReport submit(
+      final Path projectRoot,
+      final Map<String, String> options,
+      final Map<String, Set<String>> imagesWithTags) {
+    final var socketPath = DaemonProtocol.getSocketPath(projectRoot, options);
+    final var responseTimeout =
+        getResponseTimeout(BuildImageProcessorOptions.from(options), imagesWithTags.size());
+    try (final var channel = connectOrStart(projectRoot, options, socketPath)) {
+      try {
+        DaemonProtocol.write(channel, DaemonProtocol.newBuildRequest(imagesWithTags));
+      } catch (IOException e) {
+        throw new ImageBuildDaemonUnavailableException(e);
+      }
+      return DaemonProtocol.getReport(DaemonProtocol.read(channel, responseTimeout));
+    } catch (IOException e) {
+      throw new ImageBuildDaemonException(e);
+    }
+  }
+
+  /**
+   * Daemon builds services in batches of {@link BuildImageProcessorOptions#parallelism()}, each
+   * bounded by {@link BuildImageProcessorOptions#serviceTimeout()}, after projects shared by the
+   * services are built, which is given one more service timeout.
+   */
+  private static Duration getResponseTimeout(
+      final BuildImageProcessorOptions options, final int serviceCount) {
+    final int batches = (serviceCount + options.parallelism() - 1) / options.parallelism();
+    return options.serviceTimeout().multipliedBy(batches + 1L);
+  }
+
+  /**
+   * Stops daemon of the project, that was started with supplied options.
+   *
+   * @return False if daemon was not running.
+   */
+  public static boolean stop(final Path projectRoot, final Map<String, String> options) {
+    final var socketPath = DaemonProtocol.getSocketPath(projectRoot, options);
+    final var connection = connect(socketPath);
+    if (connection.isEmpty()) {
+      return false;
+    }
+    try (final var channel = connection.get()) {
+      DaemonProtocol.write(channel, DaemonProtocol.newRequest(DaemonProtocol.STOP));
+      DaemonProtocol.throwIfError(DaemonProtocol.read(channel, CONTROL_TIMEOUT));
+      return true;
+    } catch (IOException e) {
+      throw new ImageBuildDaemonException(e);
+    }
+  }
+
+  /** Returns true if a daemon responds on supplied socket. */
+  static boolean isRunning(final Path socketPath) {
+    final var connection = connect(socketPath);
+    if (connection.isEmpty()) {
+      return false;
+    }
+    try (final var channel = connection.get()) {
+      DaemonProtocol.write(channel, DaemonProtocol.newRequest(DaemonProtocol.PING));
+      DaemonProtocol.throwIfError(DaemonProtocol.read(channel, CONTROL_TIMEOUT));
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static SocketChannel connectOrStart(
+      final Path projectRoot, final Map<String, String> options, final Path socketPath) {
+    final var connection = connect(socketPath);
+    if (connection.isPresent()) {
+      return connection.get();
+    }
+
+    startDaemon(projectRoot, options);
+    final long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+    while (System.nanoTime() < deadline) {
+      try {
+        Thread.sleep(STARTUP_POLL_INTERVAL.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ImageBuildDaemonException(e);
+      }
+      final var startedConnection = connect(socketPath);
+      if (startedConnection.isPresent()) {
+        return startedConnection.get();
+      }
+    }
+    throw new ImageBuildDaemonUnavailableException(
+        "Daemon did not start within " + STARTUP_TIMEOUT + ", see: " + getLogFile(projectRoot));
+  }
+
+  private static Optional<SocketChannel> connect(final Path socketPath) {
+    if (!Files.exists(socketPath)) {
+      return Optional.empty();
+    }
+    try {
+      final var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+      try {
+        channel.connect(UnixDomainSocketAddress.of(socketPath));
+        return Optional.of(channel);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    } catch (IOException e) {
+      // socket is left behind by a daemon that did not stop cleanly
+      log.debug("Could not connect to image build daemon on socket: {}", socketPath, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Starts daemon as a separate process, with the same classpath that this class is loaded from,
+   * so that it outlives the compilation that started it. Its output is written to a log file in
+   * build directory of the project.
+   */
+  private static void startDaemon(final Path projectRoot, final Map<String, String> options) {
+    final List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(getClassPath());
+    command.add(ImageBuildDaemon.class.getName());
+    command.add(projectRoot.toAbsolutePath().normalize().toString());
+    options.forEach((key, value) -> command.add(key + "=" + value));
+
+    final var logFile = getLogFile(projectRoot);
+    try {
+      Files.createDirectories(logFile.getParent());
+      new ProcessBuilder(command)
+          .directory(projectRoot.toFile())
+          .redirectErrorStream(true)
+          .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile.toFile()))
+          .redirectInput(ProcessBuilder.Redirect.from(new File(nullDevice())))
+          .start();
+      log.info("Started image build daemon, its log: {}", logFile);
+    } catch (IOException e) {
+      throw new ImageBuildDaemonUnavailableException(e);
+    }
+  }
+
+  /**
+   * Classpath of the compiler is not that of annotation processors, so classpath is collected from
+   * class loaders of this class, followed by classpath of the current JVM.
+   */
+  private static String getClassPath() {
+    final Set<String> entries = new LinkedHashSet<>();
+    for (var loader = ImageBuildDaemonClient.class.getClassLoader();
+        loader != null;
+        loader = loader.getParent()) {
+      if (loader instanceof URLClassLoader urlClassLoader) {
+        for (final var url : urlClassLoader.getURLs()) {
+          try {
+            entries.add(Path.of(url.toURI()).toString());
+          } catch (URISyntaxException | IllegalArgumentException e) {
+            log.debug("Skipping classpath entry: {}", url, e);
+          }
+        }
+      }
+    }
+    for (final String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      if (!entry.isBlank()) {
+        entries.add(entry);
+      }
+    }
+    return String.join(File.pathSeparator, entries);
+  }
+
+  private static Path getLogFile(final Path projectRoot) {
+    return projectRoot.resolve(Path.of("build", "msri", "daemon.log"));
+  }
+
+  private static String nullDevice() {
+    return System.getProperty("os.name").toLowerCase().contains("win") ? "NUL" : "/dev/null";
+  }
+}
@@ -0,0 +1,26 @@
+package me.msri.daemon;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+@AllArgsConstructor
+@Slf4j
+public class ImageBuildDaemonException extends RuntimeException {
+  final Exception cause;
+  final String desc;
+
+  public ImageBuildDaemonException(final Exception cause) {
+    this(cause, null);
+    log.error("Image build daemon failed.", cause);
+  }
+
+  public ImageBuildDaemonException(final String desc) {
+    this(null, desc);
+    log.error("Image build daemon failed for reason: {}", desc);
+  }
+
+  @Override
+  public String getMessage() {
+    return desc != null ? desc : String.valueOf(cause);
+  }
+}
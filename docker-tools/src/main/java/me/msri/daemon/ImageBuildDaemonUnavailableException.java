@@ -0,0 +1,22 @@
+package me.msri.daemon;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thrown if image build daemon could not be reached, or started, so that a request never reached
+ * it, and may be served by other means, e.g. in-process. Failures of requests that reached the
+ * daemon are thrown as {@link ImageBuildDaemonException}.
+ */
+@Slf4j
+public class ImageBuildDaemonUnavailableException extends ImageBuildDaemonException {
+
+  public ImageBuildDaemonUnavailableException(final Exception cause) {
+    super(cause, null);
+    log.warn("Image build daemon is not reachable.", cause);
+  }
+
+  public ImageBuildDaemonUnavailableException(final String desc) {
+    super(null, desc);
+    log.warn("Image build daemon is not reachable for reason: {}", desc);
+  }
+}
@@ -0,0 +1,225 @@
+package me.msri.docker;
+
+import com.github.dockerjava.api.command.BuildImageResultCallback;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.trace.Phase;
+import me.msri.trace.Span;
+import me.msri.trace.Tracer;
+
+/**
+ * Asynchronous companion of {@link DockerRunner}. Every operation returns a {@link
+ * CompletableFuture} right away, so that callers can compose multi-step flows, e.g. build, then
+ * tag, then remove, without parking their own threads.
+ *
+ * <p>Image creation does not occupy any thread while docker builds the image, its future is
+ * completed by the callback of docker client. Other operations are blocking calls of docker client,
+ * and run on a dedicated executor, which uses virtual threads where the runtime supports them.
+ *
+ * <p>Every operation takes a timeout, after which its future completes with {@link
+ * java.util.concurrent.TimeoutException}. When a future is cancelled, or times out, the running
+ * operation is interrupted, or its response stream is closed in case of image creation.
+ */
+@Slf4j
+public class AsyncDockerRunner implements AutoCloseable {
+
+  private final DockerRunner dockerRunner;
+  private final ExecutorService executor;
+
+  public AsyncDockerRunner(final DockerRunner dockerRunner) {
+    this.dockerRunner = dockerRunner;
+    this.executor = DockerExecutors.newExecutor("async-docker-runner");
+  }
+
+  /**
+   * @see DockerRunner#getAllDockerImageWithTags()
+   */
+  public CompletableFuture<Map<String, Map<String, Set<String>>>> getAllDockerImageWithTags(
+      final Duration timeout) {
+    return supplyAsync(dockerRunner::getAllDockerImageWithTags, timeout);
+  }
+
+  /**
+   * @see DockerRunner#createTagForImage(String, String, String)
+   */
+  public CompletableFuture<Void> createTagForImage(
+      final String id, final String imageName, final String targetTag, final Duration timeout) {
+    return supplyAsync(
+        () -> {
+          dockerRunner.createTagForImage(id, imageName, targetTag);
+          return null;
+        },
+        timeout);
+  }
+
+  /**
+   * @see DockerRunner#getImageLabels(String)
+   */
+  public CompletableFuture<Map<String, String>> getImageLabels(
+      final String id, final Duration timeout) {
+    return supplyAsync(() -> dockerRunner.getImageLabels(id), timeout);
+  }
+
+  /**
+   * @see DockerRunner#deleteImageAndTag(String, String)
+   */
+  public CompletableFuture<Void> deleteImageAndTag(
+      final String imageName, final String imageTag, final Duration timeout) {
+    return supplyAsync(
+        () -> {
+          dockerRunner.deleteImageAndTag(imageName, imageTag);
+          return null;
+        },
+        timeout);
+  }
+
+  /**
+   * @see DockerRunner#startContainer(String, Map)
+   */
+  public CompletableFuture<String> startContainer(
+      final String repoTag, final Map<String, String> labels, final Duration timeout) {
+    return supplyAsync(() -> dockerRunner.startContainer(repoTag, labels), timeout);
+  }
+
+  /**
+   * @see DockerRunner#restartContainer(String, Duration)
+   */
+  public CompletableFuture<Void> restartContainer(
+      final String containerId, final Duration stopTimeout, final Duration timeout) {
+    return supplyAsync(
+        () -> {
+          dockerRunner.restartContainer(containerId, stopTimeout);
+          return null;
+        },
+        timeout);
+  }
+
+  /**
+   * @see DockerRunner#removeContainer(String)
+   */
+  public CompletableFuture<Void> removeContainer(
+      final String containerId, final Duration timeout) {
+    return supplyAsync(
+        () -> {
+          dockerRunner.removeContainer(containerId);
+          return null;
+        },
+        timeout);
+  }
+
+  /**
+   * Creates docker image from given build context, tags it with supplied tags, and adds supplied
+   * labels to it. Only the content of the context is sent to docker daemon.
+   *
+   * @return A {@link CompletableFuture} that is completed with ID of newly created image.
+   * @see DockerRunner#createNewImage(String, Set, BuildContext, Map)
+   */
+  public CompletableFuture<String> createNewImage(
+      final String imageName,
+      final Set<String> tags,
+      final BuildContext buildContext,
+      final Map<String, String> labels,
+      final Duration timeout) {
+    final long start = System.currentTimeMillis();
+    final var result = new CompletableFuture<String>();
+    // build completes on a thread of docker client, so the span is never current
+    final var span = Tracer.startDetached(Phase.DOCKER_BUILD).with(Span.IMAGE, imageName);
+    final var tarInputStream = DockerRunner.openBuildContext(buildContext);
+    final var callback =
+        new BuildImageResultCallback() {
+          @Override
+          public void onComplete() {
+            super.onComplete();
+            try {
+              // build is complete, so this does not wait, and fails if docker reported an error
+              final String imageId = awaitImageId();
+              DockerRunner.logImageCreated(imageName, tags, imageId, start);
+              result.complete(imageId);
+            } catch (RuntimeException e) {
+              result.completeExceptionally(e);
+            }
+          }
+
+          @Override
+          public void onError(final Throwable throwable) {
+            super.onError(throwable);
+            result.completeExceptionally(throwable);
+          }
+        };
+
+    result
+        .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (imageId, failure) -> {
+              if (failure != null) {
+                span.fail(failure);
+                closeQuietly(callback);
+              }
+              // writer of the context stops once its stream is closed, if docker did not read it
+              closeQuietly(tarInputStream);
+              span.close();
+            });
+    try {
+      dockerRunner.newBuildImageCmd(imageName, tags, tarInputStream, labels).exec(callback);
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /** Stops accepting new operations, and interrupts the ones that are still running. */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private <T> CompletableFuture<T> supplyAsync(final Supplier<T> operation, final Duration timeout) {
+    final var result = new CompletableFuture<T>();
+    // spans of the operation are part of the span that submitted it
+    final var tracedOperation = Tracer.propagate(operation);
+    final Future<?> task =
+        executor.submit(
+            () -> {
+              try {
+                result.complete(tracedOperation.get());
+              } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+              }
+            });
+    result
+        .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (value, failure) -> {
+              // cancelled, or timed out before the operation finished
+              if (failure != null && !task.isDone()) {
+                task.cancel(true);
+              }
+            });
+    return result;
+  }
+
+  private static void closeQuietly(final BuildImageResultCallback callback) {
+    try {
+      callback.close();
+    } catch (IOException e) {
+      log.warn("Failed to close response stream of image build.", e);
+    }
+  }
+
+  private static void closeQuietly(final InputStream tarInputStream) {
+    try {
+      tarInputStream.close();
+    } catch (IOException e) {
+      log.warn("Failed to close build context of image build.", e);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package me.msri.docker;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.docker.exception.DockerRunnerException;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * A docker build context that contains only the files that are added to it, instead of a whole
+ * directory. It is streamed to docker daemon as a tar archive, which is written while it is read,
+ * so neither the archive nor the files in it are written to disk.
+ *
+ * <p>All entries carry the same modification time, and are written in the order they are added,
+ * so that the same files always produce the same archive.
+ */
+@Slf4j
+public class BuildContext {
+
+  private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+  private static final Date ENTRY_MODIFICATION_TIME = new Date(0);
+
+  private final List<Entry> entries = new ArrayList<>();
+  private final List<Closeable> resources = new ArrayList<>();
+
+  /** Adds content of a file to the context. */
+  public BuildContext addFile(final String name, final Path file) {
+    try {
+      entries.add(new Entry(name, Files.size(file), () -> Files.newInputStream(file)));
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+    return this;
+  }
+
+  /** Adds a text to the context, e.g. a dockerfile. */
+  public BuildContext addContent(final String name, final String content) {
+    final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    entries.add(new Entry(name, bytes.length, () -> new ByteArrayInputStream(bytes)));
+    return this;
+  }
+
+  /**
+   * Adds an entry whose content is read only while the context is streamed.
+   *
+   * @param size Exact number of bytes that supplied content contains.
+   */
+  public BuildContext addEntry(final String name, final long size, final ContentSource content) {
+    entries.add(new Entry(name, size, content));
+    return this;
+  }
+
+  /**
+   * Adds a resource that entries read their content from, e.g. an archive. It is closed once the
+   * context is written.
+   */
+  public BuildContext addResource(final Closeable resource) {
+    resources.add(resource);
+    return this;
+  }
+
+  /**
+   * Provides the context as a tar archive. It is written by a background thread while it is read,
+   * and the thread ends once the whole archive is written. If an entry can not be read, then the
+   * returned stream fails when it is read further.
+   */
+  public InputStream open() {
+    final var tarInputStream = new PipedInputStream(PIPE_BUFFER_SIZE);
+    final PipedOutputStream tarOutputStream;
+    try {
+      tarOutputStream = new PipedOutputStream(tarInputStream);
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+
+    final var writer = new Thread(() -> write(tarOutputStream), "docker-build-context-writer");
+    writer.setDaemon(true);
+    writer.start();
+    return tarInputStream;
+  }
+
+  private void write(final PipedOutputStream outputStream) {
+    final long start = System.currentTimeMillis();
+    long contextSize = 0;
+    final var tar = new TarArchiveOutputStream(outputStream);
+    try {
+      tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+      for (final var entry : entries) {
+        final var tarEntry = new TarArchiveEntry(entry.name());
+        tarEntry.setSize(entry.size());
+        tarEntry.setModTime(ENTRY_MODIFICATION_TIME);
+        tar.putArchiveEntry(tarEntry);
+        try (final var content = entry.content().open()) {
+          content.transferTo(tar);
+        }
+        tar.closeArchiveEntry();
+        contextSize += entry.size();
+      }
+      tar.close();
+    } catch (IOException e) {
+      // pipe is left open, so that reader fails once this thread ends, instead of seeing an end
+      log.error("Failed to write docker build context.", e);
+      return;
+    } finally {
+      closeResources();
+    }
+    log.debug(
+        "Docker build context of {} entries, and {} bytes written in time: {}ms",
+        entries.size(),
+        contextSize,
+        System.currentTimeMillis() - start);
+  }
+
+  private void closeResources() {
+    for (final var resource : resources) {
+      try {
+        resource.close();
+      } catch (IOException e) {
+        log.warn("Failed to close resource of docker build context.", e);
+      }
+    }
+  }
+
+  /** Provides content of an entry, once the entry is written to the context. */
+  @FunctionalInterface
+  public interface ContentSource {
+    InputStream open() throws IOException;
+  }
+
+  private record Entry(String name, long size, ContentSource content) {}
+}
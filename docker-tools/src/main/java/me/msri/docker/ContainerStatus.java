@@ -0,0 +1,16 @@
+package me.msri.docker;
+
+import java.util.Map;
+
+/**
+ * State of a container on the local docker daemon.
+ *
+ * @param id Full id of the container.
+ * @param running Whether the container is running.
+ * @param health Health status reported by health check of the image, e.g. <code>starting</code>
+ *     or <code>healthy</code>, null if the image does not declare a health check.
+ * @param publishedPorts Key: Exposed TCP port of the container, Value: Port of the host that it is
+ *     published to.
+ */
+public record ContainerStatus(
+    String id, boolean running, String health, Map<Integer, Integer> publishedPorts) {}
@@ -0,0 +1,13 @@
+package me.msri.docker;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * A container on the local docker daemon, as it is listed.
+ *
+ * @param id Full id of the container.
+ * @param labels All labels of the container.
+ * @param created Time the container was created at.
+ */
+public record ContainerSummary(String id, Map<String, String> labels, Instant created) {}
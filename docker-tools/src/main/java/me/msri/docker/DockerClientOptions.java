@@ -0,0 +1,22 @@
+package me.msri.docker;
+
+import java.time.Duration;
+
+/**
+ * Options of the connections that {@link DockerClientProvider} opens to docker daemon.
+ *
+ * @param maxConnections Maximum number of connections open to docker daemon at the same time.
+ *     Requests beyond it wait for a connection to be released.
+ * @param connectTimeout Maximum time allowed to open a connection.
+ * @param responseTimeout Maximum time allowed between two reads of a response, zero for no limit,
+ *     as docker streams builds, and events without any bound.
+ * @param keepAlive Time that an idle connection is kept open for, to be re-used by a later request.
+ */
+public record DockerClientOptions(
+    int maxConnections, Duration connectTimeout, Duration responseTimeout, Duration keepAlive) {
+
+  /** Options used, when none are supplied, e.g. by container pool of tests. */
+  public static final DockerClientOptions DEFAULT =
+      new DockerClientOptions(
+          32, Duration.ofSeconds(30), Duration.ZERO, Duration.ofSeconds(60));
+}
@@ -2,30 +2,68 @@ package me.msri.docker;
 
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
-import com.github.dockerjava.core.DockerClientBuilder;
+import com.github.dockerjava.core.DockerClientImpl;
+import java.io.IOException;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Provides the docker client shared by the JVM, whose requests are sent over a {@link
+ * PooledDockerHttpClient pool of connections}, so that builds, and tags of services running in
+ * parallel do not wait for each other's connection.
+ */
 @Slf4j
 public class DockerClientProvider {
   private static DockerClientProvider dockerClientProvider;
 
   private final DockerClient dockerClient;
+  private final PooledDockerHttpClient httpClient;
 
-  private DockerClientProvider() {
-    dockerClient =
-        DockerClientBuilder.getInstance(
-                DefaultDockerClientConfig.createDefaultConfigBuilder().build())
-            .build();
+  private DockerClientProvider(final DockerClientOptions options) {
+    final var config = DefaultDockerClientConfig.createDefaultConfigBuilder().build();
+    httpClient = new PooledDockerHttpClient(config.getDockerHost(), config.getSSLConfig(), options);
+    dockerClient = DockerClientImpl.getInstance(config, httpClient);
+    log.debug("Docker client created for: {}, with: {}", config.getDockerHost(), options);
   }
 
+  /** @see #newInstance(DockerClientOptions) */
   public static DockerClientProvider newInstance() {
+    return newInstance(DockerClientOptions.DEFAULT);
+  }
+
+  /**
+   * Provides the shared provider, that is created with supplied options on first use. Options
+   * supplied later are ignored, as connections of the pool are shared by all users.
+   */
+  public static synchronized DockerClientProvider newInstance(final DockerClientOptions options) {
     if (dockerClientProvider == null) {
-      dockerClientProvider = new DockerClientProvider();
+      dockerClientProvider = new DockerClientProvider(options);
     }
     return dockerClientProvider;
   }
 
+  /**
+   * Closes the shared provider, along with its pool of connections to docker daemon, so that the
+   * provider is created anew on next use. As the provider is shared by the JVM, only its owner
+   * should close it, e.g. the image build daemon once it stops.
+   */
+  public static synchronized void closeShared() {
+    if (dockerClientProvider == null) {
+      return;
+    }
+    try {
+      dockerClientProvider.httpClient.close();
+    } catch (IOException e) {
+      log.warn("Failed to close connections to docker daemon.", e);
+    }
+    dockerClientProvider = null;
+  }
+
   public DockerClient getDockerClient() {
     return dockerClient;
   }
+
+  /** Provides a snapshot of the pool of connections to docker daemon. */
+  public DockerConnectionPoolMetrics getConnectionPoolMetrics() {
+    return httpClient.getMetrics();
+  }
 }
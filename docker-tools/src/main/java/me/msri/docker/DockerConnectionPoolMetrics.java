@@ -0,0 +1,26 @@
+package me.msri.docker;
+
+/**
+ * Snapshot of the pool of connections to docker daemon.
+ *
+ * @param leased Connections that are in use by a request, e.g. a running docker build.
+ * @param pending Requests that wait for a connection, as all connections are leased.
+ * @param available Idle connections, that the next request re-uses.
+ * @param max Maximum number of connections.
+ * @param requests Requests sent since the pool was created.
+ * @param connectionsOpened Connections opened since the pool was created.
+ */
+public record DockerConnectionPoolMetrics(
+    int leased, int pending, int available, int max, long requests, long connectionsOpened) {
+
+  /** Fraction of requests that were sent on a connection opened by an earlier request. */
+  public double reuseRate() {
+    return requests == 0 ? 0 : Math.max(0, requests - connectionsOpened) / (double) requests;
+  }
+
+  @Override
+  public String toString() {
+    return "leased: %d, pending: %d, available: %d, max: %d, requests: %d, reuse rate: %.1f%%"
+        .formatted(leased, pending, available, max, requests, reuseRate() * 100);
+  }
+}
@@ -0,0 +1,32 @@
+package me.msri.docker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.experimental.UtilityClass;
+
+/** Provides executors for blocking calls to docker daemon. */
+@UtilityClass
+class DockerExecutors {
+
+  /**
+   * Provides a virtual thread per task executor on runtimes that support it. It is looked up
+   * reflectively, as the module is compiled for older runtimes as well. Otherwise, it provides a
+   * cached pool of daemon threads, named with supplied prefix.
+   */
+  ExecutorService newExecutor(final String threadNamePrefix) {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      final var threadCount = new AtomicInteger();
+      return Executors.newCachedThreadPool(
+          runnable -> {
+            final var thread =
+                new Thread(runnable, threadNamePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    }
+  }
+}
@@ -5,24 +5,50 @@ import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toUnmodifiableSet;
 
 import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.BuildImageCmd;
 import com.github.dockerjava.api.command.BuildImageResultCallback;
+import com.github.dockerjava.api.command.PullImageResultCallback;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventType;
+import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.InternetProtocol;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
+import me.msri.docker.exception.DockerRunnerException;
+import me.msri.trace.Phase;
+import me.msri.trace.Span;
+import me.msri.trace.Tracer;
 
 @Slf4j
-public class DockerRunner {
-
-  private static final Object LOCK = new Object();
+public class DockerRunner implements AutoCloseable {
 
   private final DockerClient dockerClient;
+  private final ExecutorService tagExecutor;
 
   public DockerRunner(final DockerClientProvider dockerClientProvider) {
     this.dockerClient = dockerClientProvider.getDockerClient();
+    this.tagExecutor = DockerExecutors.newExecutor("docker-tag");
   }
 
   /**
@@ -36,43 +62,157 @@ public class DockerRunner {
    * </pre>
    */
   public Map<String, Map<String, Set<String>>> getAllDockerImageWithTags() {
-    synchronized (LOCK) {
-      record ImageIdNameTag(String name, String id, String tag){}
-      final long start = System.currentTimeMillis();
-      final var imageNameIdTags = dockerClient
-          .listImagesCmd()
-          .exec()
-          .stream()
-          .filter(image -> image.getRepoTags() != null && image.getRepoTags().length != 0)
-          .flatMap(image -> {
-            final var repoTags = image.getRepoTags();
-
-            final String name = repoTags[0].split(":")[0];
-            if (name.contains("none")) {
-              return Stream.empty();
-            }
-            return Arrays.stream(repoTags)
-                    .map(tag -> tag.split(":"))
-                    .map(it -> it[1])
-                    .map(tag -> new ImageIdNameTag(name, image.getId(), tag));
-                   })
-              .collect(groupingBy(ImageIdNameTag::name, groupingBy(ImageIdNameTag::id, mapping(
-                  ImageIdNameTag::tag, toUnmodifiableSet()))));
-
-      log.info("Total time to get list of all images: {}ms", (System.currentTimeMillis() - start));
-      return imageNameIdTags.isEmpty() ? Collections.emptyMap() : imageNameIdTags;
+    final long start = System.currentTimeMillis();
+    final var imageNameIdTags =
+        Tracer.start(Phase.IMAGE_LIST)
+            .call(() -> groupTagsByNameAndId(dockerClient.listImagesCmd().exec()));
+
+    log.info("Total time to get list of all images: {}ms", (System.currentTimeMillis() - start));
+    return imageNameIdTags.isEmpty() ? Collections.emptyMap() : imageNameIdTags;
+  }
+
+  /**
+   * Groups tags of images by name, and id of the image. Images without a tag, or whose name
+   * contains <code>none</code> are left out.
+   */
+  static Map<String, Map<String, Set<String>>> groupTagsByNameAndId(final List<Image> images) {
+    record ImageIdNameTag(String name, String id, String tag){}
+    return images
+        .stream()
+        .filter(image -> image.getRepoTags() != null && image.getRepoTags().length != 0)
+        .flatMap(image -> {
+          final var repoTags = image.getRepoTags();
+
+          final String name = repoTags[0].split(":")[0];
+          if (name.contains("none")) {
+            return Stream.empty();
+          }
+          return Arrays.stream(repoTags)
+                  .map(tag -> tag.split(":"))
+                  .map(it -> it[1])
+                  .map(tag -> new ImageIdNameTag(name, image.getId(), tag));
+                 })
+            .collect(groupingBy(ImageIdNameTag::name, groupingBy(ImageIdNameTag::id, mapping(
+                ImageIdNameTag::tag, toUnmodifiableSet()))));
+  }
+
+  /**
+   * Lists all images that have at least one tag, along with all of their tags. Unlike {@link
+   * #getAllDockerImageWithTags()}, every reference of an image is kept as it is.
+   */
+  public List<LocalImage> listImages() {
+    final long start = System.currentTimeMillis();
+    final var images = Tracer.start(Phase.IMAGE_LIST)
+        .call(() -> dockerClient.listImagesCmd().exec())
+        .stream()
+        .filter(image -> image.getRepoTags() != null && image.getRepoTags().length != 0)
+        .map(image -> new LocalImage(
+            image.getId(),
+            Set.of(image.getRepoTags()),
+            image.getSize() == null ? 0 : image.getSize()))
+        .toList();
+    log.info("Total time to get list of all images: {}ms", (System.currentTimeMillis() - start));
+    return images;
+  }
+
+  /**
+   * Provides an image by its id, or by one of its references.
+   *
+   * @return Image with all its tags, empty if no such image exists.
+   */
+  public Optional<LocalImage> findImage(final String idOrRepoTag) {
+    try {
+      final var image = dockerClient.inspectImageCmd(idOrRepoTag).exec();
+      return Optional.of(
+          new LocalImage(
+              image.getId(),
+              image.getRepoTags() == null ? Set.of() : Set.copyOf(image.getRepoTags()),
+              image.getSize() == null ? 0 : image.getSize()));
+    } catch (NotFoundException e) {
+      return Optional.empty();
     }
   }
 
+  /**
+   * Subscribes to events of all images on docker daemon, e.g. tag, untag, pull or delete, including
+   * those caused by other clients.
+   *
+   * @param imageConsumer Receives id, or reference of the image that was changed.
+   * @return Subscription, that stops receiving events once closed.
+   */
+  public Closeable subscribeToImageEvents(final Consumer<String> imageConsumer) {
+    return dockerClient
+        .eventsCmd()
+        .withEventTypeFilter(EventType.IMAGE)
+        .exec(
+            new ResultCallback.Adapter<Event>() {
+              @Override
+              public void onNext(final Event event) {
+                final String image =
+                    event.getActor() != null ? event.getActor().getId() : event.getId();
+                if (image != null) {
+                  imageConsumer.accept(image);
+                }
+              }
+            });
+  }
+
   /**
    * Create a new tag for existing docker image.
    *
    * @param id Identifier if existing image.
-   * @param repoTag image_repo/image_name:image_tag for existing image.
+   * @param imageName image_repo/image_name of the new tag, without any tag.
    * @param targetTag target tag.
    */
-  public void createTagForImage(final String id, final String repoTag, final String targetTag) {
-    dockerClient.tagImageCmd(id, repoTag, targetTag).exec();
+  public void createTagForImage(final String id, final String imageName, final String targetTag) {
+    dockerClient.tagImageCmd(id, imageName, targetTag).exec();
+  }
+
+  /**
+   * Creates several new tags for an existing docker image. Tags are independent of each other, so
+   * they are created concurrently, and this returns once all of them are created.
+   *
+   * @param id Identifier of existing image.
+   * @param imageName image_repo/image_name of the new tags, without any tag.
+   * @param targetTags target tags.
+   */
+  public void createTagsForImage(
+      final String id, final String imageName, final Set<String> targetTags) {
+    final long start = System.currentTimeMillis();
+    Tracer.start(Phase.TAG)
+        .with(Span.IMAGE, imageName)
+        .with(Span.TAGS, targetTags)
+        .run(() -> awaitTagCreations(id, imageName, targetTags));
+
+    log.info("""
+            New tags created for existing image -
+            Name: {}
+            Id: {}
+            Tags: {}
+            Total time of creation: {}ms
+            """, imageName, id, targetTags, (System.currentTimeMillis() - start));
+  }
+
+  private void awaitTagCreations(
+      final String id, final String imageName, final Set<String> targetTags) {
+    final var tagCreations = targetTags.stream()
+        .map(tag -> CompletableFuture.runAsync(
+            () -> createTagForImage(id, imageName, tag), tagExecutor))
+        .toArray(CompletableFuture[]::new);
+
+    try {
+      CompletableFuture.allOf(tagCreations).get();
+    } catch (InterruptedException e) {
+      // tags that are not being created yet are skipped
+      Arrays.stream(tagCreations).forEach(tagCreation -> tagCreation.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new DockerRunnerException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new DockerRunnerException(e);
+    }
   }
 
   /**
@@ -80,26 +220,274 @@ public class DockerRunner {
    * @return ID of newly crated image.
    */
   public String createNewImage(final String imageName, final Set<String> tags, final File dockerfile) {
+    return createNewImage(imageName, tags, dockerfile, Map.of());
+  }
+
+  /**
+   * Creates docker image based on given dockerfile, tags it with supplied tags, and adds supplied
+   * labels to it.
+   * @return ID of newly crated image.
+   */
+  public String createNewImage(final String imageName, final Set<String> tags,
+      final File dockerfile, final Map<String, String> labels) {
     final long start = System.currentTimeMillis();
 
-    final var repoTags = tags.stream()
-        .map(tag -> imageName.concat(":").concat(tag)).collect(toUnmodifiableSet());
     final String imageId =
-        dockerClient
-            .buildImageCmd()
-            .withDockerfile(dockerfile)
-            .withTags(repoTags)
-            .exec(new BuildImageResultCallback())
-            .awaitImageId();
+        Tracer.start(Phase.DOCKER_BUILD)
+            .with(Span.IMAGE, imageName)
+            .call(
+                () ->
+                    newBuildImageCmd(imageName, tags, dockerfile, labels)
+                        .exec(new BuildImageResultCallback())
+                        .awaitImageId());
+
+    logImageCreated(imageName, tags, imageId, start);
+    return imageId;
+  }
 
+  /**
+   * Creates docker image from given build context, tags it with supplied tags, and adds supplied
+   * labels to it. Only the content of the context is sent to docker daemon.
+   * @return ID of newly crated image.
+   */
+  public String createNewImage(final String imageName, final Set<String> tags,
+      final BuildContext buildContext, final Map<String, String> labels) {
+    final long start = System.currentTimeMillis();
+
+    // upload of context is a part of the build, that ends once docker has read all of it
+    // span is closed only after a failure is recorded, which a resource of the try would not allow
+    final var span = Tracer.start(Phase.DOCKER_BUILD).with(Span.IMAGE, imageName);
+    try (final var tarInputStream = openBuildContext(buildContext)) {
+      final String imageId =
+          newBuildImageCmd(imageName, tags, tarInputStream, labels)
+              .exec(new BuildImageResultCallback())
+              .awaitImageId();
+
+      logImageCreated(imageName, tags, imageId, start);
+      return imageId;
+    } catch (IOException e) {
+      span.fail(e);
+      throw new DockerRunnerException(e);
+    } catch (RuntimeException e) {
+      span.fail(e);
+      throw e;
+    } finally {
+      span.close();
+    }
+  }
+
+  /** Prepares command to build an image, shared by blocking and asynchronous image creation. */
+  BuildImageCmd newBuildImageCmd(final String imageName, final Set<String> tags,
+      final File dockerfile, final Map<String, String> labels) {
+    return dockerClient
+        .buildImageCmd()
+        .withDockerfile(dockerfile)
+        .withTags(toRepoTags(imageName, tags))
+        .withLabels(labels);
+  }
+
+  /**
+   * Opens supplied build context as a tar archive, whose upload to docker daemon is traced till
+   * the archive is read to its end. Shared by blocking and asynchronous image creation.
+   */
+  static InputStream openBuildContext(final BuildContext buildContext) {
+    return new UploadTracingInputStream(
+        buildContext.open(), Tracer.startDetached(Phase.CONTEXT_UPLOAD));
+  }
+
+  /**
+   * Prepares command to build an image from a tar archive, that contains a dockerfile named
+   * <code>Dockerfile</code> at its root.
+   */
+  BuildImageCmd newBuildImageCmd(final String imageName, final Set<String> tags,
+      final InputStream tarInputStream, final Map<String, String> labels) {
+    return dockerClient
+        .buildImageCmd(tarInputStream)
+        .withTags(toRepoTags(imageName, tags))
+        .withLabels(labels);
+  }
+
+  static void logImageCreated(final String imageName, final Set<String> tags,
+      final String imageId, final long start) {
     log.info("""
             New image created -
             Tags: {}
             Id: {}
             Total time of creation: {}ms
-            """, repoTags, imageId, (System.currentTimeMillis() - start));
+            """, toRepoTags(imageName, tags), imageId, (System.currentTimeMillis() - start));
+  }
 
-    return imageId;
+  private static Set<String> toRepoTags(final String imageName, final Set<String> tags) {
+    return tags.stream()
+        .map(tag -> imageName.concat(":").concat(tag)).collect(toUnmodifiableSet());
+  }
+
+  /**
+   * Provides labels of an existing image.
+   *
+   * @param id Identifier of existing image.
+   * @return Labels of image, empty {@link Map} if image does not have any labels.
+   */
+  public Map<String, String> getImageLabels(final String id) {
+    final var config = dockerClient.inspectImageCmd(id).exec().getConfig();
+    return config == null || config.getLabels() == null ? Map.of() : config.getLabels();
+  }
+
+  /**
+   * Pulls an image from its registry.
+   *
+   * @param imageName image_repo/image_name of the image, without any tag.
+   */
+  public void pullImage(final String imageName, final String tag) {
+    final long start = System.currentTimeMillis();
+    try {
+      dockerClient
+          .pullImageCmd(imageName)
+          .withTag(tag)
+          .exec(new PullImageResultCallback())
+          .awaitCompletion();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DockerRunnerException(e);
+    }
+    log.info("""
+            Image pulled -
+            Name: {}
+            Tag: {}
+            Total time of pull: {}ms
+            """, imageName, tag, (System.currentTimeMillis() - start));
+  }
+
+  /**
+   * Exports an image as a tar archive, in the format of <code>docker save</code>.
+   *
+   * @param repoTag image_repo/image_name:image_tag of the image.
+   * @return Stream of the archive, that must be closed by the caller.
+   */
+  public InputStream saveImage(final String repoTag) {
+    return dockerClient.saveImageCmd(repoTag).exec();
+  }
+
+  /**
+   * Imports images from a tar archive, in the format of <code>docker save</code>. Tags of the
+   * images are taken from the archive.
+   */
+  public void loadImage(final InputStream imageArchive) {
+    final long start = System.currentTimeMillis();
+    Tracer.start(Phase.IMAGE_LOAD).run(() -> dockerClient.loadImageCmd(imageArchive).exec());
+    log.info("Image loaded in time: {}ms", (System.currentTimeMillis() - start));
+  }
+
+  /**
+   * Creates a container of an image, and starts it. All ports exposed by the image are published
+   * to random ports of the host.
+   *
+   * @param repoTag image_repo/image_name:image_tag of the image.
+   * @param labels Labels of the container, that identify it later, e.g. when it is removed.
+   * @return ID of the started container.
+   */
+  public String startContainer(final String repoTag, final Map<String, String> labels) {
+    final long start = System.currentTimeMillis();
+    final String containerId =
+        dockerClient
+            .createContainerCmd(repoTag)
+            .withLabels(labels)
+            .withHostConfig(HostConfig.newHostConfig().withPublishAllPorts(true))
+            .exec()
+            .getId();
+    try {
+      dockerClient.startContainerCmd(containerId).exec();
+    } catch (RuntimeException e) {
+      removeContainer(containerId);
+      throw e;
+    }
+    log.info("""
+            Container started -
+            Image: {}
+            Id: {}
+            Total time of start: {}ms
+            """, repoTag, containerId, (System.currentTimeMillis() - start));
+    return containerId;
+  }
+
+  /**
+   * Restarts a container, so that its processes start over, while its file system is kept.
+   *
+   * @param stopTimeout Time given to the container to stop, before it is killed.
+   */
+  public void restartContainer(final String containerId, final Duration stopTimeout) {
+    final long start = System.currentTimeMillis();
+    dockerClient
+        .restartContainerCmd(containerId)
+        .withtTimeout((int) Math.max(0, stopTimeout.toSeconds()))
+        .exec();
+    log.info("Container: {} restarted in time: {}ms", containerId,
+        (System.currentTimeMillis() - start));
+  }
+
+  /**
+   * Provides state of a container, including host ports that its exposed ports are published to.
+   *
+   * @return State of the container, empty if no such container exists.
+   */
+  public Optional<ContainerStatus> inspectContainer(final String containerId) {
+    try {
+      final var container = dockerClient.inspectContainerCmd(containerId).exec();
+      final var state = container.getState();
+      final var ports =
+          container.getNetworkSettings() == null ? null : container.getNetworkSettings().getPorts();
+      final Map<Integer, Integer> publishedPorts = new HashMap<>();
+      if (ports != null) {
+        ports.getBindings().forEach((exposedPort, bindings) -> {
+          if (exposedPort.getProtocol() == InternetProtocol.TCP
+              && bindings != null
+              && bindings.length > 0
+              && bindings[0].getHostPortSpec() != null) {
+            publishedPorts.put(
+                exposedPort.getPort(), Integer.parseInt(bindings[0].getHostPortSpec()));
+          }
+        });
+      }
+      return Optional.of(
+          new ContainerStatus(
+              container.getId(),
+              Boolean.TRUE.equals(state.getRunning()),
+              state.getHealth() == null ? null : state.getHealth().getStatus(),
+              Map.copyOf(publishedPorts)));
+    } catch (NotFoundException e) {
+      return Optional.empty();
+    }
+  }
+
+  /** Lists all containers, running or not, that have supplied label, with any value. */
+  public List<ContainerSummary> listContainers(final String label) {
+    return dockerClient
+        .listContainersCmd()
+        .withShowAll(true)
+        .withLabelFilter(List.of(label))
+        .exec()
+        .stream()
+        .map(
+            container ->
+                new ContainerSummary(
+                    container.getId(),
+                    container.getLabels() == null ? Map.of() : Map.copyOf(container.getLabels()),
+                    Instant.ofEpochSecond(
+                        container.getCreated() == null ? 0 : container.getCreated())))
+        .toList();
+  }
+
+  /**
+   * Removes a container, even if it is running, along with its anonymous volumes. A container
+   * that does not exist anymore is ignored.
+   */
+  public void removeContainer(final String containerId) {
+    try {
+      dockerClient.removeContainerCmd(containerId).withForce(true).withRemoveVolumes(true).exec();
+      log.info("Container removed: {}", containerId);
+    } catch (NotFoundException e) {
+      log.debug("Container already removed: {}", containerId);
+    }
   }
 
   /**
@@ -107,7 +495,10 @@ public class DockerRunner {
    */
   public void deleteImageAndTag(final String imageName, final String imageTag) {
     final long start = System.currentTimeMillis();
-    dockerClient.removeImageCmd(imageName.concat(":").concat(imageTag)).exec();
+    Tracer.start(Phase.DELETE)
+        .with(Span.IMAGE, imageName)
+        .with(Span.TAGS, imageTag)
+        .run(() -> dockerClient.removeImageCmd(imageName.concat(":").concat(imageTag)).exec());
     log.info("""
             Image deleted -
             Name: {}
@@ -115,4 +506,48 @@ public class DockerRunner {
             Total time of deletion: {}ms
             """, imageName, imageTag, (System.currentTimeMillis() - start));
   }
+
+  /**
+   * Stops threads that create tags, once tags that are being created are done. Docker client is
+   * shared by the JVM, so it is left open.
+   */
+  @Override
+  public void close() {
+    tagExecutor.shutdown();
+  }
+
+  /** Ends span of context upload once docker has read the whole context, or stopped reading it. */
+  private static final class UploadTracingInputStream extends FilterInputStream {
+
+    private final Span span;
+
+    private UploadTracingInputStream(final InputStream inputStream, final Span span) {
+      super(inputStream);
+      this.span = span;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int value = super.read();
+      if (value < 0) {
+        span.close();
+      }
+      return value;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+      final int count = super.read(bytes, offset, length);
+      if (count < 0) {
+        span.close();
+      }
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      span.close();
+      super.close();
+    }
+  }
 }
@@ -1,10 +1,12 @@
 package me.msri.docker;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 import me.msri.docker.exception.DockerRunnerException;
@@ -13,6 +15,7 @@ import me.msri.docker.exception.DockerRunnerException;
 @Slf4j
 public class DockerfileUtil {
   private static final String JAR_FILE_NAME_PLACEHOLDER_IN_TEMPLATE = "<<JARFILENAME>>";
+  private static final String DOCKERFILE_NAME = "Dockerfile";
 
   private static final String DOCKERFILE_TEMPLATE = """
       FROM eclipse-temurin:17.0.2_8-jdk-alpine as builder
@@ -29,28 +32,80 @@ public class DockerfileUtil {
       ENTRYPOINT ["java", "org.springframework.boot.loader.JarLauncher"]
       """;
 
+  private static final String LAYERS_PLACEHOLDER_IN_TEMPLATE = "<<LAYERS>>";
+
+  private static final String LAYERED_DOCKERFILE_TEMPLATE = """
+      FROM eclipse-temurin:17.0.2_8-jre-alpine
+      WORKDIR application
+      <<LAYERS>>
+      ENTRYPOINT ["java", "org.springframework.boot.loader.JarLauncher"]
+      """;
+
+  /**
+   * Provides the template that all docker files are created from, e.g. to detect changes in it.
+   */
+  public static String getDockerfileTemplate() {
+    return DOCKERFILE_TEMPLATE;
+  }
+
+  /**
+   * Provides the template of docker files for jars that are split into layers on the host, e.g. to
+   * detect changes in it.
+   */
+  public static String getLayeredDockerfileTemplate() {
+    return LAYERED_DOCKERFILE_TEMPLATE;
+  }
+
   /**
-   * Creates an input-stream representing a docker-file based on java 17 jre and
-   * spring boot layered archive.
+   * Creates a build context with a docker-file based on java 17 jre and spring boot layered
+   * archive, and the spring boot fat jar. Other files next to the jar, e.g. older jars, are not
+   * sent to docker daemon.
    */
-  public static File createDockerFileFromTemplate(final String jarFilePath, final String jarName) {
+  public static BuildContext createBuildContextFromTemplate(
+      final String jarFilePath, final String jarName) {
     final String dockerfileAsString = DOCKERFILE_TEMPLATE.replace(JAR_FILE_NAME_PLACEHOLDER_IN_TEMPLATE, jarName);
 
     if(log.isDebugEnabled()) {
       log.debug("Dockerfile: {}", dockerfileAsString);
     }
 
+    return new BuildContext()
+        .addContent(DOCKERFILE_NAME, dockerfileAsString)
+        .addFile(jarName, Path.of(jarFilePath, jarName));
+  }
+
+  /**
+   * Creates a build context with a single stage docker-file based on java 17 jre, and content of
+   * spring boot fat jar split into its layers. Every layer is a directory of the context, and is
+   * copied in its own docker layer, so that dependency layers stay cached as long as dependencies
+   * do not change. Jar is not extracted to disk, its entries are streamed into the context.
+   */
+  public static BuildContext createLayeredBuildContextFromTemplate(
+      final String jarFilePath, final String jarName) {
+    final ZipFile jar;
+    final Map<String, List<ZipEntry>> layers;
     try {
-      // creates a temp file at same location where spring boot fat jar is created
-      final var dockerfile = Files.createTempFile(Path.of(jarFilePath), "Dockerfile", "").toFile();
-      dockerfile.deleteOnExit();
-
-      try(final var fileWriter = new FileWriter(dockerfile)){
-        fileWriter.write(dockerfileAsString);
-        return dockerfile;
-      }
+      jar = new ZipFile(Path.of(jarFilePath, jarName).toFile());
+      layers = SpringBootJarLayers.read(jar);
     } catch (IOException e) {
       throw new DockerRunnerException(e);
     }
+
+    final String copyLayers = layers.keySet().stream()
+        .map(layer -> "COPY " + layer + "/ ./")
+        .collect(Collectors.joining("\n"));
+    final String dockerfileAsString =
+        LAYERED_DOCKERFILE_TEMPLATE.replace(LAYERS_PLACEHOLDER_IN_TEMPLATE, copyLayers);
+
+    if(log.isDebugEnabled()) {
+      log.debug("Dockerfile: {}", dockerfileAsString);
+    }
+
+    final var buildContext = new BuildContext()
+        .addContent(DOCKERFILE_NAME, dockerfileAsString)
+        .addResource(jar);
+    layers.forEach((layer, entries) -> entries.forEach(entry -> buildContext.addEntry(
+        layer + "/" + entry.getName(), entry.getSize(), () -> jar.getInputStream(entry))));
+    return buildContext;
   }
 }
@@ -0,0 +1,201 @@
+package me.msri.docker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An index of images on the local docker daemon. All images are listed once, after which the
+ * catalog is kept up-to-date in place, by recording images and tags created, or removed by us.
+ *
+ * <p>Optionally, it subscribes to image events of docker daemon, to pick up changes done by other
+ * clients, e.g. an image removed by <code>docker image prune</code>.
+ *
+ * <p>Lookups do not call docker daemon, and do not lock. Updates are serialised, so that all
+ * indexes change together.
+ */
+@Slf4j
+public class ImageCatalog implements AutoCloseable {
+
+  private static final String NONE = "<none>";
+
+  private final DockerRunner dockerRunner;
+  /** Name of image -> id of image -> tags. */
+  private final Map<String, Map<String, Set<String>>> imagesByName;
+  /** name:tag -> id of image. */
+  private final Map<String, String> imageIdByRepoTag;
+  /** id of image -> all name:tag references of it. */
+  private final Map<String, Set<String>> repoTagsByImageId;
+  private volatile Closeable eventSubscription;
+
+  public ImageCatalog(final DockerRunner dockerRunner) {
+    this.dockerRunner = dockerRunner;
+    this.imagesByName = new ConcurrentHashMap<>();
+    this.imageIdByRepoTag = new ConcurrentHashMap<>();
+    this.repoTagsByImageId = new HashMap<>();
+  }
+
+  /** Lists all images on docker daemon, and replaces content of the catalog with them. */
+  public synchronized ImageCatalog load() {
+    imagesByName.clear();
+    imageIdByRepoTag.clear();
+    repoTagsByImageId.clear();
+    dockerRunner.listImages().forEach(image -> addImage(image.id(), image.repoTags()));
+    return this;
+  }
+
+  /**
+   * Subscribes to image events of docker daemon, and refreshes every image that is changed, so
+   * that the catalog reflects changes done by other clients as well.
+   */
+  public synchronized void watch() {
+    if (eventSubscription == null) {
+      eventSubscription = dockerRunner.subscribeToImageEvents(this::refresh);
+    }
+  }
+
+  /** @return Whether an image with supplied id exists with supplied name. */
+  public boolean containsImage(final String imageName, final String imageId) {
+    return imagesByName.getOrDefault(imageName, Map.of()).containsKey(imageId);
+  }
+
+  /** @return Id of the image that is referenced by supplied name and tag. */
+  public Optional<String> getImageId(final String imageName, final String tag) {
+    return Optional.ofNullable(imageIdByRepoTag.get(toRepoTag(imageName, tag)));
+  }
+
+  /** @return Tags of an image with supplied name, empty if the image does not exist. */
+  public Set<String> getTags(final String imageName, final String imageId) {
+    return Set.copyOf(
+        imagesByName.getOrDefault(imageName, Map.of()).getOrDefault(imageId, Set.of()));
+  }
+
+  /** Records an image that we created with supplied tags. */
+  public synchronized void recordImage(
+      final String imageName, final String imageId, final Set<String> tags) {
+    tags.forEach(tag -> recordTag(imageName, imageId, tag));
+  }
+
+  /** Records a tag that we added to an image. A tag moved from another image is removed there. */
+  public synchronized void recordTag(
+      final String imageName, final String imageId, final String tag) {
+    final String repoTag = toRepoTag(imageName, tag);
+    final String previousImageId = imageIdByRepoTag.get(repoTag);
+    if (previousImageId != null && !previousImageId.equals(imageId)) {
+      removeRepoTag(repoTag);
+    }
+    addRepoTag(imageId, repoTag);
+  }
+
+  /** Records removal of a tag that we deleted. */
+  public synchronized void recordRemoval(final String imageName, final String tag) {
+    removeRepoTag(toRepoTag(imageName, tag));
+  }
+
+  /**
+   * Reads an image from docker daemon again, and replaces all its references in the catalog.
+   *
+   * @param idOrRepoTag Id of the image, or one of its references.
+   */
+  public void refresh(final String idOrRepoTag) {
+    // docker daemon is called outside the lock, so that updates are not blocked on it
+    final var image = dockerRunner.findImage(idOrRepoTag);
+    synchronized (this) {
+      if (image.isPresent()) {
+        removeImage(image.get().id());
+        addImage(image.get().id(), image.get().repoTags());
+        return;
+      }
+
+      // image no longer exists
+      if (repoTagsByImageId.containsKey(idOrRepoTag)) {
+        removeImage(idOrRepoTag);
+      } else if (imageIdByRepoTag.containsKey(idOrRepoTag)) {
+        removeRepoTag(idOrRepoTag);
+      }
+    }
+  }
+
+  /** Stops receiving image events, if the catalog watches them. */
+  @Override
+  public synchronized void close() {
+    if (eventSubscription == null) {
+      return;
+    }
+    try {
+      eventSubscription.close();
+    } catch (IOException e) {
+      log.warn("Failed to close docker image event subscription.", e);
+    }
+    eventSubscription = null;
+  }
+
+  private void addImage(final String imageId, final Set<String> repoTags) {
+    repoTags.forEach(repoTag -> addRepoTag(imageId, repoTag));
+  }
+
+  private void removeImage(final String imageId) {
+    Set.copyOf(repoTagsByImageId.getOrDefault(imageId, Set.of())).forEach(this::removeRepoTag);
+  }
+
+  private void addRepoTag(final String imageId, final String repoTag) {
+    final int tagSeparator = getTagSeparator(repoTag);
+    if (tagSeparator < 0 || repoTag.startsWith(NONE)) {
+      return;
+    }
+    final String imageName = repoTag.substring(0, tagSeparator);
+
+    imagesByName
+        .computeIfAbsent(imageName, name -> new ConcurrentHashMap<>())
+        .computeIfAbsent(imageId, id -> ConcurrentHashMap.newKeySet())
+        .add(repoTag.substring(tagSeparator + 1));
+    imageIdByRepoTag.put(repoTag, imageId);
+    repoTagsByImageId.computeIfAbsent(imageId, id -> new HashSet<>()).add(repoTag);
+  }
+
+  private void removeRepoTag(final String repoTag) {
+    final String imageId = imageIdByRepoTag.remove(repoTag);
+    if (imageId == null) {
+      return;
+    }
+
+    final int tagSeparator = getTagSeparator(repoTag);
+    final String imageName = repoTag.substring(0, tagSeparator);
+    imagesByName.computeIfPresent(
+        imageName,
+        (name, images) -> {
+          images.computeIfPresent(
+              imageId,
+              (id, tags) -> {
+                tags.remove(repoTag.substring(tagSeparator + 1));
+                return tags.isEmpty() ? null : tags;
+              });
+          return images.isEmpty() ? null : images;
+        });
+    repoTagsByImageId.computeIfPresent(
+        imageId,
+        (id, repoTags) -> {
+          repoTags.remove(repoTag);
+          return repoTags.isEmpty() ? null : repoTags;
+        });
+  }
+
+  private static String toRepoTag(final String imageName, final String tag) {
+    return imageName + ":" + tag;
+  }
+
+  /**
+   * Registry of a name may contain a port, so tag follows the first ':' after the last '/'.
+   *
+   * @return Index of the separator, -1 if the reference does not have a tag.
+   */
+  private static int getTagSeparator(final String repoTag) {
+    return repoTag.indexOf(':', repoTag.lastIndexOf('/') + 1);
+  }
+}
@@ -0,0 +1,140 @@
+package me.msri.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.docker.exception.DockerRunnerException;
+
+/**
+ * Remembers which image was created from which inputs, so that an image is not re-created when
+ * none of its inputs have changed.
+ *
+ * <p>Fingerprint of an image is a SHA-256 digest of all its inputs. It is stored as label {@link
+ * #FINGERPRINT_LABEL} on the image where possible, and along with the image id in an index file.
+ */
+@Slf4j
+public class ImageFingerprintCache {
+
+  public static final String FINGERPRINT_LABEL = "me.msri.image.fingerprint";
+
+  private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+  private static final String ID_SUFFIX = ".id";
+
+  private final Path indexFile;
+  private final Properties index;
+
+  /**
+   * @param indexFile Path of the file that stores fingerprint and id of every image created. It is
+   *     created if it does not exist.
+   */
+  public ImageFingerprintCache(final Path indexFile) {
+    this.indexFile = indexFile;
+    this.index = new Properties();
+    if (Files.isRegularFile(indexFile)) {
+      try (final InputStream inputStream = Files.newInputStream(indexFile)) {
+        index.load(inputStream);
+      } catch (IOException e) {
+        log.warn("Could not read image fingerprint index: {}, starting afresh.", indexFile, e);
+      }
+    }
+  }
+
+  /**
+   * Computes fingerprint of supplied inputs. Directories are walked recursively, and every file
+   * contributes its path, and content. Jar files are identified by path, size, and modification
+   * time instead of content, as resolved dependency jars are not modified in place by build tools.
+   *
+   * @param inputs Files, and directories that determine content of image.
+   * @param additionalContent Any other content that determines the image, such as the Dockerfile
+   *     template.
+   */
+  public static String fingerprint(
+      final Collection<Path> inputs, final String... additionalContent) {
+    final MessageDigest digest = newDigest();
+    inputs.stream()
+        .flatMap(ImageFingerprintCache::regularFiles)
+        .map(Path::toAbsolutePath)
+        .distinct()
+        .sorted()
+        .forEach(file -> update(digest, file));
+    for (final String content : additionalContent) {
+      digest.update(content.getBytes(StandardCharsets.UTF_8));
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * @return Id of image with supplied name that was created with supplied fingerprint, if any.
+   */
+  public synchronized Optional<String> getImageId(
+      final String imageName, final String fingerprint) {
+    if (!fingerprint.equals(index.getProperty(imageName + FINGERPRINT_SUFFIX))) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(index.getProperty(imageName + ID_SUFFIX));
+  }
+
+  /** Records the fingerprint of a newly created image, and persists the index file. */
+  public synchronized void put(
+      final String imageName, final String fingerprint, final String imageId) {
+    index.setProperty(imageName + FINGERPRINT_SUFFIX, fingerprint);
+    index.setProperty(imageName + ID_SUFFIX, imageId);
+
+    try {
+      Files.createDirectories(indexFile.getParent());
+      try (final OutputStream outputStream = Files.newOutputStream(indexFile)) {
+        index.store(outputStream, "Fingerprints of images created by me.msri.docker");
+      }
+    } catch (IOException e) {
+      log.warn("Could not write image fingerprint index: {}", indexFile, e);
+    }
+  }
+
+  private static Stream<Path> regularFiles(final Path input) {
+    if (!Files.isDirectory(input)) {
+      return Files.isRegularFile(input) ? Stream.of(input) : Stream.empty();
+    }
+    try (final var files = Files.walk(input)) {
+      return files.filter(Files::isRegularFile).toList().stream();
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+  }
+
+  private static void update(final MessageDigest digest, final Path file) {
+    digest.update(file.toString().getBytes(StandardCharsets.UTF_8));
+    try {
+      if (file.getFileName().toString().endsWith(".jar")) {
+        digest.update(
+            (Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis())
+                .getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      try (final var inputStream = new DigestInputStream(Files.newInputStream(file), digest)) {
+        inputStream.transferTo(OutputStream.nullOutputStream());
+      }
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new DockerRunnerException(e);
+    }
+  }
+}
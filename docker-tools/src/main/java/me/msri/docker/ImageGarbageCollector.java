@@ -0,0 +1,233 @@
+package me.msri.docker;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Removes tags of images that we created, once they are too old, or once our images take too much
+ * space, least recently used first. Removal of the last tag of an image removes the image.
+ *
+ * <p>Only tags recorded in {@link ImageLedger} are touched, and only while they still point to the
+ * image they were created for, so that images of other clients are never removed. Images we build
+ * also carry label {@link #OWNER_LABEL}, so that they can be told apart by other tools as well.
+ * Tags are removed without force, so an image used by a container is kept, and removal is retried
+ * by the next collection.
+ *
+ * <p>Collection runs in background, at most once per {@link #COLLECTION_INTERVAL}, and removes tags
+ * in concurrent batches. Tags used since the collector was created are never removed.
+ */
+@Slf4j
+public class ImageGarbageCollector implements AutoCloseable {
+
+  public static final String OWNER_LABEL = "me.msri.image.owner";
+  public static final String OWNER = "me.msri.docker";
+
+  private static final Duration COLLECTION_INTERVAL = Duration.ofHours(1);
+  private static final Duration REMOVAL_TIMEOUT = Duration.ofMinutes(1);
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+  private static final int REMOVAL_BATCH_SIZE = 8;
+
+  private final DockerRunner dockerRunner;
+  private final AsyncDockerRunner asyncDockerRunner;
+  private final ImageCatalog imageCatalog;
+  private final ImageLedger ledger;
+  private final Duration maxAge;
+  private final long maxSizeBytes;
+  private final Set<String> usedRepoTags = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed;
+  private volatile CompletableFuture<Void> collection = CompletableFuture.completedFuture(null);
+
+  /**
+   * @param maxAge Tags that were not used for longer than this are removed.
+   * @param maxSizeBytes Size that our images are trimmed to. Size of an image includes layers it
+   *     shares with other images, so the limit is approximate.
+   */
+  public ImageGarbageCollector(
+      final DockerRunner dockerRunner,
+      final ImageCatalog imageCatalog,
+      final ImageLedger ledger,
+      final Duration maxAge,
+      final long maxSizeBytes) {
+    this.dockerRunner = dockerRunner;
+    this.asyncDockerRunner = new AsyncDockerRunner(dockerRunner);
+    this.imageCatalog = imageCatalog;
+    this.ledger = ledger;
+    this.maxAge = maxAge;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /** Records that tags of an image were created, or requested again, and persists the ledger. */
+  public void recordUse(final String imageName, final String imageId, final Set<String> tags) {
+    tags.forEach(
+        tag -> {
+          final String repoTag = imageName + ":" + tag;
+          usedRepoTags.add(repoTag);
+          ledger.recordUse(repoTag, imageId);
+        });
+    ledger.save();
+  }
+
+  /**
+   * Records use of an image that already existed. Tags that existed before are recorded only if
+   * they are in the ledger already, as they may have been created by another client otherwise.
+   *
+   * @param createdTags Tags that were just created for the image.
+   * @param existingTags Requested tags that the image already had.
+   */
+  public void recordReuse(
+      final String imageName,
+      final String imageId,
+      final Set<String> createdTags,
+      final Set<String> existingTags) {
+    final Set<String> ownedTags = new HashSet<>(createdTags);
+    existingTags.stream()
+        .filter(tag -> ledger.contains(imageName + ":" + tag, imageId))
+        .forEach(ownedTags::add);
+    recordUse(imageName, imageId, ownedTags);
+  }
+
+  /**
+   * Starts collection in background, unless garbage was collected recently, or a collection is
+   * still running. It does not wait for the collection.
+   */
+  public synchronized CompletableFuture<Void> collectInBackground() {
+    final boolean isRecent =
+        ledger
+            .getLastCollection()
+            .map(last -> last.plus(COLLECTION_INTERVAL).isAfter(Instant.now()))
+            .orElse(false);
+    if (isRecent || !collection.isDone()) {
+      return collection;
+    }
+
+    collection =
+        CompletableFuture.runAsync(
+            this::collect,
+            runnable -> {
+              final var thread = new Thread(runnable, "image-garbage-collector");
+              thread.setDaemon(true);
+              thread.start();
+            });
+    collection.exceptionally(
+        failure -> {
+          log.warn("Image garbage collection failed.", failure);
+          return null;
+        });
+    return collection;
+  }
+
+  /**
+   * Waits for a running collection, at most for {@link #CLOSE_TIMEOUT}, e.g. as a compilation ends
+   * right after it started collection, and then stops removals that have not started. A collection
+   * that did not finish is continued by a later collector, as the ledger is saved after every
+   * batch.
+   */
+  @Override
+  public void close() {
+    try {
+      collection.get(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      log.info("Image garbage collection did not finish in time: {}, it is continued later.",
+          CLOSE_TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // failure is logged by collection itself
+    }
+    closed = true;
+    asyncDockerRunner.close();
+  }
+
+  private void collect() {
+    final long start = System.currentTimeMillis();
+    final Instant now = Instant.now();
+    // Key: Id of image, Value: its size, for images whose tags still point to them
+    final Map<String, Long> imageSizes = new HashMap<>();
+    final List<ImageLedger.Entry> candidates = new ArrayList<>();
+    for (final var entry : ledger.getEntries()) {
+      final var image = dockerRunner.findImage(entry.repoTag());
+      if (image.isEmpty() || !image.get().id().equals(entry.imageId())) {
+        // removed, or moved to another image, by someone else, so it is not ours anymore
+        ledger.remove(entry.repoTag());
+        continue;
+      }
+      imageSizes.put(entry.imageId(), image.get().size());
+      if (!usedRepoTags.contains(entry.repoTag())) {
+        candidates.add(entry);
+      }
+    }
+
+    candidates.sort(Comparator.comparing(ImageLedger.Entry::lastUsed));
+    final Map<String, Long> remainingTagsPerImage = new HashMap<>();
+    ledger
+        .getEntries()
+        .forEach(entry -> remainingTagsPerImage.merge(entry.imageId(), 1L, Long::sum));
+    long totalSize = imageSizes.values().stream().mapToLong(Long::longValue).sum();
+    final List<ImageLedger.Entry> victims = new ArrayList<>();
+    for (final var candidate : candidates) {
+      final boolean isExpired = candidate.lastUsed().plus(maxAge).isBefore(now);
+      if (!isExpired && totalSize <= maxSizeBytes) {
+        continue;
+      }
+      victims.add(candidate);
+      if (remainingTagsPerImage.merge(candidate.imageId(), -1L, Long::sum) == 0) {
+        totalSize -= imageSizes.getOrDefault(candidate.imageId(), 0L);
+      }
+    }
+
+    int removed = 0;
+    for (int from = 0; from < victims.size() && !closed; from += REMOVAL_BATCH_SIZE) {
+      final int to = Math.min(victims.size(), from + REMOVAL_BATCH_SIZE);
+      removed += removeBatch(victims.subList(from, to));
+      ledger.save();
+    }
+    if (!closed) {
+      ledger.setLastCollection(now);
+    }
+    ledger.save();
+    log.info("""
+            Image garbage collected -
+            Tags removed: {} of {}
+            Size of remaining images: {}MB
+            Total time of collection: {}ms
+            """, removed, victims.size(), totalSize / (1024 * 1024),
+        (System.currentTimeMillis() - start));
+  }
+
+  /** Removes tags of a batch concurrently, and waits for all of them. */
+  private int removeBatch(final List<ImageLedger.Entry> batch) {
+    final var removals =
+        batch.stream()
+            .map(
+                entry ->
+                    asyncDockerRunner
+                        .deleteImageAndTag(entry.imageName(), entry.tag(), REMOVAL_TIMEOUT)
+                        .thenApply(
+                            ignored -> {
+                              ledger.remove(entry.repoTag());
+                              imageCatalog.recordRemoval(entry.imageName(), entry.tag());
+                              return 1;
+                            })
+                        .exceptionally(
+                            failure -> {
+                              log.info("Could not remove tag: {}, it is retried later.",
+                                  entry.repoTag(), failure);
+                              return 0;
+                            }))
+            .toList();
+    return removals.stream().mapToInt(CompletableFuture::join).sum();
+  }
+}
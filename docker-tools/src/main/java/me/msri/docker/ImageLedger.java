@@ -0,0 +1,136 @@
+package me.msri.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records every tag of an image that we created, along with when it was created, and last used.
+ * It is the record of ownership for {@link ImageGarbageCollector}, which removes only tags that
+ * are in the ledger.
+ */
+@Slf4j
+public class ImageLedger {
+
+  private static final String ID_SUFFIX = ".id";
+  private static final String CREATED_SUFFIX = ".created";
+  private static final String USED_SUFFIX = ".used";
+  private static final String LAST_COLLECTION = "lastCollection";
+
+  private final Path ledgerFile;
+  private final Properties ledger;
+
+  /**
+   * A tag of an image that we created.
+   *
+   * @param repoTag image_repo/image_name:image_tag of the tag.
+   * @param imageId Id of the image that the tag was created for.
+   * @param created Time when the tag was created.
+   * @param lastUsed Time when the tag was last requested.
+   */
+  public record Entry(String repoTag, String imageId, Instant created, Instant lastUsed) {
+
+    public String imageName() {
+      return repoTag.substring(0, repoTag.lastIndexOf(':'));
+    }
+
+    public String tag() {
+      return repoTag.substring(repoTag.lastIndexOf(':') + 1);
+    }
+  }
+
+  /**
+   * @param ledgerFile Path of the file that stores the ledger. It is created if it does not exist.
+   */
+  public ImageLedger(final Path ledgerFile) {
+    this.ledgerFile = ledgerFile;
+    this.ledger = new Properties();
+    if (Files.isRegularFile(ledgerFile)) {
+      try (final InputStream inputStream = Files.newInputStream(ledgerFile)) {
+        ledger.load(inputStream);
+      } catch (IOException e) {
+        log.warn("Could not read image ledger: {}, starting afresh.", ledgerFile, e);
+      }
+    }
+  }
+
+  /**
+   * Records use of a tag. A tag that is not in the ledger, or now points to another image, is
+   * recorded as created now.
+   */
+  public synchronized void recordUse(final String repoTag, final String imageId) {
+    final String now = String.valueOf(Instant.now().toEpochMilli());
+    if (!imageId.equals(ledger.getProperty(repoTag + ID_SUFFIX))) {
+      ledger.setProperty(repoTag + ID_SUFFIX, imageId);
+      ledger.setProperty(repoTag + CREATED_SUFFIX, now);
+    }
+    ledger.setProperty(repoTag + USED_SUFFIX, now);
+  }
+
+  /** Whether a tag is recorded, and still for supplied image. */
+  public synchronized boolean contains(final String repoTag, final String imageId) {
+    return imageId.equals(ledger.getProperty(repoTag + ID_SUFFIX));
+  }
+
+  public synchronized void remove(final String repoTag) {
+    ledger.remove(repoTag + ID_SUFFIX);
+    ledger.remove(repoTag + CREATED_SUFFIX);
+    ledger.remove(repoTag + USED_SUFFIX);
+  }
+
+  public synchronized List<Entry> getEntries() {
+    return ledger.stringPropertyNames().stream()
+        .filter(key -> key.endsWith(ID_SUFFIX))
+        .map(key -> key.substring(0, key.length() - ID_SUFFIX.length()))
+        .map(
+            repoTag ->
+                new Entry(
+                    repoTag,
+                    ledger.getProperty(repoTag + ID_SUFFIX),
+                    readInstant(repoTag + CREATED_SUFFIX),
+                    readInstant(repoTag + USED_SUFFIX)))
+        .toList();
+  }
+
+  /** Time when garbage was last collected, empty if it never was. */
+  public synchronized Optional<Instant> getLastCollection() {
+    return ledger.containsKey(LAST_COLLECTION)
+        ? Optional.of(readInstant(LAST_COLLECTION))
+        : Optional.empty();
+  }
+
+  public synchronized void setLastCollection(final Instant lastCollection) {
+    ledger.setProperty(LAST_COLLECTION, String.valueOf(lastCollection.toEpochMilli()));
+  }
+
+  /** Persists the ledger. It is replaced at once, so that readers never see a partial ledger. */
+  public synchronized void save() {
+    try {
+      Files.createDirectories(ledgerFile.getParent());
+      final var tempFile = Files.createTempFile(ledgerFile.getParent(), "image-ledger", ".tmp");
+      try (final OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        ledger.store(outputStream, "Tags of images created by me.msri.docker");
+      }
+      Files.move(
+          tempFile, ledgerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not write image ledger: {}", ledgerFile, e);
+    }
+  }
+
+  private Instant readInstant(final String key) {
+    try {
+      return Instant.ofEpochMilli(Long.parseLong(ledger.getProperty(key, "0")));
+    } catch (NumberFormatException e) {
+      return Instant.EPOCH;
+    }
+  }
+}
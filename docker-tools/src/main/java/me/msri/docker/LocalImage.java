@@ -0,0 +1,12 @@
+package me.msri.docker;
+
+import java.util.Set;
+
+/**
+ * An image present on the local docker daemon.
+ *
+ * @param id Full id of the image.
+ * @param repoTags All references of the image in the form of <code>name:tag</code>.
+ * @param size Size of the image in bytes, including layers it shares with other images.
+ */
+public record LocalImage(String id, Set<String> repoTags, long size) {}
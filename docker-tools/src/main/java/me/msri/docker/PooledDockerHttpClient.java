@@ -0,0 +1,284 @@
+package me.msri.docker;
+
+import com.github.dockerjava.transport.DockerHttpClient;
+import com.github.dockerjava.transport.NamedPipeSocket;
+import com.github.dockerjava.transport.SSLConfig;
+import com.github.dockerjava.transport.UnixSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.docker.exception.DockerRunnerException;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.ManagedHttpClientConnectionFactory;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
+import org.apache.hc.client5.http.socket.PlainConnectionSocketFactory;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
+import org.apache.hc.core5.http.ContentLengthStrategy;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpMessage;
+import org.apache.hc.core5.http.config.Registry;
+import org.apache.hc.core5.http.config.RegistryBuilder;
+import org.apache.hc.core5.http.impl.DefaultContentLengthStrategy;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.net.URIAuthority;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Transport of docker client, that sends requests over a pool of connections to docker daemon, be
+ * it a unix socket, a named pipe, or tcp.
+ *
+ * <p>It follows the transport of docker-java on httpclient5, which keeps its pool to itself, and
+ * adds keep-alive of idle connections, and {@link DockerConnectionPoolMetrics metrics} of the pool.
+ * Attaching to stdin of a container is not supported, as it needs the connection to be hijacked.
+ */
+@Slf4j
+class PooledDockerHttpClient implements DockerHttpClient {
+
+  // docker does not listen on a host for these schemes, so that any host, and port serve
+  private static final String LOCAL_HOST = "localhost";
+  private static final int LOCAL_PORT = 2375;
+
+  private final HttpHost host;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong connectionCount = new AtomicLong();
+
+  PooledDockerHttpClient(
+      final URI dockerHost, final SSLConfig sslConfig, final DockerClientOptions options) {
+    final Registry<ConnectionSocketFactory> socketFactories =
+        createSocketFactories(dockerHost, sslConfig);
+    host =
+        switch (dockerHost.getScheme()) {
+          case "unix", "npipe" -> new HttpHost(dockerHost.getScheme(), LOCAL_HOST, LOCAL_PORT);
+          case "tcp" -> new HttpHost(
+              socketFactories.lookup("https") == null ? "http" : "https",
+              dockerHost.getHost(),
+              dockerHost.getPort());
+          default -> HttpHost.create(dockerHost);
+        };
+
+    connectionManager =
+        new PoolingHttpClientConnectionManager(
+            socketFactories,
+            new ManagedHttpClientConnectionFactory(
+                null, null, null, null, PooledDockerHttpClient::determineLength, null));
+    // reads of streamed responses, e.g. events, are bound by response timeout of the request only
+    connectionManager.setDefaultSocketConfig(
+        SocketConfig.copy(SocketConfig.DEFAULT).setSoTimeout(Timeout.ZERO_MILLISECONDS).build());
+    connectionManager.setMaxTotal(options.maxConnections());
+    // docker daemon is the only route
+    connectionManager.setDefaultMaxPerRoute(options.maxConnections());
+    // an idle connection may have been closed by docker daemon, e.g. after it restarted
+    connectionManager.setValidateAfterInactivity(TimeValue.ofSeconds(2));
+
+    final var keepAlive = TimeValue.ofMilliseconds(options.keepAlive().toMillis());
+    httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(
+                RequestConfig.custom()
+                    .setConnectTimeout(Timeout.ofMilliseconds(options.connectTimeout().toMillis()))
+                    .setResponseTimeout(
+                        Timeout.ofMilliseconds(options.responseTimeout().toMillis()))
+                    .build())
+            // docker daemon does not send keep-alive header, so that its default is not used
+            .setKeepAliveStrategy((response, context) -> keepAlive)
+            .evictExpiredConnections()
+            .evictIdleConnections(keepAlive)
+            .disableConnectionState()
+            .build();
+  }
+
+  @Override
+  public Response execute(final Request request) {
+    if (request.hijackedInput() != null) {
+      throw new UnsupportedOperationException(
+          "Attaching to stdin of a container is not supported: " + request.path());
+    }
+
+    final var httpRequest = new HttpUriRequestBase(request.method(), URI.create(request.path()));
+    httpRequest.setScheme(host.getSchemeName());
+    httpRequest.setAuthority(new URIAuthority(host.getHostName(), host.getPort()));
+    request.headers().forEach(httpRequest::addHeader);
+    final byte[] bodyBytes = request.bodyBytes();
+    if (bodyBytes != null) {
+      httpRequest.setEntity(new ByteArrayEntity(bodyBytes, null));
+    } else if (request.body() != null) {
+      httpRequest.setEntity(new InputStreamEntity(request.body(), null));
+    }
+
+    requestCount.incrementAndGet();
+    try {
+      return new PooledResponse(httpRequest, httpClient.execute(host, httpRequest));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  DockerConnectionPoolMetrics getMetrics() {
+    final PoolStats stats = connectionManager.getTotalStats();
+    return new DockerConnectionPoolMetrics(
+        stats.getLeased(),
+        stats.getPending(),
+        stats.getAvailable(),
+        stats.getMax(),
+        requestCount.get(),
+        connectionCount.get());
+  }
+
+  @Override
+  public void close() throws IOException {
+    httpClient.close();
+  }
+
+  private Registry<ConnectionSocketFactory> createSocketFactories(
+      final URI dockerHost, final SSLConfig sslConfig) {
+    final RegistryBuilder<ConnectionSocketFactory> socketFactories = RegistryBuilder.create();
+    if (sslConfig != null) {
+      try {
+        socketFactories.register(
+            "https",
+            new CountingSocketFactory(new SSLConnectionSocketFactory(sslConfig.getSSLContext())));
+      } catch (GeneralSecurityException e) {
+        throw new DockerRunnerException(e);
+      }
+    }
+    socketFactories.register(
+        "tcp", new CountingSocketFactory(PlainConnectionSocketFactory.INSTANCE));
+    socketFactories.register(
+        "http", new CountingSocketFactory(PlainConnectionSocketFactory.INSTANCE));
+    switch (dockerHost.getScheme()) {
+      case "unix" -> socketFactories.register(
+          "unix",
+          new CountingSocketFactory(
+              new PlainConnectionSocketFactory() {
+                @Override
+                public Socket createSocket(final HttpContext context) throws IOException {
+                  return UnixSocket.get(dockerHost.getPath());
+                }
+              }));
+      case "npipe" -> socketFactories.register(
+          "npipe",
+          new CountingSocketFactory(
+              new PlainConnectionSocketFactory() {
+                @Override
+                public Socket createSocket(final HttpContext context) {
+                  return new NamedPipeSocket(dockerHost.getPath());
+                }
+              }));
+      default -> {
+        // tcp, and http are registered already
+      }
+    }
+    return socketFactories.build();
+  }
+
+  /** Docker sends <code>Transfer-Encoding: identity</code>, which httpclient rejects otherwise. */
+  private static long determineLength(final HttpMessage message) throws HttpException {
+    final Header transferEncoding = message.getFirstHeader(HttpHeaders.TRANSFER_ENCODING);
+    if (transferEncoding != null && "identity".equalsIgnoreCase(transferEncoding.getValue())) {
+      return ContentLengthStrategy.UNDEFINED;
+    }
+    return DefaultContentLengthStrategy.INSTANCE.determineLength(message);
+  }
+
+  /** Counts connections that are opened, from which, and count of requests, reuse follows. */
+  private class CountingSocketFactory implements ConnectionSocketFactory {
+
+    private final ConnectionSocketFactory delegate;
+
+    CountingSocketFactory(final ConnectionSocketFactory delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Socket createSocket(final HttpContext context) throws IOException {
+      return delegate.createSocket(context);
+    }
+
+    @Override
+    public Socket connectSocket(
+        final TimeValue connectTimeout,
+        final Socket socket,
+        final HttpHost host,
+        final InetSocketAddress remoteAddress,
+        final InetSocketAddress localAddress,
+        final HttpContext context)
+        throws IOException {
+      final Socket connectedSocket =
+          delegate.connectSocket(
+              connectTimeout, socket, host, remoteAddress, localAddress, context);
+      connectionCount.incrementAndGet();
+      return connectedSocket;
+    }
+  }
+
+  private record PooledResponse(HttpUriRequestBase request, CloseableHttpResponse response)
+      implements Response {
+
+    @Override
+    public int getStatusCode() {
+      return response.getCode();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return Arrays.stream(response.getHeaders())
+          .collect(
+              Collectors.groupingBy(
+                  Header::getName,
+                  () -> new TreeMap<>(String.CASE_INSENSITIVE_ORDER),
+                  Collectors.mapping(Header::getValue, Collectors.toList())));
+    }
+
+    @Override
+    public InputStream getBody() {
+      try {
+        return response.getEntity() == null
+            ? InputStream.nullInputStream()
+            : response.getEntity().getContent();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * A connection whose response was read to its end is back in the pool already. Any other is
+     * discarded, as reading the rest of a stream, e.g. of events, may never finish.
+     */
+    @Override
+    public void close() {
+      try {
+        request.abort();
+        response.close();
+      } catch (IOException | RuntimeException e) {
+        log.debug("Could not close response of: {}", request.getRequestUri(), e);
+      }
+    }
+  }
+}
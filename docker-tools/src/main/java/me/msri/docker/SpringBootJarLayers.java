@@ -0,0 +1,122 @@
+package me.msri.docker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Splits entries of a spring boot fat jar into layers, as defined by <code>BOOT-INF/layers.idx
+ * </code> of the jar. Jars created without layer index are split into dependencies, spring boot
+ * loader and application, which is the default layering of spring boot.
+ */
+@UtilityClass
+@Slf4j
+public class SpringBootJarLayers {
+
+  private static final String LAYERS_INDEX = "BOOT-INF/layers.idx";
+  private static final String LAYER_PREFIX = "- \"";
+  private static final String LAYER_CONTENT_PREFIX = "  - \"";
+
+  /** Layer name -> locations, where a location ending with '/' contains everything under it. */
+  private static final Map<String, List<String>> DEFAULT_LAYERS = defaultLayers();
+
+  /**
+   * @return Layer name -> file entries of the layer, in the order of layers, without empty layers.
+   */
+  public static Map<String, List<ZipEntry>> read(final ZipFile jar) throws IOException {
+    final var layerIndex = jar.getEntry(LAYERS_INDEX);
+    final Map<String, List<String>> layerLocations;
+    if (layerIndex == null) {
+      log.info("Jar is not layered, using default layers: {}", jar.getName());
+      layerLocations = DEFAULT_LAYERS;
+    } else {
+      layerLocations = readLayerIndex(jar, layerIndex);
+    }
+
+    final Map<String, List<ZipEntry>> layers = new LinkedHashMap<>();
+    final var lastLayer = List.copyOf(layerLocations.keySet()).get(layerLocations.size() - 1);
+    jar.stream()
+        .filter(entry -> !entry.isDirectory())
+        .forEach(
+            entry ->
+                layers
+                    .computeIfAbsent(
+                        findLayer(layerLocations, entry.getName(), lastLayer),
+                        layer -> new ArrayList<>())
+                    .add(entry));
+
+    // layers are kept in the order of the index, as later layers change more often
+    final Map<String, List<ZipEntry>> orderedLayers = new LinkedHashMap<>();
+    layerLocations.keySet().stream()
+        .filter(layers::containsKey)
+        .forEach(layer -> orderedLayers.put(layer, layers.get(layer)));
+    return orderedLayers;
+  }
+
+  private static String findLayer(
+      final Map<String, List<String>> layerLocations,
+      final String entryName,
+      final String lastLayer) {
+    return layerLocations.entrySet().stream()
+        .filter(
+            layer ->
+                layer.getValue().stream()
+                    .anyMatch(
+                        location ->
+                            location.isEmpty() || location.endsWith("/")
+                                ? entryName.startsWith(location)
+                                : entryName.equals(location)))
+        .map(Map.Entry::getKey)
+        .findFirst()
+        // entries missing from the index belong to application
+        .orElse(lastLayer);
+  }
+
+  private static Map<String, List<String>> readLayerIndex(
+      final ZipFile jar, final ZipEntry layerIndex) throws IOException {
+    final Map<String, List<String>> layerLocations = new LinkedHashMap<>();
+    try (final var reader =
+        new BufferedReader(
+            new InputStreamReader(jar.getInputStream(layerIndex), StandardCharsets.UTF_8))) {
+      List<String> currentLayer = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(LAYER_PREFIX)) {
+          currentLayer = new ArrayList<>();
+          layerLocations.put(unquote(line, LAYER_PREFIX), currentLayer);
+        } else if (line.startsWith(LAYER_CONTENT_PREFIX) && currentLayer != null) {
+          currentLayer.add(unquote(line, LAYER_CONTENT_PREFIX));
+        }
+      }
+    }
+
+    if (layerLocations.isEmpty()) {
+      log.warn("Layer index of jar is empty, using default layers: {}", jar.getName());
+      return DEFAULT_LAYERS;
+    }
+    return layerLocations;
+  }
+
+  /** Extracts value from a line like <code>- "dependencies":</code>. */
+  private static String unquote(final String line, final String prefix) {
+    final int end = line.lastIndexOf('"');
+    return end < prefix.length() ? "" : line.substring(prefix.length(), end);
+  }
+
+  private static Map<String, List<String>> defaultLayers() {
+    final Map<String, List<String>> layers = new LinkedHashMap<>();
+    layers.put("dependencies", List.of("BOOT-INF/lib/"));
+    layers.put("spring-boot-loader", List.of("org/"));
+    layers.put("application", List.of(""));
+    return layers;
+  }
+}
@@ -0,0 +1,89 @@
+package me.msri.docker.oci;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import me.msri.docker.exception.DockerRunnerException;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Config, and layers of the image that assembled images are based on. Its layers are stored in
+ * the blob store, so that they are read from docker daemon only once.
+ *
+ * @param config Config of the image, in the format of docker image config.
+ * @param layers Descriptors of layers of the image, from bottom to top.
+ */
+record BaseImage(ObjectNode config, List<Descriptor> layers) {
+
+  private static final String DOCKER_ARCHIVE_MANIFEST = "manifest.json";
+
+  /**
+   * Reads an image exported in the format of <code>docker save</code>, and stores its config, and
+   * layers in supplied blob store.
+   */
+  static BaseImage read(
+      final InputStream dockerArchive, final BlobStore blobStore, final ObjectMapper objectMapper) {
+    Path extractDirectory = null;
+    try {
+      // manifest of the archive may come after the files it refers to, so all files are extracted
+      extractDirectory = Files.createTempDirectory("msri-base-image");
+      extract(dockerArchive, extractDirectory);
+
+      final JsonNode manifest =
+          objectMapper.readTree(extractDirectory.resolve(DOCKER_ARCHIVE_MANIFEST).toFile()).get(0);
+      final var config =
+          (ObjectNode)
+              objectMapper.readTree(
+                  extractDirectory.resolve(manifest.get("Config").asText()).toFile());
+      final List<Descriptor> layers = new ArrayList<>();
+      for (final JsonNode layer : manifest.get("Layers")) {
+        final var layerFile = extractDirectory.resolve(layer.asText());
+        layers.add(
+            blobStore.write(
+                OciImageAssembler.LAYER_MEDIA_TYPE,
+                outputStream -> Files.copy(layerFile, outputStream)));
+      }
+      return new BaseImage(config, List.copyOf(layers));
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    } finally {
+      deleteRecursively(extractDirectory);
+    }
+  }
+
+  private static void extract(final InputStream dockerArchive, final Path directory)
+      throws IOException {
+    final var tar = new TarArchiveInputStream(dockerArchive);
+    for (var entry = tar.getNextTarEntry(); entry != null; entry = tar.getNextTarEntry()) {
+      final var target = directory.resolve(entry.getName()).normalize();
+      if (!target.startsWith(directory)) {
+        throw new DockerRunnerException("Invalid entry in image archive: " + entry.getName());
+      }
+      if (entry.isDirectory()) {
+        Files.createDirectories(target);
+      } else if (entry.isFile()) {
+        Files.createDirectories(target.getParent());
+        Files.copy(tar, target);
+      }
+    }
+  }
+
+  private static void deleteRecursively(final Path directory) {
+    if (directory == null) {
+      return;
+    }
+    try (final Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    } catch (IOException e) {
+      // temporary directory is left behind
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package me.msri.docker.oci;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import me.msri.docker.exception.DockerRunnerException;
+
+/**
+ * Stores blobs of images in a directory, named by the sha256 digest of their content, as in an OCI
+ * image layout. A blob with the same content is stored only once.
+ *
+ * <p>Modification time of a blob is the last time it was used, which decides the order in which
+ * blobs are evicted.
+ */
+class BlobStore {
+
+  private static final String DIGEST_PREFIX = "sha256:";
+
+  private final Path blobDirectory;
+
+  BlobStore(final Path rootDirectory) {
+    this.blobDirectory = rootDirectory.resolve(Path.of("blobs", "sha256"));
+  }
+
+  /** @return Path of the blob with supplied digest, that may not exist. */
+  Path getPath(final String digest) {
+    return blobDirectory.resolve(digest.substring(DIGEST_PREFIX.length()));
+  }
+
+  boolean contains(final String digest) {
+    return Files.isRegularFile(getPath(digest));
+  }
+
+  /** Marks a blob as used now, so that it is evicted after blobs that were used earlier. */
+  void touch(final String digest) {
+    try {
+      Files.setLastModifiedTime(getPath(digest), FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // blob is evicted a bit earlier than it would be otherwise
+    }
+  }
+
+  /**
+   * Deletes least recently used blobs, till total size of all blobs is within supplied limit.
+   *
+   * @param retainedDigests Blobs that are not deleted, even if they are the least recently used.
+   * @return Number of bytes that were freed.
+   */
+  long evict(final long maxSize, final Set<String> retainedDigests) {
+    if (!Files.isDirectory(blobDirectory)) {
+      return 0;
+    }
+
+    record Blob(Path path, long size, long lastUsed) {}
+    final List<Blob> blobs = new ArrayList<>();
+    try (final Stream<Path> paths = Files.list(blobDirectory)) {
+      for (final var path : paths.filter(Files::isRegularFile).toList()) {
+        if (!path.getFileName().toString().endsWith(".tmp")) {
+          blobs.add(
+              new Blob(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+        }
+      }
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+
+    long totalSize = blobs.stream().mapToLong(Blob::size).sum();
+    long freedSize = 0;
+    blobs.sort(Comparator.comparingLong(Blob::lastUsed));
+    for (final var blob : blobs) {
+      if (totalSize <= maxSize) {
+        break;
+      }
+      if (retainedDigests.contains(DIGEST_PREFIX + blob.path().getFileName())) {
+        continue;
+      }
+      try {
+        Files.deleteIfExists(blob.path());
+        totalSize -= blob.size();
+        freedSize += blob.size();
+      } catch (IOException e) {
+        // blob may be in use by another process, it is retried on next eviction
+      }
+    }
+    return freedSize;
+  }
+
+  Descriptor put(final String mediaType, final byte[] content) {
+    return write(mediaType, outputStream -> outputStream.write(content));
+  }
+
+  /**
+   * Writes a blob to a temporary file while its digest is computed, and moves it to its final
+   * location afterwards, so that a blob is never seen partially written.
+   */
+  Descriptor write(final String mediaType, final BlobWriter writer) {
+    try {
+      Files.createDirectories(blobDirectory);
+      final var tempFile = Files.createTempFile(blobDirectory, "blob", ".tmp");
+      final var digest = MessageDigest.getInstance("SHA-256");
+      try (final var outputStream =
+          new DigestOutputStream(Files.newOutputStream(tempFile), digest)) {
+        writer.write(outputStream);
+      } catch (IOException | RuntimeException e) {
+        Files.deleteIfExists(tempFile);
+        throw e;
+      }
+
+      final String blobDigest = DIGEST_PREFIX + HexFormat.of().formatHex(digest.digest());
+      final long size = Files.size(tempFile);
+      if (contains(blobDigest)) {
+        Files.delete(tempFile);
+      } else {
+        Files.move(
+            tempFile,
+            getPath(blobDigest),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+      return new Descriptor(mediaType, blobDigest, size);
+    } catch (IOException | NoSuchAlgorithmException e) {
+      throw new DockerRunnerException(e);
+    }
+  }
+
+  /** Writes content of a blob. */
+  @FunctionalInterface
+  interface BlobWriter {
+    void write(OutputStream outputStream) throws IOException;
+  }
+}
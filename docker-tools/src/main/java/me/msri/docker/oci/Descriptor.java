@@ -0,0 +1,10 @@
+package me.msri.docker.oci;
+
+/**
+ * Describes a blob of an OCI image, i.e. its config, a layer, or its manifest.
+ *
+ * @param mediaType Type of content of the blob.
+ * @param digest Digest of the blob in the form of <code>sha256:hex</code>.
+ * @param size Size of the blob in bytes.
+ */
+public record Descriptor(String mediaType, String digest, long size) {}
@@ -0,0 +1,159 @@
+package me.msri.docker.oci;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.docker.exception.DockerRunnerException;
+
+/**
+ * Reuses layers of jar entries across images, and across builds. A layer is identified by a key
+ * that is computed from names, sizes and checksums of its entries, as recorded in the central
+ * directory of the jar, so that content of a jar is read and hashed only when a layer with its
+ * entries has not been written before.
+ *
+ * <p>Layers of all services share the same {@link BlobStore}, so a dependency layer that is the
+ * same for several services is stored only once. The store is kept within a size limit by evicting
+ * least recently used blobs.
+ */
+@Slf4j
+class LayerStore {
+
+  private final BlobStore blobStore;
+  private final Path indexFile;
+  /** Key of layer -> digest, and size of its blob. */
+  private final Map<String, Descriptor> layers;
+  /** Blobs used during lifetime of this store, which are never evicted by it. */
+  private final Set<String> usedDigests;
+
+  LayerStore(final BlobStore blobStore, final Path indexFile) {
+    this.blobStore = blobStore;
+    this.indexFile = indexFile;
+    this.layers = new ConcurrentHashMap<>(readIndex(indexFile));
+    this.usedDigests = ConcurrentHashMap.newKeySet();
+  }
+
+  /**
+   * Provides a layer of supplied jar entries, placed under supplied directory. It is written only
+   * if a layer with the same entries is not stored already.
+   */
+  Descriptor getOrWrite(final ZipFile jar, final List<ZipEntry> entries, final String directory) {
+    final var key = getKey(entries, directory);
+    final var storedLayer =
+        key.map(layers::get).filter(layer -> blobStore.contains(layer.digest()));
+    if (storedLayer.isPresent()) {
+      markUsed(storedLayer.get().digest());
+      return storedLayer.get();
+    }
+
+    final var layer = LayerWriter.writeJarEntries(blobStore, jar, entries, directory);
+    markUsed(layer.digest());
+    key.ifPresent(
+        it -> {
+          layers.put(it, layer);
+          writeIndex();
+        });
+    return layer;
+  }
+
+  /** Protects a blob that is used by an image of this build from eviction. */
+  void markUsed(final String digest) {
+    usedDigests.add(digest);
+    blobStore.touch(digest);
+  }
+
+  /** Evicts least recently used blobs that are not used by this build, till the store fits. */
+  void evict(final long maxSize) {
+    final long freedSize = blobStore.evict(maxSize, Set.copyOf(usedDigests));
+    if (freedSize > 0) {
+      layers.values().removeIf(layer -> !blobStore.contains(layer.digest()));
+      writeIndex();
+      log.info("Evicted {} bytes from layer store, to keep it within {} bytes", freedSize, maxSize);
+    }
+  }
+
+  /**
+   * @return Key of the layer, empty if checksum of an entry is not recorded in the jar, in which
+   *     case the layer is not reused.
+   */
+  private static Optional<String> getKey(final List<ZipEntry> entries, final String directory) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new DockerRunnerException(e);
+    }
+
+    digest.update(directory.getBytes(StandardCharsets.UTF_8));
+    for (final var entry :
+        entries.stream().sorted(Comparator.comparing(ZipEntry::getName)).toList()) {
+      if (entry.getCrc() < 0 || entry.getSize() < 0) {
+        return Optional.empty();
+      }
+      digest.update(
+          (entry.getName() + ':' + entry.getSize() + ':' + entry.getCrc() + '\n')
+              .getBytes(StandardCharsets.UTF_8));
+    }
+    return Optional.of(HexFormat.of().formatHex(digest.digest()));
+  }
+
+  private static Map<String, Descriptor> readIndex(final Path indexFile) {
+    final var properties = new Properties();
+    if (Files.isRegularFile(indexFile)) {
+      try (final var reader = Files.newBufferedReader(indexFile)) {
+        properties.load(reader);
+      } catch (IOException e) {
+        log.warn("Could not read layer store index: {}", indexFile, e);
+      }
+    }
+
+    final Map<String, Descriptor> layers = new ConcurrentHashMap<>();
+    properties.forEach(
+        (key, value) -> {
+          // value is "digest size"
+          final var digestAndSize = value.toString().split(" ");
+          try {
+            layers.put(
+                key.toString(),
+                new Descriptor(
+                    OciImageAssembler.LAYER_MEDIA_TYPE,
+                    digestAndSize[0],
+                    Long.parseLong(digestAndSize[1])));
+          } catch (RuntimeException e) {
+            // invalid entries are ignored, their layers are written again
+          }
+        });
+    return layers;
+  }
+
+  private synchronized void writeIndex() {
+    final var properties = new Properties();
+    layers.forEach(
+        (key, layer) -> properties.setProperty(key, layer.digest() + " " + layer.size()));
+    try {
+      Files.createDirectories(indexFile.getParent());
+      final var tempFile = Files.createTempFile(indexFile.getParent(), "layers", ".tmp");
+      try (final var writer = Files.newBufferedWriter(tempFile)) {
+        properties.store(writer, "Layers of jar entries, keyed by their names, sizes and checksums");
+      }
+      Files.move(
+          tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not write layer store index: {}", indexFile, e);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package me.msri.docker.oci;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import lombok.experimental.UtilityClass;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Writes reproducible layers, i.e. uncompressed tar archives whose bytes depend only on the
+ * content of their files. Entries are sorted by path, and carry fixed modification time, owner and
+ * permissions, so that a layer has the same digest on every machine.
+ */
+@UtilityClass
+class LayerWriter {
+
+  private static final Date MODIFICATION_TIME = new Date(0);
+  private static final int DIRECTORY_MODE = 040755;
+  private static final int FILE_MODE = 0100644;
+
+  /**
+   * Writes entries of a jar as a layer, where every entry is placed under supplied directory.
+   *
+   * @param directory Absolute directory in the image without leading '/', e.g. <code>application
+   *     </code>.
+   */
+  static Descriptor writeJarEntries(
+      final BlobStore blobStore,
+      final ZipFile jar,
+      final List<ZipEntry> entries,
+      final String directory) {
+    // directories of the files are added explicitly, so that they do not get default permissions
+    final Map<String, ZipEntry> sortedEntries = new TreeMap<>();
+    sortedEntries.put(directory + "/", null);
+    for (final var entry : entries) {
+      final String path = directory + "/" + entry.getName();
+      for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+        sortedEntries.putIfAbsent(path.substring(0, i + 1), null);
+      }
+      sortedEntries.put(path, entry);
+    }
+
+    return blobStore.write(
+        OciImageAssembler.LAYER_MEDIA_TYPE,
+        outputStream -> {
+          final var tar = new TarArchiveOutputStream(outputStream);
+          tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+          tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+          for (final var pathAndEntry : sortedEntries.entrySet()) {
+            writeEntry(tar, jar, pathAndEntry.getKey(), pathAndEntry.getValue());
+          }
+          tar.finish();
+        });
+  }
+
+  private static void writeEntry(
+      final TarArchiveOutputStream tar,
+      final ZipFile jar,
+      final String path,
+      final ZipEntry entry)
+      throws IOException {
+    final var tarEntry = new TarArchiveEntry(path);
+    tarEntry.setModTime(MODIFICATION_TIME);
+    tarEntry.setIds(0, 0);
+    tarEntry.setNames("", "");
+    if (entry == null) {
+      tarEntry.setMode(DIRECTORY_MODE);
+      tar.putArchiveEntry(tarEntry);
+    } else {
+      tarEntry.setMode(FILE_MODE);
+      tarEntry.setSize(entry.getSize());
+      tar.putArchiveEntry(tarEntry);
+      try (final var content = jar.getInputStream(entry)) {
+        content.transferTo(tar);
+      }
+    }
+    tar.closeArchiveEntry();
+  }
+}
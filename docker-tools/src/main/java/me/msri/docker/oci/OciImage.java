@@ -0,0 +1,27 @@
+package me.msri.docker.oci;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An image assembled by {@link OciImageAssembler}, whose blobs are in the blob store of the
+ * assembler.
+ *
+ * @param imageName image_repo/image_name of the image, without any tag.
+ * @param tags Tags of the image.
+ * @param config Descriptor of the config of the image.
+ * @param layers Descriptors of all layers of the image, including those of base image.
+ * @param manifest Descriptor of the manifest of the image.
+ */
+public record OciImage(
+    String imageName,
+    Set<String> tags,
+    Descriptor config,
+    List<Descriptor> layers,
+    Descriptor manifest) {
+
+  /** Id of the image, as docker daemon reports it once the image is loaded. */
+  public String id() {
+    return config.digest();
+  }
+}
@@ -0,0 +1,431 @@
+package me.msri.docker.oci;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.docker.BuildContext;
+import me.msri.docker.DockerRunner;
+import me.msri.docker.SpringBootJarLayers;
+import me.msri.docker.exception.DockerRunnerException;
+import me.msri.trace.Phase;
+import me.msri.trace.Span;
+import me.msri.trace.Tracer;
+
+/**
+ * Assembles images of spring boot fat jars without docker daemon building them. Layers of the jar
+ * are written as reproducible tar archives, and combined with layers of a base image, a config and
+ * a manifest, so that the same jar results in the same image id on every machine.
+ *
+ * <p>Layers are reused across images through a {@link LayerStore}. Dependencies that several
+ * services share can be placed in a layer of their own, right above the base image, so that docker
+ * daemon stores, and registries receive only one copy of them for all services.
+ *
+ * <p>Assembled images are either loaded into docker daemon with a single archive, or written as an
+ * OCI image layout directory for other tools. Docker daemon is only needed once, to export the
+ * base image, whose layers are kept in the blob store afterwards.
+ */
+@Slf4j
+public class OciImageAssembler {
+
+  static final String LAYER_MEDIA_TYPE = "application/vnd.oci.image.layer.v1.tar";
+  static final String CONFIG_MEDIA_TYPE = "application/vnd.oci.image.config.v1+json";
+  static final String MANIFEST_MEDIA_TYPE = "application/vnd.oci.image.manifest.v1+json";
+
+  /** Same base image as docker files of {@link me.msri.docker.DockerfileUtil}. */
+  private static final String BASE_IMAGE_NAME = "eclipse-temurin";
+  private static final String BASE_IMAGE_TAG = "17.0.2_8-jre-alpine";
+  private static final String WORKING_DIRECTORY = "application";
+  private static final String DEPENDENCIES_LAYER = "dependencies";
+  private static final String SHARED_DEPENDENCIES_LAYER = "shared-dependencies";
+  private static final String LIBRARY_DIRECTORY = "BOOT-INF/lib/";
+  private static final String CREATION_TIME = "1970-01-01T00:00:00Z";
+  private static final List<String> ENTRYPOINT =
+      List.of("java", "org.springframework.boot.loader.JarLauncher");
+
+  private final DockerRunner dockerRunner;
+  private final BlobStore blobStore;
+  private final LayerStore layerStore;
+  private final long maxStoreSize;
+  private final Path baseImageIndex;
+  private final ObjectMapper objectMapper;
+  private BaseImage baseImage;
+
+  /**
+   * @param storeDirectory Directory where blobs of all assembled images are stored.
+   * @param maxStoreSize Size in bytes that the store is trimmed to by {@link #trimStore()}.
+   */
+  public OciImageAssembler(
+      final DockerRunner dockerRunner, final Path storeDirectory, final long maxStoreSize) {
+    this.dockerRunner = dockerRunner;
+    this.blobStore = new BlobStore(storeDirectory);
+    this.layerStore = new LayerStore(blobStore, storeDirectory.resolve("layers.properties"));
+    this.maxStoreSize = maxStoreSize;
+    this.baseImageIndex = storeDirectory.resolve("base-image.json");
+    this.objectMapper = new ObjectMapper();
+  }
+
+  /**
+   * Assembles an image of a spring boot fat jar, where every layer of the jar is a layer of the
+   * image. Blobs of the image are written to the blob store, and the image is neither loaded, nor
+   * written anywhere else.
+   *
+   * @param imageName image_repo/image_name of the image, without any tag.
+   * @param labels Labels added to config of the image.
+   * @param sharedLibraries File names of dependency jars that are placed in a layer of their own,
+   *     because other images contain them as well. Images share the layer only if they have all of
+   *     these jars.
+   */
+  public OciImage assemble(
+      final String imageName,
+      final Set<String> tags,
+      final Path jarFile,
+      final Map<String, String> labels,
+      final Set<String> sharedLibraries) {
+    return Tracer.start(Phase.IMAGE_ASSEMBLY)
+        .with(Span.IMAGE, imageName)
+        .call(() -> assembleImage(imageName, tags, jarFile, labels, sharedLibraries));
+  }
+
+  private OciImage assembleImage(
+      final String imageName,
+      final Set<String> tags,
+      final Path jarFile,
+      final Map<String, String> labels,
+      final Set<String> sharedLibraries) {
+    final long start = System.currentTimeMillis();
+    final var base = getBaseImage();
+
+    final List<Descriptor> applicationLayers = new ArrayList<>();
+    final List<String> layerNames = new ArrayList<>();
+    try (final var jar = new ZipFile(jarFile.toFile())) {
+      splitSharedLibraries(SpringBootJarLayers.read(jar), sharedLibraries)
+          .forEach(
+              (layerName, entries) -> {
+                applicationLayers.add(layerStore.getOrWrite(jar, entries, WORKING_DIRECTORY));
+                layerNames.add(layerName);
+              });
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+
+    final var config = createConfig(base, applicationLayers, layerNames, labels);
+    final List<Descriptor> layers = new ArrayList<>(base.layers());
+    layers.addAll(applicationLayers);
+    final var manifest = createManifest(config, layers);
+    layerStore.markUsed(config.digest());
+    layerStore.markUsed(manifest.digest());
+
+    log.info("""
+            Image assembled -
+            Name: {}
+            Tags: {}
+            Id: {}
+            Total time of assembly: {}ms
+            """, imageName, tags, config.digest(), (System.currentTimeMillis() - start));
+    return new OciImage(imageName, Set.copyOf(tags), config, List.copyOf(layers), manifest);
+  }
+
+  /**
+   * Evicts least recently used blobs, which are not used by images assembled by this assembler,
+   * till the store is within its size limit.
+   */
+  public void trimStore() {
+    layerStore.evict(maxStoreSize);
+  }
+
+  /**
+   * Loads an assembled image into docker daemon, with all its tags. Blobs are streamed from the
+   * blob store, in the format of <code>docker save</code>.
+   *
+   * @return Id of the loaded image.
+   */
+  public String load(final OciImage image) {
+    final var archiveManifest = objectMapper.createArrayNode();
+    final var imageManifest = archiveManifest.addObject();
+    imageManifest.put("Config", toBlobPath(image.config()));
+    final var repoTags = imageManifest.putArray("RepoTags");
+    image.tags().stream().sorted().forEach(tag -> repoTags.add(image.imageName() + ":" + tag));
+    final var layerPaths = imageManifest.putArray("Layers");
+    image.layers().forEach(layer -> layerPaths.add(toBlobPath(layer)));
+
+    final var archive = new BuildContext();
+    try {
+      archive.addContent("manifest.json", objectMapper.writeValueAsString(archiveManifest));
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+    final Set<Descriptor> blobs = new LinkedHashSet<>();
+    blobs.add(image.config());
+    blobs.addAll(image.layers());
+    blobs.forEach(blob -> archive.addFile(toBlobPath(blob), blobStore.getPath(blob.digest())));
+
+    try (final var archiveStream = archive.open()) {
+      dockerRunner.loadImage(archiveStream);
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+    return image.id();
+  }
+
+  /**
+   * Writes an assembled image as an OCI image layout, where every tag of the image is a reference
+   * of its manifest.
+   */
+  public void writeLayout(final OciImage image, final Path layoutDirectory) {
+    try {
+      Files.createDirectories(layoutDirectory);
+      Files.writeString(
+          layoutDirectory.resolve("oci-layout"), "{\"imageLayoutVersion\":\"1.0.0\"}");
+
+      final var index = objectMapper.createObjectNode();
+      index.put("schemaVersion", 2);
+      final var manifests = index.putArray("manifests");
+      for (final String tag : image.tags().stream().sorted().toList()) {
+        final var manifest = toJson(image.manifest());
+        manifest.putObject("annotations").put("org.opencontainers.image.ref.name", tag);
+        manifests.add(manifest);
+      }
+      Files.write(layoutDirectory.resolve("index.json"), objectMapper.writeValueAsBytes(index));
+
+      final Set<Descriptor> blobs = new LinkedHashSet<>();
+      blobs.add(image.manifest());
+      blobs.add(image.config());
+      blobs.addAll(image.layers());
+      final var layoutBlobs = new BlobStore(layoutDirectory);
+      for (final var blob : blobs) {
+        copyBlob(blob, layoutBlobs.getPath(blob.digest()));
+      }
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+  }
+
+  /** Provides the base image, which is exported from docker daemon only if it is not stored. */
+  private synchronized BaseImage getBaseImage() {
+    if (baseImage != null) {
+      return baseImage;
+    }
+
+    final String baseImageRef = BASE_IMAGE_NAME + ":" + BASE_IMAGE_TAG;
+    var image = dockerRunner.findImage(baseImageRef);
+    if (image.isEmpty()) {
+      dockerRunner.pullImage(BASE_IMAGE_NAME, BASE_IMAGE_TAG);
+      image = dockerRunner.findImage(baseImageRef);
+    }
+    final String baseImageId =
+        image.orElseThrow(() -> new DockerRunnerException("Base image not found: " + baseImageRef))
+            .id();
+
+    baseImage = readStoredBaseImage(baseImageId);
+    if (baseImage == null) {
+      final long start = System.currentTimeMillis();
+      try (final var dockerArchive = dockerRunner.saveImage(baseImageRef)) {
+        baseImage = BaseImage.read(dockerArchive, blobStore, objectMapper);
+      } catch (IOException e) {
+        throw new DockerRunnerException(e);
+      }
+      storeBaseImage(baseImageId, baseImage);
+      log.info(
+          "Base image: {} exported in time: {}ms",
+          baseImageRef,
+          System.currentTimeMillis() - start);
+    }
+    baseImage.layers().forEach(layer -> layerStore.markUsed(layer.digest()));
+    return baseImage;
+  }
+
+  /**
+   * Moves shared libraries out of dependencies layer, to a layer that is placed before all other
+   * layers of the jar.
+   */
+  private static Map<String, List<ZipEntry>> splitSharedLibraries(
+      final Map<String, List<ZipEntry>> layers, final Set<String> sharedLibraries) {
+    final var dependencies = layers.get(DEPENDENCIES_LAYER);
+    if (sharedLibraries.isEmpty() || dependencies == null) {
+      return layers;
+    }
+
+    final Map<Boolean, List<ZipEntry>> sharedAndOwnDependencies =
+        dependencies.stream()
+            .collect(
+                Collectors.partitioningBy(
+                    entry ->
+                        entry.getName().startsWith(LIBRARY_DIRECTORY)
+                            && sharedLibraries.contains(
+                                entry.getName().substring(LIBRARY_DIRECTORY.length()))));
+    if (sharedAndOwnDependencies.get(true).isEmpty()) {
+      return layers;
+    }
+
+    final Map<String, List<ZipEntry>> splitLayers = new LinkedHashMap<>();
+    splitLayers.put(SHARED_DEPENDENCIES_LAYER, sharedAndOwnDependencies.get(true));
+    layers.forEach(
+        (layerName, entries) -> {
+          if (!DEPENDENCIES_LAYER.equals(layerName)) {
+            splitLayers.put(layerName, entries);
+          } else if (!sharedAndOwnDependencies.get(false).isEmpty()) {
+            splitLayers.put(layerName, sharedAndOwnDependencies.get(false));
+          }
+        });
+    return splitLayers;
+  }
+
+  /** @return Base image stored earlier, null if it is not stored, or it has changed since. */
+  private BaseImage readStoredBaseImage(final String baseImageId) {
+    if (!Files.isRegularFile(baseImageIndex)) {
+      return null;
+    }
+
+    try {
+      final var index = objectMapper.readTree(baseImageIndex.toFile());
+      if (!baseImageId.equals(index.path("id").asText())
+          || !blobStore.contains(index.path("config").asText())) {
+        return null;
+      }
+      final List<Descriptor> layers = new ArrayList<>();
+      for (final JsonNode layer : index.path("layers")) {
+        final var descriptor = fromJson(layer);
+        if (!blobStore.contains(descriptor.digest())) {
+          return null;
+        }
+        layers.add(descriptor);
+      }
+      final var config =
+          (ObjectNode)
+              objectMapper.readTree(
+                  blobStore.getPath(index.path("config").asText()).toFile());
+      return new BaseImage(config, List.copyOf(layers));
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not read stored base image: {}", baseImageIndex, e);
+      return null;
+    }
+  }
+
+  private void storeBaseImage(final String baseImageId, final BaseImage image) {
+    try {
+      final var configDescriptor =
+          blobStore.put(CONFIG_MEDIA_TYPE, objectMapper.writeValueAsBytes(image.config()));
+      layerStore.markUsed(configDescriptor.digest());
+      final var index = objectMapper.createObjectNode();
+      index.put("id", baseImageId);
+      index.put("config", configDescriptor.digest());
+      final var layers = index.putArray("layers");
+      image.layers().forEach(layer -> layers.add(toJson(layer)));
+      Files.write(baseImageIndex, objectMapper.writeValueAsBytes(index));
+    } catch (IOException e) {
+      log.warn("Could not store base image: {}", baseImageIndex, e);
+    }
+  }
+
+  private Descriptor createConfig(
+      final BaseImage base,
+      final List<Descriptor> applicationLayers,
+      final List<String> layerNames,
+      final Map<String, String> labels) {
+    final var config = base.config().deepCopy();
+    config.put("created", CREATION_TIME);
+    // describe the container that built the base image, which does not apply to this image
+    config.remove("container");
+    config.remove("container_config");
+
+    final var containerConfig =
+        config.has("config") ? (ObjectNode) config.get("config") : config.putObject("config");
+    containerConfig.put("WorkingDir", "/" + WORKING_DIRECTORY);
+    final var entrypoint = containerConfig.putArray("Entrypoint");
+    ENTRYPOINT.forEach(entrypoint::add);
+    containerConfig.remove("Cmd");
+    if (!labels.isEmpty()) {
+      final var configLabels =
+          containerConfig.path("Labels").isObject()
+              ? (ObjectNode) containerConfig.get("Labels")
+              : containerConfig.putObject("Labels");
+      labels.forEach(configLabels::put);
+    }
+
+    final var rootfs =
+        config.has("rootfs") ? (ObjectNode) config.get("rootfs") : config.putObject("rootfs");
+    rootfs.put("type", "layers");
+    final var diffIds =
+        rootfs.path("diff_ids").isArray()
+            ? (ArrayNode) rootfs.get("diff_ids")
+            : rootfs.putArray("diff_ids");
+    final var history =
+        config.path("history").isArray()
+            ? (ArrayNode) config.get("history")
+            : config.putArray("history");
+    for (int i = 0; i < applicationLayers.size(); i++) {
+      // layers are not compressed, so digest of a layer is its diff id
+      diffIds.add(applicationLayers.get(i).digest());
+      history
+          .addObject()
+          .put("created", CREATION_TIME)
+          .put("created_by", "layer: " + layerNames.get(i));
+    }
+
+    try {
+      return blobStore.put(CONFIG_MEDIA_TYPE, objectMapper.writeValueAsBytes(config));
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+  }
+
+  private Descriptor createManifest(final Descriptor config, final List<Descriptor> layers) {
+    final var manifest = objectMapper.createObjectNode();
+    manifest.put("schemaVersion", 2);
+    manifest.put("mediaType", MANIFEST_MEDIA_TYPE);
+    manifest.set("config", toJson(config));
+    final var manifestLayers = manifest.putArray("layers");
+    layers.forEach(layer -> manifestLayers.add(toJson(layer)));
+    try {
+      return blobStore.put(MANIFEST_MEDIA_TYPE, objectMapper.writeValueAsBytes(manifest));
+    } catch (IOException e) {
+      throw new DockerRunnerException(e);
+    }
+  }
+
+  private void copyBlob(final Descriptor blob, final Path target) throws IOException {
+    if (Files.isRegularFile(target)) {
+      return;
+    }
+    Files.createDirectories(target.getParent());
+    final var source = blobStore.getPath(blob.digest());
+    try {
+      // blobs are immutable, so they are linked instead of copied where possible
+      Files.createLink(target, source);
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private ObjectNode toJson(final Descriptor descriptor) {
+    final var json = objectMapper.createObjectNode();
+    json.put("mediaType", descriptor.mediaType());
+    json.put("digest", descriptor.digest());
+    json.put("size", descriptor.size());
+    return json;
+  }
+
+  private static Descriptor fromJson(final JsonNode json) {
+    return new Descriptor(
+        json.path("mediaType").asText(), json.path("digest").asText(), json.path("size").asLong());
+  }
+
+  private static String toBlobPath(final Descriptor descriptor) {
+    return "blobs/sha256/" + descriptor.digest().substring("sha256:".length());
+  }
+}
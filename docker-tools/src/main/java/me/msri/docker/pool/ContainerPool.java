@@ -0,0 +1,432 @@
+package me.msri.docker.pool;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.docker.AsyncDockerRunner;
+import me.msri.docker.ContainerStatus;
+import me.msri.docker.DockerClientProvider;
+import me.msri.docker.DockerRunner;
+import me.msri.docker.exception.DockerRunnerException;
+
+/**
+ * Pool of started containers of images, so that a test gets a container whose application is
+ * already up, instead of waiting for the container to be created, and the application to boot.
+ *
+ * <p>For every image that is asked for, the pool keeps up to {@link ContainerPoolOptions#size()}
+ * warm containers, that are started in background. A released container is reset according to
+ * {@link ContainerPoolOptions#recycle()}, also in background, and takes its slot among the warm
+ * ones again. Only a container that is removed, e.g. as it is recreated, is replaced by a new one,
+ * so that unless containers are recreated, a handed out container leaves its slot empty till it is
+ * released, and no more than <code>size</code> containers of an image run at once, while all of
+ * them are in use. A container is then started for a caller that finds none warm, and removed once
+ * it is released.
+ *
+ * <p>A container is ready when the health check of its image reports it as healthy, or if the
+ * image has no health check, when all of its published ports accept connections. Containers are
+ * labelled with the id of their pool, and with the host, and process that own them, so that
+ * containers left behind by a test JVM that did not exit cleanly are removed by the next shared
+ * pool on the same host. Containers of pools on other hosts, or in other PID namespaces, e.g. of CI
+ * jobs sharing the docker daemon, are left to their own pools, as their processes can not be
+ * looked up here.
+ */
+@Slf4j
+public class ContainerPool implements AutoCloseable {
+
+  /** Label that marks containers of pools, with id of the pool as its value. */
+  public static final String POOL_LABEL = "me.msri.container-pool";
+
+  /** Label of pooled containers, with id of the process that owns them as its value. */
+  public static final String OWNER_PID_LABEL = "me.msri.container-pool.pid";
+
+  /**
+   * Label of pooled containers, with the host, its boot, and the PID namespace of the process that
+   * owns them as its value, in which the id of the process is valid.
+   */
+  public static final String OWNER_HOST_LABEL = "me.msri.container-pool.host";
+
+  private static final String OWNER_HOST = getOwnerHost();
+
+  private static final Duration READINESS_POLL_INTERVAL = Duration.ofMillis(250);
+  private static final Duration STOP_TIMEOUT = Duration.ofSeconds(10);
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(60);
+  private static final int CONNECT_TIMEOUT_MILLIS = 200;
+
+  private static ContainerPool sharedPool;
+
+  private final DockerRunner dockerRunner;
+  private final AsyncDockerRunner asyncDockerRunner;
+  private final ContainerPoolOptions options;
+  private final Map<String, String> labels;
+  private final String host;
+  /** Key: name:tag of image, Value: Warm containers, ready or being made ready, oldest first. */
+  private final Map<String, Deque<CompletableFuture<PooledContainer>>> warmContainers =
+      new ConcurrentHashMap<>();
+  private final ScheduledExecutorService readinessPoller;
+  private volatile boolean closed;
+
+  /** @param dockerRunner Runner of containers of the pool, that is closed along with the pool. */
+  public ContainerPool(final DockerRunner dockerRunner, final ContainerPoolOptions options) {
+    this.dockerRunner = dockerRunner;
+    this.asyncDockerRunner = new AsyncDockerRunner(dockerRunner);
+    this.options = options;
+    this.labels =
+        Map.of(
+            POOL_LABEL,
+            Long.toHexString(System.nanoTime()),
+            OWNER_PID_LABEL,
+            String.valueOf(ProcessHandle.current().pid()),
+            OWNER_HOST_LABEL,
+            OWNER_HOST);
+    this.host = getDockerHost();
+    final var threadCount = new AtomicInteger();
+    this.readinessPoller =
+        Executors.newScheduledThreadPool(
+            2,
+            runnable -> {
+              final var thread =
+                  new Thread(runnable, "container-readiness-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Provides the pool shared by all tests of the JVM, configured by system properties. It is
+   * created on first use, starts containers of images listed in {@link
+   * ContainerPoolOptions#prewarm()}, and removes all of its containers when the JVM exits.
+   */
+  public static synchronized ContainerPool getShared() {
+    if (sharedPool == null) {
+      final var pool =
+          new ContainerPool(
+              new DockerRunner(DockerClientProvider.newInstance()),
+              ContainerPoolOptions.fromSystemProperties());
+      pool.removeOrphanedContainers();
+      for (final String image : pool.options.prewarm()) {
+        final int separator = image.lastIndexOf(':');
+        pool.prewarm(image.substring(0, separator), image.substring(separator + 1));
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "container-pool-cleanup"));
+      sharedPool = pool;
+    }
+    return sharedPool;
+  }
+
+  /** Starts containers of an image in background, till the pool has enough warm containers. */
+  public void prewarm(final String imageName, final String tag) {
+    replenish(imageName, tag);
+  }
+
+  /**
+   * Hands out a ready container of an image, and waits for it if none is ready yet. Unless
+   * released containers are recreated, its slot in the pool stays free till it is released.
+   *
+   * @throws DockerRunnerException If container could not be started, or did not become ready in
+   *     time.
+   */
+  public PooledContainer acquire(final String imageName, final String tag) {
+    try {
+      return acquireAsync(imageName, tag).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof DockerRunnerException cause) {
+        throw cause;
+      }
+      throw new DockerRunnerException(e.getCause() instanceof Exception cause ? cause : e);
+    }
+  }
+
+  /**
+   * @see #acquire(String, String)
+   */
+  public CompletableFuture<PooledContainer> acquireAsync(final String imageName, final String tag) {
+    if (closed) {
+      throw new DockerRunnerException("Container pool is closed.");
+    }
+
+    final var warm = getWarmContainers(imageName, tag).poll();
+    // a warm container that failed, e.g. because its application crashed, is replaced right away
+    final var container =
+        warm == null
+            ? startContainer(imageName, tag)
+            : warm.exceptionallyCompose(
+                failure -> {
+                  log.warn("Warm container of: {}:{} failed, starting another.", imageName, tag,
+                      failure);
+                  return startContainer(imageName, tag);
+                });
+    // a recycled container takes its slot again, while a removed one needs a replacement
+    if (options.recycle() == ContainerPoolOptions.Recycle.RECREATE) {
+      replenish(imageName, tag);
+    }
+    return container;
+  }
+
+  /**
+   * Returns a container to the pool. It is reset in background, and handed out again once it is
+   * ready. A container that finds no free slot, e.g. one started while all warm containers were
+   * handed out, is removed.
+   */
+  public void release(final PooledContainer container) {
+    final var pooled = getWarmContainers(container.imageName(), container.tag());
+    synchronized (pooled) {
+      if (!closed
+          && options.recycle() != ContainerPoolOptions.Recycle.RECREATE
+          && pooled.size() < options.size()) {
+        pooled.add(recycle(container));
+        return;
+      }
+    }
+
+    removeInBackground(container.id());
+    replenish(container.imageName(), container.tag());
+  }
+
+  private CompletableFuture<PooledContainer> recycle(final PooledContainer container) {
+    return switch (options.recycle()) {
+      case REUSE -> CompletableFuture.completedFuture(container);
+      default -> asyncDockerRunner
+          .restartContainer(container.id(), STOP_TIMEOUT, options.startupTimeout())
+          .thenCompose(
+              ignored ->
+                  awaitReady(
+                      container.imageName(),
+                      container.tag(),
+                      container.id(),
+                      System.nanoTime() + options.startupTimeout().toNanos()));
+    };
+  }
+
+  /**
+   * Removes all containers of the pool, whether they are warm, or still handed out, and waits for
+   * the removals.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      // containers still being started are labelled already, so they are found by their label
+      warmContainers.values().forEach(pooled -> pooled.forEach(it -> it.cancel(true)));
+      final var removals =
+          dockerRunner.listContainers(POOL_LABEL).stream()
+              .filter(container -> isOwned(container.labels()))
+              .map(container -> asyncDockerRunner.removeContainer(container.id(), STOP_TIMEOUT))
+              .toArray(CompletableFuture[]::new);
+      CompletableFuture.allOf(removals).get(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+      log.info("Container pool closed, removed containers: {}", removals.length);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      log.warn("Failed to remove all containers of the pool.", e);
+    } finally {
+      readinessPoller.shutdownNow();
+      asyncDockerRunner.close();
+      dockerRunner.close();
+    }
+  }
+
+  private Deque<CompletableFuture<PooledContainer>> getWarmContainers(
+      final String imageName, final String tag) {
+    return warmContainers.computeIfAbsent(
+        imageName + ":" + tag, key -> new ConcurrentLinkedDeque<>());
+  }
+
+  private void replenish(final String imageName, final String tag) {
+    if (closed) {
+      return;
+    }
+    final var pooled = getWarmContainers(imageName, tag);
+    synchronized (pooled) {
+      while (pooled.size() < options.size()) {
+        pooled.add(startContainer(imageName, tag));
+      }
+    }
+  }
+
+  private CompletableFuture<PooledContainer> startContainer(
+      final String imageName, final String tag) {
+    final long deadline = System.nanoTime() + options.startupTimeout().toNanos();
+    return asyncDockerRunner
+        .startContainer(imageName + ":" + tag, labels, options.startupTimeout())
+        .thenCompose(containerId -> awaitReady(imageName, tag, containerId, deadline));
+  }
+
+  /**
+   * Polls state of a container till it is ready. A container that exits, becomes unhealthy, or is
+   * not ready by the deadline is removed, and the returned future fails.
+   */
+  private CompletableFuture<PooledContainer> awaitReady(
+      final String imageName, final String tag, final String containerId, final long deadline) {
+    final var ready = new CompletableFuture<PooledContainer>();
+    final long start = System.currentTimeMillis();
+    final Runnable poll =
+        new Runnable() {
+          @Override
+          public void run() {
+            if (ready.isDone()) {
+              return;
+            }
+            try {
+              final var status =
+                  dockerRunner
+                      .inspectContainer(containerId)
+                      .orElseThrow(
+                          () -> new DockerRunnerException("Container removed: " + containerId));
+              if (isReady(status, imageName, tag)) {
+                log.info("Container: {} of: {}:{} ready in time: {}ms", containerId, imageName,
+                    tag, System.currentTimeMillis() - start);
+                ready.complete(
+                    new PooledContainer(imageName, tag, containerId, host, status.publishedPorts()));
+              } else if (System.nanoTime() - deadline > 0) {
+                ready.completeExceptionally(
+                    new TimeoutException("Container: " + containerId + " is not ready in time."));
+              } else {
+                readinessPoller.schedule(
+                    this, READINESS_POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+              }
+            } catch (RuntimeException e) {
+              ready.completeExceptionally(e);
+            }
+          }
+        };
+    readinessPoller.execute(poll);
+    return ready.whenComplete(
+        (container, failure) -> {
+          if (failure != null) {
+            removeInBackground(containerId);
+          }
+        });
+  }
+
+  private boolean isReady(final ContainerStatus status, final String imageName, final String tag) {
+    if (!status.running()) {
+      throw new DockerRunnerException(
+          "Container: " + status.id() + " of: " + imageName + ":" + tag + " exited.");
+    }
+    if (status.health() != null) {
+      if ("unhealthy".equals(status.health())) {
+        throw new DockerRunnerException(
+            "Container: " + status.id() + " of: " + imageName + ":" + tag + " is unhealthy.");
+      }
+      return "healthy".equals(status.health());
+    }
+    return status.publishedPorts().values().stream().allMatch(this::acceptsConnections);
+  }
+
+  private boolean acceptsConnections(final int hostPort) {
+    try (final var socket = new Socket()) {
+      socket.connect(new InetSocketAddress(host, hostPort), CONNECT_TIMEOUT_MILLIS);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void removeInBackground(final String containerId) {
+    asyncDockerRunner
+        .removeContainer(containerId, STOP_TIMEOUT)
+        .exceptionally(
+            failure -> {
+              log.warn("Failed to remove container: {}", containerId, failure);
+              return null;
+            });
+  }
+
+  private boolean isOwned(final Map<String, String> containerLabels) {
+    return labels.get(POOL_LABEL).equals(containerLabels.get(POOL_LABEL))
+        && labels.get(OWNER_PID_LABEL).equals(containerLabels.get(OWNER_PID_LABEL));
+  }
+
+  /**
+   * Removes pooled containers, older than {@link ContainerPoolOptions#orphanMinAge()}, of processes
+   * of this host that are not running anymore.
+   */
+  private void removeOrphanedContainers() {
+    final Instant createdBefore = Instant.now().minus(options.orphanMinAge());
+    try {
+      dockerRunner.listContainers(POOL_LABEL).stream()
+          .filter(container -> OWNER_HOST.equals(container.labels().get(OWNER_HOST_LABEL)))
+          .filter(container -> container.created().isBefore(createdBefore))
+          .filter(
+              container ->
+                  parsePid(container.labels().get(OWNER_PID_LABEL))
+                      .flatMap(ProcessHandle::of)
+                      .filter(ProcessHandle::isAlive)
+                      .isEmpty())
+          .forEach(container -> removeInBackground(container.id()));
+    } catch (RuntimeException e) {
+      log.warn("Failed to remove orphaned containers of earlier pools.", e);
+    }
+  }
+
+  private static Optional<Long> parsePid(final String pid) {
+    try {
+      return Optional.of(Long.parseLong(pid));
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Identifies the host by its name, and by its boot, as a host that restarted runs none of its
+   * earlier processes, along with the PID namespace of this process, where the kernel tells them.
+   */
+  private static String getOwnerHost() {
+    final List<String> parts = new ArrayList<>();
+    try {
+      parts.add(InetAddress.getLocalHost().getHostName());
+    } catch (IOException e) {
+      parts.add(Objects.requireNonNullElse(System.getenv("HOSTNAME"), "unknown"));
+    }
+    try {
+      final Path bootId = Path.of("/proc/sys/kernel/random/boot_id");
+      if (Files.isReadable(bootId)) {
+        parts.add(Files.readString(bootId).strip());
+      }
+      final Path pidNamespace = Path.of("/proc/self/ns/pid");
+      if (Files.isSymbolicLink(pidNamespace)) {
+        parts.add(Files.readSymbolicLink(pidNamespace).toString());
+      }
+    } catch (IOException | RuntimeException e) {
+      log.debug("Could not read boot, or PID namespace of this host.", e);
+    }
+    return String.join("/", parts);
+  }
+
+  /** Published ports are reachable on the host of a remote docker daemon, otherwise locally. */
+  private static String getDockerHost() {
+    final String dockerHost = System.getenv("DOCKER_HOST");
+    if (dockerHost != null && dockerHost.startsWith("tcp://")) {
+      final String remoteHost = URI.create(dockerHost).getHost();
+      if (remoteHost != null) {
+        return remoteHost;
+      }
+    }
+    return "localhost";
+  }
+}
@@ -0,0 +1,113 @@
+package me.msri.docker.pool;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Options of {@link ContainerPool}. The shared pool reads them from system properties of the test
+ * JVM, for example <code>-Dmsri.pool.size=2</code>.
+ *
+ * @param size Number of warm containers kept ready for every image that was asked for.
+ * @param recycle How a container is made ready for its next user, once it is released.
+ * @param startupTimeout Maximum time allowed for a container to start, and become ready.
+ * @param prewarm Images, as <code>name:tag</code>, whose containers are started as soon as the
+ *     pool is created, before any test asks for them.
+ * @param orphanMinAge Age after which a container, whose owning process on this host is not
+ *     running anymore, is removed by the next shared pool.
+ */
+@Slf4j
+public record ContainerPoolOptions(
+    int size,
+    Recycle recycle,
+    Duration startupTimeout,
+    List<String> prewarm,
+    Duration orphanMinAge) {
+
+  static final String SIZE = "msri.pool.size";
+  static final String RECYCLE = "msri.pool.recycle";
+  static final String STARTUP_TIMEOUT_SECONDS = "msri.pool.startupTimeoutSeconds";
+  static final String PREWARM = "msri.pool.prewarm";
+  static final String ORPHAN_MIN_AGE_MINUTES = "msri.pool.orphanMinAgeMinutes";
+
+  private static final long DEFAULT_SIZE = 1;
+  private static final long DEFAULT_STARTUP_TIMEOUT_SECONDS = 120;
+  private static final long DEFAULT_ORPHAN_MIN_AGE_MINUTES = 10;
+
+  /**
+   * Way of resetting a released container, before it is handed out again. Except for {@link
+   * #RECREATE}, a handed out container is not replaced till it is released.
+   */
+  public enum Recycle {
+    /** Container is restarted, so that its application starts over. */
+    RESTART,
+    /**
+     * Container is removed, and a new one is started in its place. The new one is started as soon
+     * as a container is handed out, so that it is ready by the time the next one is asked for.
+     */
+    RECREATE,
+    /** Container is handed out as it is, for tests that do not depend on its state. */
+    REUSE
+  }
+
+  /** Reads options from system properties, and falls back to defaults where absent. */
+  public static ContainerPoolOptions fromSystemProperties() {
+    return from(
+        Map.of(
+            SIZE, System.getProperty(SIZE, ""),
+            RECYCLE, System.getProperty(RECYCLE, ""),
+            STARTUP_TIMEOUT_SECONDS, System.getProperty(STARTUP_TIMEOUT_SECONDS, ""),
+            PREWARM, System.getProperty(PREWARM, ""),
+            ORPHAN_MIN_AGE_MINUTES, System.getProperty(ORPHAN_MIN_AGE_MINUTES, "")));
+  }
+
+  public static ContainerPoolOptions from(final Map<String, String> options) {
+    return new ContainerPoolOptions(
+        (int) readPositiveLong(options, SIZE, DEFAULT_SIZE),
+        readRecycle(options),
+        Duration.ofSeconds(
+            readPositiveLong(options, STARTUP_TIMEOUT_SECONDS, DEFAULT_STARTUP_TIMEOUT_SECONDS)),
+        Arrays.stream(options.getOrDefault(PREWARM, "").split(","))
+            .map(String::strip)
+            .filter(image -> image.indexOf(':') > 0)
+            .toList(),
+        Duration.ofMinutes(
+            readPositiveLong(options, ORPHAN_MIN_AGE_MINUTES, DEFAULT_ORPHAN_MIN_AGE_MINUTES)));
+  }
+
+  private static Recycle readRecycle(final Map<String, String> options) {
+    final String value = options.get(RECYCLE);
+    if (value == null || value.isBlank()) {
+      return Recycle.RESTART;
+    }
+
+    try {
+      return Recycle.valueOf(value.strip().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      log.warn("Invalid value: '{}' for option: {}, using default: {}", value, RECYCLE,
+          Recycle.RESTART);
+      return Recycle.RESTART;
+    }
+  }
+
+  private static long readPositiveLong(
+      final Map<String, String> options, final String name, final long defaultValue) {
+    final String value = options.get(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+
+    try {
+      final long parsedValue = Long.parseLong(value.strip());
+      if (parsedValue > 0) {
+        return parsedValue;
+      }
+    } catch (NumberFormatException e) {
+      // falls through to default value
+    }
+    log.warn("Invalid value: '{}' for option: {}, using default: {}", value, name, defaultValue);
+    return defaultValue;
+  }
+}
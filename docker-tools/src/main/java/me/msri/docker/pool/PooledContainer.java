@@ -0,0 +1,37 @@
+package me.msri.docker.pool;
+
+import java.util.Map;
+import me.msri.docker.exception.DockerRunnerException;
+
+/**
+ * A started container handed out by {@link ContainerPool}. It is returned to the pool with {@link
+ * ContainerPool#release(PooledContainer)}.
+ *
+ * @param imageName image_repo/image_name of the image of the container.
+ * @param tag Tag of the image of the container.
+ * @param id Full id of the container.
+ * @param host Host that published ports of the container are reachable at.
+ * @param publishedPorts Key: Exposed TCP port of the container, Value: Port of the host that it is
+ *     published to.
+ */
+public record PooledContainer(
+    String imageName, String tag, String id, String host, Map<Integer, Integer> publishedPorts) {
+
+  /**
+   * Provides port of the host, that supplied port of the container is published to.
+   *
+   * @throws DockerRunnerException If the image does not expose supplied port.
+   */
+  public int getPort(final int containerPort) {
+    final Integer hostPort = publishedPorts.get(containerPort);
+    if (hostPort == null) {
+      throw new DockerRunnerException(
+          "Port: " + containerPort + " is not exposed by image: " + imageName + ":" + tag);
+    }
+    return hostPort;
+  }
+
+  String repoTag() {
+    return imageName + ":" + tag;
+  }
+}
@@ -0,0 +1,131 @@
+package me.msri.junit;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+import me.msri.annotation.BuildImage;
+import me.msri.docker.pool.ContainerPool;
+import me.msri.docker.pool.PooledContainer;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionConfigurationException;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+/**
+ * JUnit 5 extension that starts containers of images requested by {@link BuildImage} annotations
+ * of a test class, whose images are created by the annotation processor while tests are compiled.
+ *
+ * <pre>
+ * &#64;ExtendWith(BuildImageContainersExtension.class)
+ * &#64;BuildImage(services = "order-service", tag = "it")
+ * class OrderServiceIT {
+ *
+ *   &#64;Test
+ *   void createsOrder(final PooledContainer orderService) {
+ *     final int port = orderService.getPort(8080);
+ *     ...
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>Containers are taken from {@link ContainerPool#getShared()}, that keeps warm containers of
+ * every image, and resets a released container in background, so that the next class finds it
+ * ready. Only if containers are recreated, the next container is started while a class runs, in
+ * other modes a class waits if all containers of its image are still held by earlier classes.
+ * Test methods, and lifecycle methods, get the containers as a parameter of type {@link
+ * ServiceContainers}, or of type {@link PooledContainer} if the class has a single container.
+ */
+@Slf4j
+public class BuildImageContainersExtension implements BeforeAllCallback, ParameterResolver {
+
+  private static final ExtensionContext.Namespace NAMESPACE =
+      ExtensionContext.Namespace.create(BuildImageContainersExtension.class);
+
+  @Override
+  public void beforeAll(final ExtensionContext context) {
+    final var testClass = context.getRequiredTestClass();
+    final var imagesWithTags = getImagesWithTags(testClass);
+    if (imagesWithTags.isEmpty()) {
+      throw new ExtensionConfigurationException(
+          "No @BuildImage annotation found on test class: " + testClass.getName());
+    }
+
+    // containers of all services are acquired at the same time, ready ones are returned at once
+    final var containerPool = ContainerPool.getShared();
+    final var acquisitions =
+        imagesWithTags.stream()
+            .map(image -> containerPool.acquireAsync(image.getKey(), image.getValue()))
+            .toList();
+    final long start = System.currentTimeMillis();
+    final var containers = join(containerPool, acquisitions);
+    log.info("Containers for: {} acquired in time: {}ms", testClass.getSimpleName(),
+        System.currentTimeMillis() - start);
+    context.getStore(NAMESPACE).put(testClass, new ServiceContainers(containerPool, containers));
+  }
+
+  @Override
+  public boolean supportsParameter(
+      final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+    final var type = parameterContext.getParameter().getType();
+    return type == ServiceContainers.class || type == PooledContainer.class;
+  }
+
+  @Override
+  public Object resolveParameter(
+      final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+    final var containers =
+        extensionContext
+            .getStore(NAMESPACE)
+            .get(extensionContext.getRequiredTestClass(), ServiceContainers.class);
+    if (containers == null) {
+      throw new ParameterResolutionException(
+          "Containers are not started for: " + extensionContext.getRequiredTestClass());
+    }
+    if (parameterContext.getParameter().getType() == ServiceContainers.class) {
+      return containers;
+    }
+    if (containers.getAll().size() != 1) {
+      throw new ParameterResolutionException(
+          "Test class has " + containers.getAll().size() + " containers, use ServiceContainers.");
+    }
+    return containers.getAll().get(0);
+  }
+
+  /** Provides name, and tag of every requested image, in order of the annotations. */
+  private static List<Map.Entry<String, String>> getImagesWithTags(final Class<?> testClass) {
+    final Map<String, Map.Entry<String, String>> images = new LinkedHashMap<>();
+    for (final var annotation : testClass.getAnnotationsByType(BuildImage.class)) {
+      final String tag = annotation.tag().trim();
+      Arrays.stream(annotation.services())
+          .filter(Predicate.not(String::isBlank))
+          .map(String::trim)
+          .map(String::toLowerCase)
+          .forEach(serviceName -> images.put(serviceName + ":" + tag, Map.entry(serviceName, tag)));
+    }
+    return List.copyOf(images.values());
+  }
+
+  /**
+   * Waits for all containers. If any of them fails, the ones that did not fail are returned to the
+   * pool, so that they are not left running.
+   */
+  private static List<PooledContainer> join(
+      final ContainerPool containerPool,
+      final List<CompletableFuture<PooledContainer>> acquisitions) {
+    try {
+      CompletableFuture.allOf(acquisitions.toArray(CompletableFuture[]::new)).join();
+      return acquisitions.stream().map(CompletableFuture::join).toList();
+    } catch (CompletionException e) {
+      acquisitions.forEach(
+          acquisition -> acquisition.thenAccept(containerPool::release));
+      throw e.getCause() instanceof RuntimeException cause ? cause : e;
+    }
+  }
+}
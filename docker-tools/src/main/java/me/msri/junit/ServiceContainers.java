@@ -0,0 +1,66 @@
+package me.msri.junit;
+
+import java.util.List;
+import me.msri.docker.pool.ContainerPool;
+import me.msri.docker.pool.PooledContainer;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * Containers handed out to a test class by {@link BuildImageContainersExtension}, one for every
+ * service, and tag of {@link me.msri.annotation.BuildImage} annotations of the class. They are
+ * returned to the pool after all tests of the class are done.
+ */
+public class ServiceContainers implements ExtensionContext.Store.CloseableResource {
+
+  private final ContainerPool containerPool;
+  private final List<PooledContainer> containers;
+
+  ServiceContainers(final ContainerPool containerPool, final List<PooledContainer> containers) {
+    this.containerPool = containerPool;
+    this.containers = containers;
+  }
+
+  /**
+   * Provides container of a service, if the class requested only one tag of it.
+   *
+   * @throws IllegalArgumentException If the class did not request the service, or requested more
+   *     than one tag of it.
+   */
+  public PooledContainer get(final String serviceName) {
+    final var matching =
+        containers.stream()
+            .filter(container -> container.imageName().equalsIgnoreCase(serviceName))
+            .toList();
+    if (matching.size() != 1) {
+      throw new IllegalArgumentException(
+          "Expected one container of service: " + serviceName + ", found: " + matching.size());
+    }
+    return matching.get(0);
+  }
+
+  /**
+   * Provides container of a tag of a service.
+   *
+   * @throws IllegalArgumentException If the class did not request the tag of the service.
+   */
+  public PooledContainer get(final String serviceName, final String tag) {
+    return containers.stream()
+        .filter(container -> container.imageName().equalsIgnoreCase(serviceName))
+        .filter(container -> container.tag().equals(tag))
+        .findFirst()
+        .orElseThrow(
+            () ->
+                new IllegalArgumentException(
+                    "No container of service: " + serviceName + ", with tag: " + tag));
+  }
+
+  public List<PooledContainer> getAll() {
+    return containers;
+  }
+
+  /** Returns all containers to the pool, which resets them for the next test class. */
+  @Override
+  public void close() {
+    containers.forEach(containerPool::release);
+  }
+}
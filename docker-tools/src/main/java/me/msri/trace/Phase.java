@@ -0,0 +1,32 @@
+package me.msri.trace;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/** Phases of creating images, that every {@link Span} belongs to. */
+@AllArgsConstructor
+@Getter
+public enum Phase {
+  /** Creation of image, and tags of a single service, that all its other phases are part of. */
+  SERVICE("service"),
+  /** Loading of projects from build tool, or from its cache. */
+  MODEL_LOAD("model load"),
+  /** A single invocation of build tool, e.g. to create a fat jar. */
+  BUILD_TOOL("build tool"),
+  /** A single task, or goal, that build tool ran. */
+  BUILD_TASK("build task"),
+  /** Listing of images of docker daemon. */
+  IMAGE_LIST("image list"),
+  /** Streaming of build context to docker daemon, as part of a docker build. */
+  CONTEXT_UPLOAD("context upload"),
+  /** Building of an image by docker daemon, including upload of its context. */
+  DOCKER_BUILD("docker build"),
+  /** Assembling of an image without docker daemon. */
+  IMAGE_ASSEMBLY("image assembly"),
+  /** Loading of an assembled image into docker daemon. */
+  IMAGE_LOAD("image load"),
+  TAG("tag"),
+  DELETE("delete");
+
+  private final String displayName;
+}
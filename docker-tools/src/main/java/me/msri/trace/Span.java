@@ -0,0 +1,154 @@
+package me.msri.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A timed phase of creating images, that is part of the span that was current when it started.
+ * Attributes of the parent, e.g. service, and tags, are inherited, so that a docker build started
+ * by a service is attributed to it.
+ *
+ * <p>A span is emitted as {@link SpanEvent}, and collected by {@link Tracer}, once it is closed.
+ * Closing it more than once has no effect.
+ */
+public class Span implements AutoCloseable {
+
+  public static final String SERVICE = "service";
+  public static final String TAGS = "tags";
+  public static final String IMAGE = "image";
+
+  private final long id;
+  private final Span parent;
+  private final Phase phase;
+  private final String name;
+  private final boolean isCurrent;
+  private final Thread thread;
+  private final long startEpochNanos;
+  private final long startNanos;
+  private final Map<String, String> attributes;
+  private final SpanEvent event;
+  private String error;
+  private boolean closed;
+
+  Span(
+      final long id,
+      final Span parent,
+      final Phase phase,
+      final String name,
+      final boolean isCurrent,
+      final long startEpochNanos) {
+    this.id = id;
+    this.parent = parent;
+    this.phase = phase;
+    this.name = name;
+    this.isCurrent = isCurrent;
+    this.thread = Thread.currentThread();
+    this.startEpochNanos = startEpochNanos;
+    this.startNanos = System.nanoTime();
+    this.attributes = parent == null ? new LinkedHashMap<>() : parent.getInheritedAttributes();
+    this.event = new SpanEvent();
+    event.begin();
+  }
+
+  /** Adds an attribute, that spans started within this span inherit as well. */
+  public synchronized Span with(final String key, final Object value) {
+    attributes.put(key, String.valueOf(value));
+    return this;
+  }
+
+  /** Marks the span as failed, it is still to be closed. */
+  public Span fail(final Throwable failure) {
+    return fail(failure.getClass().getSimpleName() + ": " + failure.getMessage());
+  }
+
+  /** @see #fail(Throwable) */
+  public synchronized Span fail(final String reason) {
+    error = reason;
+    return this;
+  }
+
+  /** Runs work within this span, and closes the span, after marking it failed if work fails. */
+  public <T> T call(final Supplier<T> work) {
+    try {
+      return work.get();
+    } catch (RuntimeException e) {
+      fail(e);
+      throw e;
+    } finally {
+      close();
+    }
+  }
+
+  /** @see #call(Supplier) */
+  public void run(final Runnable work) {
+    call(
+        () -> {
+          work.run();
+          return null;
+        });
+  }
+
+  /**
+   * Records a part of this span that already finished, e.g. a task that build tool reported to
+   * another thread.
+   *
+   * @see Tracer#record(Phase, String, long, long, String)
+   */
+  public void recordChild(
+      final Phase phase,
+      final String name,
+      final long startEpochMillis,
+      final long endEpochMillis,
+      final String error) {
+    Tracer.record(this, phase, name, startEpochMillis, endEpochMillis, error);
+  }
+
+  @Override
+  public void close() {
+    final SpanData data;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      data =
+          new SpanData(
+              id,
+              parent == null ? 0 : parent.id,
+              phase,
+              name,
+              startEpochNanos,
+              System.nanoTime() - startNanos,
+              thread.getId(),
+              thread.getName(),
+              Map.copyOf(attributes),
+              error);
+    }
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.name = name;
+      event.phase = phase.getDisplayName();
+      event.service = data.attributes().get(SERVICE);
+      event.tags = data.attributes().get(TAGS);
+      event.spanId = id;
+      event.parentId = data.parentId();
+      event.error = error;
+      event.commit();
+    }
+    // a span may be closed by another thread, e.g. once docker completes a callback
+    if (isCurrent && Thread.currentThread() == thread) {
+      Tracer.restoreCurrent(this, parent);
+    }
+    Tracer.collect(data);
+  }
+
+  long getId() {
+    return id;
+  }
+
+  synchronized Map<String, String> getInheritedAttributes() {
+    return new LinkedHashMap<>(attributes);
+  }
+}
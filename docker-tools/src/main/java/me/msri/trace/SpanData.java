@@ -0,0 +1,34 @@
+package me.msri.trace;
+
+import java.util.Map;
+
+/**
+ * A finished {@link Span}.
+ *
+ * @param spanId Id of the span, unique within this JVM.
+ * @param parentId Id of the span that this span is part of, 0 if it is not part of any span.
+ * @param startEpochNanos Start of the span, as nanoseconds since epoch.
+ * @param threadId Id of the thread that started the span.
+ * @param attributes E.g. service, and tags the span was for.
+ * @param error Reason of failure, null if the span succeeded.
+ */
+public record SpanData(
+    long spanId,
+    long parentId,
+    Phase phase,
+    String name,
+    long startEpochNanos,
+    long durationNanos,
+    long threadId,
+    String threadName,
+    Map<String, String> attributes,
+    String error) {
+
+  public long durationMillis() {
+    return durationNanos / 1_000_000;
+  }
+
+  public long endEpochNanos() {
+    return startEpochNanos + durationNanos;
+  }
+}
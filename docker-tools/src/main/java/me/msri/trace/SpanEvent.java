@@ -0,0 +1,42 @@
+package me.msri.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a {@link Span}, e.g. to be viewed in JDK Mission Control along with GC, and I/O of
+ * the compiler. It is recorded only while a recording that enables it is running, e.g. one started
+ * by <code>-XX:StartFlightRecording</code>.
+ */
+@Name("me.msri.Span")
+@Label("Image Build Span")
+@Description("A phase of creating images of services")
+@Category({"msri", "Image Build"})
+@StackTrace(false)
+class SpanEvent extends Event {
+
+  @Label("Name")
+  String name;
+
+  @Label("Phase")
+  String phase;
+
+  @Label("Service")
+  String service;
+
+  @Label("Tags")
+  String tags;
+
+  @Label("Span Id")
+  long spanId;
+
+  @Label("Parent Span Id")
+  long parentId;
+
+  @Label("Error")
+  String error;
+}
@@ -0,0 +1,182 @@
+package me.msri.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+/** Writes collected spans to files, and summarises them per service. */
+@Slf4j
+@UtilityClass
+public class TraceExporter {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final DateTimeFormatter FILE_TIMESTAMP =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+  private static final String INSTRUMENTATION_SCOPE = "me.msri.docker";
+
+  /**
+   * Writes spans to a new file in supplied directory, that is named after the time it is written
+   * at. Failure to write is logged only, as the trace is not needed to create images.
+   *
+   * @return Path of the written file, empty if format is {@link TraceFormat#NONE}, or if there are
+   *     no spans, or if the file could not be written.
+   */
+  public static Optional<Path> write(
+      final List<SpanData> spans, final TraceFormat format, final Path directory) {
+    if (format == TraceFormat.NONE || spans.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP);
+    final Path file =
+        directory.resolve(
+            format == TraceFormat.CHROME
+                ? "trace-" + timestamp + ".json"
+                : "trace-" + timestamp + ".otlp.json");
+    try {
+      Files.createDirectories(directory);
+      MAPPER.writeValue(
+          file.toFile(), format == TraceFormat.CHROME ? toChromeTrace(spans) : toOtlp(spans));
+      log.info("Trace of {} spans written to: {}", spans.size(), file);
+      return Optional.of(file);
+    } catch (IOException e) {
+      log.warn("Could not write trace to: {}", file, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Sums durations of spans per service, and phase. Spans that are not attributed to a service,
+   * e.g. shared projects, are left out. Phases are in the order of {@link Phase}.
+   *
+   * @return Key: Name of service, Value: Key: Display name of phase, Value: Total milliseconds.
+   */
+  public static Map<String, Map<String, Long>> summarise(final List<SpanData> spans) {
+    final Map<String, Map<Phase, Long>> nanosPerService = new TreeMap<>();
+    spans.stream()
+        .filter(span -> span.attributes().containsKey(Span.SERVICE))
+        .forEach(
+            span ->
+                nanosPerService
+                    .computeIfAbsent(span.attributes().get(Span.SERVICE), it -> new TreeMap<>())
+                    .merge(span.phase(), span.durationNanos(), Long::sum));
+
+    final Map<String, Map<String, Long>> summary = new LinkedHashMap<>();
+    nanosPerService.forEach(
+        (service, nanosPerPhase) -> {
+          final Map<String, Long> millisPerPhase = new LinkedHashMap<>();
+          nanosPerPhase.forEach(
+              (phase, nanos) -> millisPerPhase.put(phase.getDisplayName(), nanos / 1_000_000));
+          summary.put(service, millisPerPhase);
+        });
+    return summary;
+  }
+
+  /** Complete events, with names of threads as metadata, so that every thread is a track. */
+  private static ObjectNode toChromeTrace(final List<SpanData> spans) {
+    final long pid = ProcessHandle.current().pid();
+    final ObjectNode trace = MAPPER.createObjectNode();
+    final ArrayNode events = trace.putArray("traceEvents");
+    final Map<Long, String> threadNames = new HashMap<>();
+    for (final var span : spans) {
+      threadNames.putIfAbsent(span.threadId(), span.threadName());
+      final ObjectNode event =
+          events
+              .addObject()
+              .put("name", span.name())
+              .put("cat", span.phase().getDisplayName())
+              .put("ph", "X")
+              .put("ts", span.startEpochNanos() / 1000)
+              .put("dur", span.durationNanos() / 1000)
+              .put("pid", pid)
+              .put("tid", span.threadId());
+      final ObjectNode args = event.putObject("args");
+      span.attributes().forEach(args::put);
+      args.put("spanId", span.spanId()).put("parentId", span.parentId());
+      if (span.error() != null) {
+        args.put("error", span.error());
+      }
+    }
+    threadNames.forEach(
+        (threadId, threadName) ->
+            events
+                .addObject()
+                .put("name", "thread_name")
+                .put("ph", "M")
+                .put("pid", pid)
+                .put("tid", threadId)
+                .putObject("args")
+                .put("name", threadName));
+    trace.put("displayTimeUnit", "ms");
+    return trace;
+  }
+
+  /** A single trace of all spans, in one resource, and one scope. */
+  private static ObjectNode toOtlp(final List<SpanData> spans) {
+    final String traceId = randomHex(16);
+    final ObjectNode request = MAPPER.createObjectNode();
+    final ObjectNode resourceSpans = request.putArray("resourceSpans").addObject();
+    addAttribute(
+        resourceSpans.putObject("resource").putArray("attributes"),
+        "service.name",
+        "msri-image-build");
+    final ObjectNode scopeSpans = resourceSpans.putArray("scopeSpans").addObject();
+    scopeSpans.putObject("scope").put("name", INSTRUMENTATION_SCOPE);
+    final ArrayNode otlpSpans = scopeSpans.putArray("spans");
+    for (final var span : spans) {
+      final ObjectNode otlpSpan =
+          otlpSpans
+              .addObject()
+              .put("traceId", traceId)
+              .put("spanId", "%016x".formatted(span.spanId()))
+              .put("name", span.name())
+              // 1: internal, as no span crosses a process
+              .put("kind", 1)
+              // 64-bit integers are strings in json encoding of the protocol
+              .put("startTimeUnixNano", String.valueOf(span.startEpochNanos()))
+              .put("endTimeUnixNano", String.valueOf(span.endEpochNanos()));
+      if (span.parentId() != 0) {
+        otlpSpan.put("parentSpanId", "%016x".formatted(span.parentId()));
+      }
+      final ArrayNode attributes = otlpSpan.putArray("attributes");
+      addAttribute(attributes, "msri.phase", span.phase().getDisplayName());
+      addAttribute(attributes, "thread.name", span.threadName());
+      span.attributes().forEach((key, value) -> addAttribute(attributes, "msri." + key, value));
+      // 1: ok, 2: error
+      final ObjectNode status = otlpSpan.putObject("status");
+      if (span.error() == null) {
+        status.put("code", 1);
+      } else {
+        status.put("code", 2).put("message", span.error());
+      }
+    }
+    return request;
+  }
+
+  private static void addAttribute(
+      final ArrayNode attributes, final String key, final String value) {
+    attributes.addObject().put("key", key).putObject("value").put("stringValue", value);
+  }
+
+  private static String randomHex(final int byteCount) {
+    final var hex = new StringBuilder();
+    for (int i = 0; i < byteCount; i++) {
+      hex.append("%02x".formatted(ThreadLocalRandom.current().nextInt(256)));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,11 @@
+package me.msri.trace;
+
+/** Formats that collected spans can be written in, besides JFR events. */
+public enum TraceFormat {
+  /** Spans are not written to a file. */
+  NONE,
+  /** Trace event format of Chrome, that <code>chrome://tracing</code>, and Perfetto open. */
+  CHROME,
+  /** JSON encoding of OpenTelemetry protocol, that OpenTelemetry collectors import. */
+  OTLP
+}
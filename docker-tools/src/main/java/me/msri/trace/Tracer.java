@@ -0,0 +1,168 @@
+package me.msri.trace;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Starts {@link Span}s, keeps track of the span that is current on every thread, and collects
+ * finished spans, so that they can be summarised, or exported once images are created.
+ *
+ * <p>Spans are always emitted as JFR events, which cost nothing without a recording. They are
+ * collected only once collection is enabled, e.g. by image build service, as nothing else drains
+ * them, and at most {@link #MAX_COLLECTED_SPANS} are kept till they are drained.
+ *
+ * <p>Work that moves to another thread, e.g. to an executor, is wrapped by {@link
+ * #propagate(Supplier)}, so that its spans remain part of the span that submitted it.
+ */
+@Slf4j
+@UtilityClass
+public class Tracer {
+
+  private static final int MAX_COLLECTED_SPANS = 50_000;
+
+  private static final AtomicLong SPAN_IDS = new AtomicLong();
+  private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+  private static final Queue<SpanData> COLLECTED = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger COLLECTED_COUNT = new AtomicInteger();
+  private static volatile boolean collecting;
+
+  /** Starts a span named after its phase. */
+  public static Span start(final Phase phase) {
+    return start(phase, phase.getDisplayName());
+  }
+
+  /**
+   * Starts a span that is part of the current span of this thread, and becomes the current span
+   * itself, till it is closed.
+   */
+  public static Span start(final Phase phase, final String name) {
+    final var span = new Span(SPAN_IDS.incrementAndGet(), CURRENT.get(), phase, name, true, now());
+    CURRENT.set(span);
+    return span;
+  }
+
+  /**
+   * Starts a span that is part of the current span of this thread, without becoming the current
+   * span, e.g. for a phase that is finished by another thread.
+   */
+  public static Span startDetached(final Phase phase) {
+    return new Span(
+        SPAN_IDS.incrementAndGet(), CURRENT.get(), phase, phase.getDisplayName(), false, now());
+  }
+
+  /**
+   * Records a span that already finished, as part of the current span of this thread, e.g. a task
+   * that build tool reported. It is collected only, as JFR events can not be back-dated.
+   */
+  public static void record(
+      final Phase phase,
+      final String name,
+      final long startEpochMillis,
+      final long endEpochMillis,
+      final String error) {
+    record(CURRENT.get(), phase, name, startEpochMillis, endEpochMillis, error);
+  }
+
+  static void record(
+      final Span parent,
+      final Phase phase,
+      final String name,
+      final long startEpochMillis,
+      final long endEpochMillis,
+      final String error) {
+    final var thread = Thread.currentThread();
+    collect(
+        new SpanData(
+            SPAN_IDS.incrementAndGet(),
+            parent == null ? 0 : parent.getId(),
+            phase,
+            name,
+            startEpochMillis * 1_000_000,
+            Math.max(0, endEpochMillis - startEpochMillis) * 1_000_000,
+            thread.getId(),
+            thread.getName(),
+            parent == null ? Map.of() : Map.copyOf(parent.getInheritedAttributes()),
+            error));
+  }
+
+  /** Wraps work, so that spans it starts on any thread are part of the current span. */
+  public static <T> Supplier<T> propagate(final Supplier<T> work) {
+    final var parent = CURRENT.get();
+    if (parent == null) {
+      return work;
+    }
+    return () -> {
+      final var previous = CURRENT.get();
+      CURRENT.set(parent);
+      try {
+        return work.get();
+      } finally {
+        CURRENT.set(previous);
+      }
+    };
+  }
+
+  /** @see #propagate(Supplier) */
+  public static Runnable propagate(final Runnable work) {
+    final Supplier<Void> supplier =
+        propagate(
+            () -> {
+              work.run();
+              return null;
+            });
+    return supplier::get;
+  }
+
+  /** Enables, or disables collection of finished spans. Spans collected so far are kept. */
+  public static void setCollecting(final boolean isCollecting) {
+    collecting = isCollecting;
+  }
+
+  /** Provides all spans collected since the last drain, in the order they finished. */
+  public static List<SpanData> drain() {
+    final List<SpanData> spans = new ArrayList<>();
+    SpanData span;
+    while ((span = COLLECTED.poll()) != null) {
+      spans.add(span);
+      COLLECTED_COUNT.decrementAndGet();
+    }
+    return spans;
+  }
+
+  static void collect(final SpanData span) {
+    if (!collecting) {
+      return;
+    }
+    if (COLLECTED_COUNT.incrementAndGet() > MAX_COLLECTED_SPANS) {
+      COLLECTED_COUNT.decrementAndGet();
+      log.debug("Span dropped, as {} spans are not drained yet: {}", MAX_COLLECTED_SPANS, span);
+      return;
+    }
+    COLLECTED.add(span);
+  }
+
+  /** Makes parent of a closed span current again, unless a span it did not start is current. */
+  static void restoreCurrent(final Span closedSpan, final Span parent) {
+    if (CURRENT.get() == closedSpan) {
+      if (parent == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(parent);
+      }
+    }
+  }
+
+  private static long now() {
+    final var instant = Instant.now();
+    return instant.getEpochSecond() * 1_000_000_000 + instant.getNano();
+  }
+}